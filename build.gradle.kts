@@ -10,12 +10,46 @@ repositories {
     }
 }
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+
 dependencies {
     implementation("org.ow2.asm:asm:9.0")
     implementation("org.ow2.asm:asm-tree:9.0")
     testImplementation("org.junit.jupiter:junit-jupiter:5.4.2")
+    jmh.implementationConfigurationName("org.openjdk.jmh:jmh-core:1.26")
+    jmh.annotationProcessorConfigurationName("org.openjdk.jmh:jmh-generator-annprocess:1.26")
+}
+
+tasks.jar {
+    manifest {
+        attributes(
+                "Premain-Class" to "eutros.runtimeobf.transform.RuntimeObfAgent",
+                "Agent-Class" to "eutros.runtimeobf.transform.RuntimeObfAgent"
+        )
+    }
 }
 
 tasks.test {
     useJUnitPlatform()
 }
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks. Arguments are passed with -PjmhArgs, e.g. -PjmhArgs=\"Linkage -rf json\"."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args = (findProperty("jmhArgs") as String?)?.split(" ") ?: emptyList()
+}
+
+tasks.register<JavaExec>("corpusBenchmark") {
+    group = "benchmark"
+    description = "Measures the startup cost of a synthetic corpus. Arguments are passed with -PcorpusArgs, e.g. -PcorpusArgs=\"classes=1000 envs=4 out=corpus.json\"."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("eutros.runtimeobf.benchmarks.CorpusBenchmark")
+    args = (findProperty("corpusArgs") as String?)?.split(" ") ?: emptyList()
+}
@@ -0,0 +1,25 @@
+plugins {
+    `java-gradle-plugin`
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    implementation(project(":"))
+    testImplementation("org.junit.jupiter:junit-jupiter:5.4.2")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+gradlePlugin {
+    plugins {
+        create("runtimeObf") {
+            id = "eutros.runtimeobf"
+            implementationClass = "eutros.runtimeobf.gradle.RuntimeObfPlugin"
+        }
+    }
+}
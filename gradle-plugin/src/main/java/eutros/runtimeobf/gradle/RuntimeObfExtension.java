@@ -0,0 +1,15 @@
+package eutros.runtimeobf.gradle;
+
+import org.gradle.api.provider.Property;
+
+/**
+ * The {@code runtimeObf} extension, configuring the transform of the main source set.
+ */
+public abstract class RuntimeObfExtension {
+    /**
+     * @return The name of a class on the {@value RuntimeObfPlugin#CONFIGURATION_NAME} configuration that
+     * supplies the transformation configuration.
+     * @see TransformClasses#getConfigFactory()
+     */
+    public abstract Property<String> getConfigFactory();
+}
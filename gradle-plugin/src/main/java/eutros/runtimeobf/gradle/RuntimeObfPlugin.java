@@ -0,0 +1,44 @@
+package eutros.runtimeobf.gradle;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
+
+/**
+ * Adds a {@value #TASK_NAME} task that transforms the compiled classes of the main source set into
+ * {@code build/runtimeobf/classes/main}.
+ * <p>
+ * The class named by {@link RuntimeObfExtension#getConfigFactory() runtimeObf.configFactory} is loaded from
+ * the {@value #CONFIGURATION_NAME} configuration.
+ */
+public class RuntimeObfPlugin implements Plugin<Project> {
+    public static final String EXTENSION_NAME = "runtimeObf";
+    public static final String CONFIGURATION_NAME = "runtimeObf";
+    public static final String TASK_NAME = "transformRuntimeObf";
+
+    @Override
+    public void apply(Project project) {
+        RuntimeObfExtension extension = project.getExtensions().create(EXTENSION_NAME, RuntimeObfExtension.class);
+        Configuration configuration = project.getConfigurations().create(CONFIGURATION_NAME, c -> {
+            c.setCanBeConsumed(false);
+            c.setDescription("The classpath of the runtime obfuscation config factory.");
+        });
+        project.getPlugins().withType(JavaPlugin.class, $ -> {
+            SourceSet main = project.getExtensions()
+                    .getByType(SourceSetContainer.class)
+                    .getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+            project.getTasks().register(TASK_NAME, TransformClasses.class, task -> {
+                task.setGroup("build");
+                task.setDescription("Applies the runtime obfuscation transform to the main classes.");
+                task.getClasses().from(main.getOutput().getClassesDirs());
+                task.getConfigClasspath().from(configuration);
+                task.getConfigFactory().set(extension.getConfigFactory());
+                task.getOutputDirectory().set(project.getLayout().getBuildDirectory().dir("runtimeobf/classes/main"));
+                task.getMaxWorkers().set(project.getGradle().getStartParameter().getMaxWorkerCount());
+            });
+        });
+    }
+}
@@ -0,0 +1,94 @@
+package eutros.runtimeobf.gradle;
+
+import eutros.runtimeobf.transform.ClassTransformer;
+import eutros.runtimeobf.transform.ConstantPoolFilter;
+import eutros.runtimeobf.transform.TransformationConfig;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Transforms a batch of classes for {@link TransformClasses}, and copies the files that aren't classes.
+ */
+public abstract class TransformBatch implements WorkAction<TransformBatch.Parameters> {
+    /**
+     * Configurations by factory and fingerprint, so that each worker class loader only loads them once.
+     */
+    private static final Map<String, TransformationConfig> CONFIGS = new ConcurrentHashMap<>();
+
+    public interface Parameters extends WorkParameters {
+        /**
+         * @return The absolute paths of the files to transform.
+         */
+        ListProperty<String> getInputs();
+
+        /**
+         * @return The paths of the outputs relative to the {@link #getOutputDirectory() output directory}, in the
+         * same order as {@link #getInputs()}.
+         */
+        ListProperty<String> getRelativePaths();
+
+        DirectoryProperty getOutputDirectory();
+
+        Property<String> getConfigFactory();
+
+        Property<String> getFingerprint();
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        List<String> inputs = parameters.getInputs().get();
+        List<String> relativePaths = parameters.getRelativePaths().get();
+        File outputDirectory = parameters.getOutputDirectory().get().getAsFile();
+        TransformationConfig config = config(parameters.getConfigFactory().get(), parameters.getFingerprint().get());
+        ClassTransformer transformer = config.classTransformer();
+        ConstantPoolFilter filter = config.filter();
+        for (int i = 0; i < inputs.size(); i++) {
+            File input = new File(inputs.get(i));
+            String relativePath = relativePaths.get(i);
+            File output = new File(outputDirectory, relativePath);
+            try {
+                byte[] bytes = Files.readAllBytes(input.toPath());
+                if (relativePath.endsWith(".class") && filter.test(bytes)) {
+                    String internalName = relativePath.substring(0, relativePath.length() - ".class".length())
+                            .replace(File.separatorChar, '/');
+                    bytes = transformer.transform(internalName, bytes);
+                }
+                Files.createDirectories(output.toPath().getParent());
+                Files.write(output.toPath(), bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to transform " + input, e);
+            }
+        }
+    }
+
+    private static TransformationConfig config(String factory, String fingerprint) {
+        return CONFIGS.computeIfAbsent(factory + "@" + fingerprint, $ -> {
+            try {
+                return loadConfig(TransformBatch.class.getClassLoader(), factory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to load the transformation config from " + factory, e);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static TransformationConfig loadConfig(ClassLoader loader, String factory) throws ReflectiveOperationException {
+        return ((Supplier<TransformationConfig>) Class.forName(factory, true, loader)
+                .getConstructor()
+                .newInstance())
+                .get();
+    }
+}
@@ -0,0 +1,150 @@
+package eutros.runtimeobf.gradle;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.file.FileType;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transforms directories of compiled classes, split into one batch for each worker.
+ * <p>
+ * Runs incrementally: only classes added or changed since the last run are transformed again, and the outputs
+ * of removed classes are deleted. Everything is transformed again if the fingerprint of the transformation
+ * configuration changed, or if Gradle can't tell what changed. Files other than classes are copied as they are.
+ */
+public abstract class TransformClasses extends DefaultTask {
+    private static final String FINGERPRINT_FILE = "fingerprint";
+
+    /**
+     * @return The directories of classes to transform. Outputs keep the paths of their inputs relative to these.
+     */
+    @Incremental
+    @SkipWhenEmpty
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @InputFiles
+    public abstract ConfigurableFileCollection getClasses();
+
+    /**
+     * @return The classpath to load the {@link #getConfigFactory() config factory} from, on top of this plugin.
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getConfigClasspath();
+
+    /**
+     * @return The name of a class implementing {@code Supplier<TransformationConfig>}, with a public no-arg constructor.
+     */
+    @Input
+    public abstract Property<String> getConfigFactory();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    /**
+     * @return The most batches to split the classes into, usually the build's maximum worker count.
+     */
+    @Internal
+    public abstract Property<Integer> getMaxWorkers();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @Inject
+    protected abstract FileSystemOperations getFileSystemOperations();
+
+    @TaskAction
+    public void transform(InputChanges inputChanges) throws IOException {
+        File stateFile = new File(getTemporaryDir(), FINGERPRINT_FILE);
+        String fingerprint = fingerprint();
+        boolean full = !inputChanges.isIncremental() ||
+                !stateFile.isFile() ||
+                !fingerprint.equals(new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8));
+        // forget the fingerprint until every worker has finished, so that a failed run is never trusted
+        Files.deleteIfExists(stateFile.toPath());
+
+        File outputDirectory = getOutputDirectory().get().getAsFile();
+        List<String> inputs = new ArrayList<>();
+        List<String> relativePaths = new ArrayList<>();
+        if (full) {
+            getFileSystemOperations().delete(spec -> spec.delete(outputDirectory));
+            getClasses().getAsFileTree().visit(details -> {
+                if (!details.isDirectory()) {
+                    inputs.add(details.getFile().getAbsolutePath());
+                    relativePaths.add(details.getRelativePath().getPathString());
+                }
+            });
+        } else {
+            for (FileChange change : inputChanges.getFileChanges(getClasses())) {
+                if (change.getFileType() == FileType.DIRECTORY) continue;
+                if (change.getChangeType() == ChangeType.REMOVED) {
+                    Files.deleteIfExists(new File(outputDirectory, change.getNormalizedPath()).toPath());
+                } else {
+                    inputs.add(change.getFile().getAbsolutePath());
+                    relativePaths.add(change.getNormalizedPath());
+                }
+            }
+        }
+
+        // one batch per worker, so the config is looked up and the transformer set up once for each
+        int batches = Math.min(inputs.size(), getMaxWorkers().get());
+        WorkQueue queue = getWorkerExecutor().classLoaderIsolation(spec -> spec.getClasspath().from(getConfigClasspath()));
+        for (int batch = 0; batch < batches; batch++) {
+            int from = inputs.size() * batch / batches;
+            int to = inputs.size() * (batch + 1) / batches;
+            queue.submit(TransformBatch.class, parameters -> {
+                parameters.getInputs().set(new ArrayList<>(inputs.subList(from, to)));
+                parameters.getRelativePaths().set(new ArrayList<>(relativePaths.subList(from, to)));
+                parameters.getOutputDirectory().set(outputDirectory);
+                parameters.getConfigFactory().set(getConfigFactory());
+                parameters.getFingerprint().set(fingerprint);
+            });
+        }
+        queue.await();
+        Files.write(stateFile.toPath(), fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Load the configuration here too, as the workers will, to find its fingerprint.
+     */
+    private String fingerprint() {
+        List<URL> urls = new ArrayList<>();
+        for (File file : getConfigClasspath()) {
+            try {
+                urls.add(file.toURI().toURL());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        try (URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), getClass().getClassLoader())) {
+            return toHex(TransformBatch.loadConfig(loader, getConfigFactory().get()).fingerprint());
+        } catch (IOException | ReflectiveOperationException | ClassCastException e) {
+            throw new GradleException("Failed to load the transformation config from " + getConfigFactory().get(), e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+}
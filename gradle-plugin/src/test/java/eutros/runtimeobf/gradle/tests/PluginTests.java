@@ -0,0 +1,121 @@
+package eutros.runtimeobf.gradle.tests;
+
+import eutros.runtimeobf.gradle.RuntimeObfPlugin;
+import eutros.runtimeobf.transform.TransformationConfig;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.Handle;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+public class PluginTests {
+
+    private static final String TASK = ":" + RuntimeObfPlugin.TASK_NAME;
+    private static final String BOOTSTRAP = "eutros/runtimeobf/Bootstrap";
+
+    @Test
+    public void testFullAndIncremental(@TempDir Path project) throws IOException, URISyntaxException {
+        write(project.resolve("settings.gradle"), "rootProject.name = 'app'\n" +
+                "include 'config'\n");
+        write(project.resolve("build.gradle"), "plugins {\n" +
+                "    id 'java'\n" +
+                "    id 'eutros.runtimeobf'\n" +
+                "}\n" +
+                "dependencies {\n" +
+                "    runtimeObf project(':config')\n" +
+                "}\n" +
+                "runtimeObf {\n" +
+                "    configFactory = 'config.Factory'\n" +
+                "}\n");
+        write(project.resolve("config/build.gradle"), "plugins {\n" +
+                "    id 'java'\n" +
+                "}\n" +
+                "dependencies {\n" +
+                "    compileOnly files('" + location(TransformationConfig.class) + "', '" + location(Handle.class) + "')\n" +
+                "}\n");
+        write(project.resolve("config/src/main/java/config/Factory.java"), "package config;\n" +
+                "import eutros.runtimeobf.transform.TransformationConfig;\n" +
+                "import org.objectweb.asm.Handle;\n" +
+                "import org.objectweb.asm.Opcodes;\n" +
+                "import java.util.function.Supplier;\n" +
+                "public class Factory implements Supplier<TransformationConfig> {\n" +
+                "    public TransformationConfig get() {\n" +
+                "        Handle handle = new Handle(Opcodes.H_INVOKESTATIC, \"app/Env\", \"get\", \"()Ljava/lang/Object;\", false);\n" +
+                "        return TransformationConfig.builder(handle, handle, handle, 2)\n" +
+                "                .mapClass(\"java/util/ArrayList\", \"ArrayList\", \"LinkedList\")\n" +
+                "                .build();\n" +
+                "    }\n" +
+                "}\n");
+        Path sources = project.resolve("src/main/java/app");
+        write(sources.resolve("Mapped.java"), "package app;\n" +
+                "public class Mapped {\n" +
+                "    public Object list() {\n" +
+                "        return new java.util.ArrayList<String>();\n" +
+                "    }\n" +
+                "}\n");
+        write(sources.resolve("Plain.java"), "package app;\n" +
+                "public class Plain {\n" +
+                "}\n");
+        write(sources.resolve("Removed.java"), "package app;\n" +
+                "public class Removed {\n" +
+                "}\n");
+        Path classes = project.resolve("build/classes/java/main/app");
+        Path output = project.resolve("build/runtimeobf/classes/main/app");
+
+        // a full build transforms mapped classes and copies the rest
+        assert run(project).task(TASK).getOutcome() == TaskOutcome.SUCCESS;
+        assert contains(Files.readAllBytes(output.resolve("Mapped.class")), BOOTSTRAP);
+        assert Arrays.equals(Files.readAllBytes(output.resolve("Plain.class")), Files.readAllBytes(classes.resolve("Plain.class")));
+        assert Files.isRegularFile(output.resolve("Removed.class"));
+        assert run(project).task(TASK).getOutcome() == TaskOutcome.UP_TO_DATE;
+
+        // an incremental build only writes what changed, and deletes the outputs of removed classes
+        FileTime untouched = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(output.resolve("Mapped.class"), untouched);
+        write(sources.resolve("Plain.java"), "package app;\n" +
+                "public class Plain {\n" +
+                "    public Object list() {\n" +
+                "        return new java.util.ArrayList<String>();\n" +
+                "    }\n" +
+                "}\n");
+        Files.delete(sources.resolve("Removed.java"));
+        assert run(project).task(TASK).getOutcome() == TaskOutcome.SUCCESS;
+        assert Files.getLastModifiedTime(output.resolve("Mapped.class")).equals(untouched);
+        assert contains(Files.readAllBytes(output.resolve("Plain.class")), BOOTSTRAP);
+        assert !Files.exists(output.resolve("Removed.class"));
+    }
+
+    private static BuildResult run(Path project) {
+        return GradleRunner.create()
+                .withProjectDir(project.toFile())
+                .withPluginClasspath()
+                .withArguments(RuntimeObfPlugin.TASK_NAME, "--stacktrace")
+                .build();
+    }
+
+    private static void write(Path path, String text) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String location(Class<?> clazz) throws URISyntaxException {
+        return Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toAbsolutePath()
+                .toString()
+                .replace('\\', '/');
+    }
+
+    private static boolean contains(byte[] bytes, String text) {
+        return new String(bytes, StandardCharsets.ISO_8859_1).contains(text);
+    }
+}
@@ -1 +1,3 @@
 rootProject.name = "RuntimeObf"
+
+include("gradle-plugin")
@@ -0,0 +1,98 @@
+package eutros.runtimeobf.benchmarks;
+
+import eutros.runtimeobf.asm.ErasingClassVisitor;
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+import eutros.runtimeobf.asm.RuntimeObfMethodVisitor;
+import eutros.runtimeobf.function.ClassNameRemapperFunction;
+import eutros.runtimeobf.function.NameRemapperFunction;
+import eutros.runtimeobf.util.AsmHelper;
+import org.objectweb.asm.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+public class BenchmarkHelper {
+
+    public static int ENV = 0;
+    public static ClassNameRemapperFunction CLASS_REMAPPER = internalName -> internalName;
+    public static NameRemapperFunction NAME_REMAPPER = (owner, name, descriptor) -> name;
+
+    public static final Handle GET_CLASS_REMAPPER;
+    public static final Handle GET_NAME_REMAPPER;
+    public static final Handle GET_ENV;
+
+    public static final MethodHandle GET_CLASS_REMAPPER_HANDLE;
+    public static final MethodHandle GET_NAME_REMAPPER_HANDLE;
+    public static final MethodHandle GET_ENV_HANDLE;
+
+    static {
+        try {
+            GET_CLASS_REMAPPER = AsmHelper.unreflectGetter(BenchmarkHelper.class.getField("CLASS_REMAPPER"));
+            GET_NAME_REMAPPER = AsmHelper.unreflectGetter(BenchmarkHelper.class.getField("NAME_REMAPPER"));
+            GET_ENV = AsmHelper.unreflectGetter(BenchmarkHelper.class.getField("ENV"));
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_CLASS_REMAPPER_HANDLE = AsmHelper.toMethodHandle(lookup, GET_CLASS_REMAPPER);
+            GET_NAME_REMAPPER_HANDLE = AsmHelper.toMethodHandle(lookup, GET_NAME_REMAPPER);
+            GET_ENV_HANDLE = AsmHelper.toMethodHandle(lookup, GET_ENV);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] readClass(String internalName) {
+        try (InputStream is = ClassLoader.getSystemResourceAsStream(internalName + ".class")) {
+            if (is == null) throw new IllegalArgumentException(internalName);
+            return is.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Run the visitor chain over a class, remapping the names matched by the predicate to themselves,
+     * in a single environment.
+     */
+    public static byte[] transform(byte[] bytes, Predicate<String> internalNamePredicate) {
+        Set<OwnerNameAndDesc> erasedFields = new HashSet<>();
+        Set<OwnerNameAndDesc> erasedMethods = new HashSet<>();
+        ClassReader reader = new ClassReader(bytes);
+        reader.accept(new ErasingClassVisitor(null, internalNamePredicate, erasedFields::add, erasedMethods::add),
+                ClassReader.SKIP_CODE);
+
+        Predicate<OwnerNameAndDesc> ownerPredicate = ownerNameAndDesc -> internalNamePredicate.test(ownerNameAndDesc.owner);
+        ClassWriter cw = new ClassWriter(0);
+        reader.accept(new ErasingClassVisitor(cw, internalNamePredicate, $ -> {
+        }, $ -> {
+        }) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new RuntimeObfMethodVisitor(super.visitMethod(access, name, descriptor, signature, exceptions),
+                        GET_CLASS_REMAPPER, GET_NAME_REMAPPER, GET_ENV,
+                        internalNamePredicate, internalName -> new String[] { internalName },
+                        ownerPredicate, ownerNameAndDesc -> new String[] { ownerNameAndDesc.name },
+                        ownerPredicate, ownerNameAndDesc -> new String[] { ownerNameAndDesc.name },
+                        erasedFields::contains, erasedMethods::contains);
+            }
+        }, 0);
+        return cw.toByteArray();
+    }
+
+    public static Class<?> define(String name, byte[] bytes) {
+        return new Loader().define(name, bytes);
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(BenchmarkHelper.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package eutros.runtimeobf.benchmarks;
+
+import eutros.runtimeobf.linkage.MemberStubs;
+import org.objectweb.asm.Type;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Steady-state cost of transformed code, against the same code untransformed.
+ * <p>
+ * The transformed code is linked twice, in separate classes: once to direct method handles,
+ * and once to {@link MemberStubs member stubs}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CallSiteBenchmark {
+    private IntSupplier untransformed;
+    private IntSupplier transformed;
+    private IntSupplier memberStubs;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        untransformed = new Workload();
+        byte[] bytes = BenchmarkHelper.transform(BenchmarkHelper.readClass(Type.getInternalName(Workload.class)),
+                Type.getInternalName(Target.class)::equals);
+        transformed = link(bytes);
+        MemberStubs.setEnabled(true);
+        try {
+            memberStubs = link(bytes);
+        } finally {
+            MemberStubs.setEnabled(false);
+        }
+    }
+
+    /**
+     * Define a transformed class and link all of its call sites.
+     */
+    private static IntSupplier link(byte[] bytes) throws ReflectiveOperationException {
+        IntSupplier supplier = (IntSupplier) BenchmarkHelper.define(Workload.class.getName(), bytes)
+                .getConstructor()
+                .newInstance();
+        if (supplier.getAsInt() != new Workload().getAsInt()) throw new IllegalStateException();
+        return supplier;
+    }
+
+    @Benchmark
+    public int untransformed() {
+        return untransformed.getAsInt();
+    }
+
+    @Benchmark
+    public int transformed() {
+        return transformed.getAsInt();
+    }
+
+    @Benchmark
+    public int transformedMemberStubs() {
+        return memberStubs.getAsInt();
+    }
+}
@@ -0,0 +1,241 @@
+package eutros.runtimeobf.benchmarks;
+
+import eutros.runtimeobf.linkage.CallSiteMode;
+import eutros.runtimeobf.linkage.CallSites;
+import eutros.runtimeobf.transform.ClassTransformer;
+import eutros.runtimeobf.transform.TransformationConfig;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Startup cost of transforming a {@link SyntheticCorpus synthetic corpus}, and of loading and running the result.
+ * <p>
+ * These are one-off costs paid once per class, so rather than a JMH benchmark this is a program that measures
+ * each round from cold, in a fresh class loader. Each round measures, over the whole corpus:
+ * <ul>
+ *     <li>{@code transformNanos}: running the classes through the transformer of a {@link TransformationConfig}.</li>
+ *     <li>{@code inputBytes}, {@code outputBytes} and {@code callSites}: the size of the classes before and after,
+ *     and how many INVOKEDYNAMIC instructions the transformed classes have.</li>
+ *     <li>{@code defineNanos}: defining and verifying the transformed classes.</li>
+ *     <li>{@code firstInvocationNanos}: initializing each class and running every method once,
+ *     which links every call site.</li>
+ * </ul>
+ * The first round is the coldest; later rounds show the cost once the transformer and bootstrap methods are warm.
+ * <p>
+ * Arguments are {@code key=value} pairs, with the defaults:
+ * {@code classes=200 methods=8 ops=32 density=0.25 identical=0 envs=2 env=0 mode=CONSTANT elide=false
+ * siteTables=false rounds=5 seed=0}, and {@code out} to write the results to a file instead of standard output.
+ * {@code identical} is the fraction of mapped operations whose expansion is the same in every environment,
+ * the only ones {@code elide=true} can leave as plain instructions.
+ * Results are written as JSON.
+ */
+public final class CorpusBenchmark {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("classes", "200");
+        DEFAULTS.put("methods", "8");
+        DEFAULTS.put("ops", "32");
+        DEFAULTS.put("density", "0.25");
+        DEFAULTS.put("identical", "0");
+        DEFAULTS.put("envs", "2");
+        DEFAULTS.put("env", "0");
+        DEFAULTS.put("mode", CallSiteMode.CONSTANT.name());
+        DEFAULTS.put("elide", "false");
+        DEFAULTS.put("siteTables", "false");
+        DEFAULTS.put("rounds", "5");
+        DEFAULTS.put("seed", "0");
+    }
+
+    private CorpusBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = new LinkedHashMap<>(DEFAULTS);
+        String out = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq == -1) throw new IllegalArgumentException("Expected key=value, got " + arg);
+            String key = arg.substring(0, eq);
+            if ("out".equals(key)) {
+                out = arg.substring(eq + 1);
+            } else if (params.containsKey(key)) {
+                params.put(key, arg.substring(eq + 1));
+            } else {
+                throw new IllegalArgumentException("Unknown parameter " + key + ", expected one of " + DEFAULTS.keySet());
+            }
+        }
+
+        int envs = Integer.parseInt(params.get("envs"));
+        SyntheticCorpus corpus = new SyntheticCorpus(
+                Integer.parseInt(params.get("classes")),
+                Integer.parseInt(params.get("methods")),
+                Integer.parseInt(params.get("ops")),
+                Double.parseDouble(params.get("density")),
+                Double.parseDouble(params.get("identical")),
+                envs,
+                Long.parseLong(params.get("seed")));
+        TransformationConfig config = corpus.map(TransformationConfig.builder(
+                        BenchmarkHelper.GET_CLASS_REMAPPER,
+                        BenchmarkHelper.GET_NAME_REMAPPER,
+                        BenchmarkHelper.GET_ENV,
+                        envs))
+                .elideIdentical(Boolean.parseBoolean(params.get("elide")))
+                .siteTables(Boolean.parseBoolean(params.get("siteTables")))
+                .build();
+        BenchmarkHelper.ENV = Integer.parseInt(params.get("env"));
+        CallSites.setMode(CallSiteMode.valueOf(params.get("mode")));
+
+        int rounds = Integer.parseInt(params.get("rounds"));
+        List<Map<String, Long>> results = new ArrayList<>();
+        for (int i = 0; i < rounds; i++) {
+            results.add(round(corpus, config));
+        }
+
+        String json = toJson(params, results);
+        if (out == null) {
+            System.out.println(json);
+        } else {
+            Files.write(Paths.get(out), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, Long> round(SyntheticCorpus corpus, TransformationConfig config) throws ReflectiveOperationException {
+        Map<String, Long> result = new LinkedHashMap<>();
+        ClassTransformer transformer = config.classTransformer();
+        Map<String, byte[]> transformed = new LinkedHashMap<>();
+        long inputBytes = 0;
+        long outputBytes = 0;
+
+        long start = System.nanoTime();
+        for (Map.Entry<String, byte[]> entry : corpus.getClasses().entrySet()) {
+            transformed.put(entry.getKey(), transformer.transform(entry.getKey(), entry.getValue()));
+        }
+        result.put("transformNanos", System.nanoTime() - start);
+
+        long callSites = 0;
+        for (Map.Entry<String, byte[]> entry : corpus.getClasses().entrySet()) {
+            byte[] bytes = transformed.get(entry.getKey());
+            inputBytes += entry.getValue().length;
+            outputBytes += bytes.length;
+            callSites += countInvokeDynamic(bytes);
+        }
+        result.put("inputBytes", inputBytes);
+        result.put("outputBytes", outputBytes);
+        result.put("callSites", callSites);
+
+        CorpusLoader loader = new CorpusLoader(corpus.getTargets());
+        List<Class<?>> classes = new ArrayList<>();
+        start = System.nanoTime();
+        for (Map.Entry<String, byte[]> entry : transformed.entrySet()) {
+            Class<?> clazz = loader.define(entry.getKey().replace('/', '.'), entry.getValue());
+            // like TestHelper.forceVerify, reflecting on the methods links and so verifies the class
+            clazz.getMethods();
+            classes.add(clazz);
+        }
+        result.put("defineNanos", System.nanoTime() - start);
+
+        long checksum = 0;
+        start = System.nanoTime();
+        for (Class<?> clazz : classes) {
+            checksum += ((IntSupplier) clazz.getConstructor().newInstance()).getAsInt();
+        }
+        result.put("firstInvocationNanos", System.nanoTime() - start);
+        result.put("checksum", checksum);
+        return result;
+    }
+
+    private static long countInvokeDynamic(byte[] bytes) {
+        long[] count = { 0 };
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                        count[0]++;
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return count[0];
+    }
+
+    private static String toJson(Map<String, String> params, List<Map<String, Long>> results) {
+        StringBuilder sb = new StringBuilder("{\n  \"parameters\": {");
+        String sep = "";
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            sb.append(sep).append("\n    \"").append(param.getKey()).append("\": ");
+            String value = param.getValue();
+            if ("mode".equals(param.getKey())) {
+                sb.append('"').append(value).append('"');
+            } else {
+                sb.append(value);
+            }
+            sep = ",";
+        }
+        sb.append("\n  },\n  \"rounds\": [");
+        sep = "";
+        for (Map<String, Long> result : results) {
+            sb.append(sep).append("\n    ").append(toJson(result));
+            sep = ",";
+        }
+        sb.append("\n  ],\n  \"median\": ");
+
+        Map<String, Long> median = new LinkedHashMap<>();
+        for (String key : results.get(0).keySet()) {
+            long[] values = results.stream().mapToLong(result -> result.get(key)).toArray();
+            Arrays.sort(values);
+            median.put(key, values[values.length / 2]);
+        }
+        sb.append(toJson(median));
+        return sb.append("\n}").toString();
+    }
+
+    private static String toJson(Map<String, Long> values) {
+        StringBuilder sb = new StringBuilder("{");
+        String sep = "";
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            sb.append(sep).append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+            sep = ", ";
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Defines corpus classes, finding the target classes they link to on demand.
+     */
+    private static class CorpusLoader extends ClassLoader {
+        private final Map<String, byte[]> targets = new HashMap<>();
+
+        CorpusLoader(Map<String, byte[]> targets) {
+            super(CorpusBenchmark.class.getClassLoader());
+            targets.forEach((name, bytes) -> this.targets.put(name.replace('/', '.'), bytes));
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = targets.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
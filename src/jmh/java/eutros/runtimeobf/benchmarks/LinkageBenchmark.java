@@ -0,0 +1,101 @@
+package eutros.runtimeobf.benchmarks;
+
+import eutros.runtimeobf.Bootstrap;
+import eutros.runtimeobf.linkage.LinkageCache;
+import eutros.runtimeobf.linkage.SymbolResolver;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of running the bootstrap methods, per replaced opcode.
+ * <p>
+ * With {@code cached} false, the linkage cache and the {@link SymbolResolver} of this class's loader are cleared
+ * before every link, so each link remaps its names and looks up its classes and member again.
+ * The classes themselves stay loaded, so this doesn't measure class loading.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LinkageBenchmark {
+    private static final String TARGET = "eutros/runtimeobf/benchmarks/Target";
+
+    @Param({
+            "INVOKEVIRTUAL",
+            "INVOKESTATIC",
+            "CONSTRUCTOR",
+            "GETFIELD",
+            "PUTSTATIC",
+            "CHECKCAST",
+            "INSTANCEOF",
+            "ANEWARRAY",
+            "MULTIANEWARRAY",
+            "LDC",
+    })
+    public String opcode;
+
+    @Param({ "true", "false" })
+    public boolean cached;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    @Benchmark
+    public CallSite link() throws Throwable {
+        if (!cached) {
+            LinkageCache.invalidate(LinkageBenchmark.class);
+            SymbolResolver.of(LinkageBenchmark.class.getClassLoader()).clear();
+        }
+        switch (opcode) {
+            case "INVOKEVIRTUAL":
+                return member("increment", MethodType.methodType(int.class, Object.class, int.class),
+                        Opcodes.INVOKEVIRTUAL, "increment", "(I)I");
+            case "INVOKESTATIC":
+                return member("twice", MethodType.methodType(int.class, int.class),
+                        Opcodes.INVOKESTATIC, "twice", "(I)I");
+            case "CONSTRUCTOR":
+                return member("construct", MethodType.methodType(Object.class, int.class),
+                        Opcodes.INVOKESPECIAL, "<init>", "(I)V");
+            case "GETFIELD":
+                return member("value", MethodType.methodType(int.class, Object.class),
+                        Opcodes.GETFIELD, "value", "I");
+            case "PUTSTATIC":
+                return member("counter", MethodType.methodType(void.class, int.class),
+                        Opcodes.PUTSTATIC, "counter", "I");
+            case "CHECKCAST":
+                return type("checkCast", MethodType.methodType(Object.class, Object.class), Opcodes.CHECKCAST);
+            case "INSTANCEOF":
+                return type("isInstance", MethodType.methodType(boolean.class, Object.class), Opcodes.INSTANCEOF);
+            case "ANEWARRAY":
+                return type("newArray", MethodType.methodType(Object[].class, int.class), Opcodes.ANEWARRAY);
+            case "MULTIANEWARRAY":
+                return type("multiNewArray", MethodType.methodType(Object[][].class, int.class, int.class), Opcodes.MULTIANEWARRAY);
+            case "LDC":
+                return type("constant", MethodType.methodType(Class.class), Opcodes.LDC);
+
+            default:
+                throw new IllegalArgumentException(opcode);
+        }
+    }
+
+    private CallSite member(String invokedName, MethodType invokedType, int opcode, String name, String desc) throws Throwable {
+        return Bootstrap.obfMethodOrFieldBootstrap(lookup, invokedName, invokedType, opcode,
+                BenchmarkHelper.GET_CLASS_REMAPPER_HANDLE,
+                BenchmarkHelper.GET_NAME_REMAPPER_HANDLE,
+                BenchmarkHelper.GET_ENV_HANDLE,
+                TARGET, name, desc);
+    }
+
+    private CallSite type(String invokedName, MethodType invokedType, int opcode) throws Throwable {
+        return Bootstrap.obfTypeBootstrap(lookup, invokedName, invokedType, opcode,
+                BenchmarkHelper.GET_CLASS_REMAPPER_HANDLE,
+                BenchmarkHelper.GET_ENV_HANDLE,
+                TARGET);
+    }
+}
@@ -0,0 +1,309 @@
+package eutros.runtimeobf.benchmarks;
+
+import eutros.runtimeobf.transform.TransformationConfig;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates classes that refer to a mapped class, {@code corpus/Target}, and its members, at a given density,
+ * along with the classes it expands to in each environment.
+ * <p>
+ * Each corpus class implements {@link java.util.function.IntSupplier}, calling every one of its methods in turn.
+ * Each method is a straight run of operations, of which a {@code density} fraction go through a mapped class,
+ * cycling through every kind of instruction that the transformation replaces. The rest are plain arithmetic
+ * and static calls to {@link Math}. An {@code identical} fraction of the mapped operations go through
+ * {@code corpus/Shared} instead, which expands to the same class and members in every environment, so that
+ * those are the operations {@linkplain TransformationConfig.Builder#elideIdentical(boolean) elision} applies to.
+ * <p>
+ * Classes are emitted for Java 11, the oldest version that {@linkplain TransformationConfig.Builder#siteTables(boolean)
+ * site tables} apply to.
+ */
+public final class SyntheticCorpus {
+    public static final String PACKAGE = "corpus/";
+    public static final String MAPPED = PACKAGE + "Target";
+    public static final String SHARED = PACKAGE + "Shared";
+
+    private static final String SHARED_TARGET = SHARED + "Target";
+    private static final int MAPPED_OPS = 9;
+    private static final int PLAIN = 0;
+    private static final int VARYING = 1;
+    private static final int IDENTICAL = 2;
+
+    private final Map<String, byte[]> classes = new LinkedHashMap<>();
+    private final Map<String, byte[]> targets = new LinkedHashMap<>();
+    private final int envCount;
+
+    /**
+     * @param classCount The number of corpus classes.
+     * @param methods    The number of methods per class.
+     * @param ops        The number of operations per method.
+     * @param density    The fraction of operations that refer to a mapped class, from 0 to 1.
+     * @param identical  The fraction of those operations that refer to {@value #SHARED}, whose mapping is the same
+     *                   in every environment, rather than to {@value #MAPPED}, from 0 to 1.
+     * @param envCount   The number of environments, each with its own target class.
+     * @param seed       The seed for choosing which operations refer to which mapped class.
+     */
+    public SyntheticCorpus(int classCount, int methods, int ops, double density, double identical, int envCount, long seed) {
+        this.envCount = envCount;
+        Random random = new Random(seed);
+        for (int i = 0; i < classCount; i++) {
+            String name = PACKAGE + "C" + i;
+            classes.put(name, corpusClass(name, methods, ops, density, identical, random));
+        }
+        for (int env = 0; env < envCount; env++) {
+            targets.put(targetName(env), targetClass(targetName(env), String.valueOf(env)));
+        }
+        targets.put(SHARED_TARGET, targetClass(SHARED_TARGET, ""));
+    }
+
+    /**
+     * @return The bytes of each corpus class, by internal name.
+     */
+    public Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return The bytes of the class the mapped class expands to in each environment, by internal name.
+     */
+    public Map<String, byte[]> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Add the mapped classes and their members to a configuration.
+     */
+    public TransformationConfig.Builder map(TransformationConfig.Builder builder) {
+        String[] classNames = new String[envCount];
+        String[] values = new String[envCount];
+        String[] increments = new String[envCount];
+        String[] twices = new String[envCount];
+        for (int env = 0; env < envCount; env++) {
+            classNames[env] = targetName(env);
+            values[env] = "value" + env;
+            increments[env] = "increment" + env;
+            twices[env] = "twice" + env;
+        }
+        String[] sharedNames = new String[envCount];
+        Arrays.fill(sharedNames, SHARED_TARGET);
+        String[] sharedValues = new String[envCount];
+        Arrays.fill(sharedValues, "value");
+        String[] sharedIncrements = new String[envCount];
+        Arrays.fill(sharedIncrements, "increment");
+        String[] sharedTwices = new String[envCount];
+        Arrays.fill(sharedTwices, "twice");
+        return builder.mapClass(MAPPED, classNames)
+                .mapField(MAPPED, "value", "I", values)
+                .mapMethod(MAPPED, "increment", "(I)I", increments)
+                .mapMethod(MAPPED, "twice", "(I)I", twices)
+                .mapClass(SHARED, sharedNames)
+                .mapField(SHARED, "value", "I", sharedValues)
+                .mapMethod(SHARED, "increment", "(I)I", sharedIncrements)
+                .mapMethod(SHARED, "twice", "(I)I", sharedTwices);
+    }
+
+    private static String targetName(int env) {
+        return MAPPED + env;
+    }
+
+    private static byte[] corpusClass(String name, int methods, int ops, double density, double identical, Random random) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object",
+                new String[] { "java/util/function/IntSupplier" });
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "getAsInt", "()I", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.ICONST_0);
+        for (int i = 0; i < methods; i++) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, "m" + i, "(I)I", false);
+        }
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        int next = 0;
+        for (int i = 0; i < methods; i++) {
+            int[] kinds = new int[ops];
+            boolean[] any = new boolean[3];
+            for (int j = 0; j < ops; j++) {
+                if (random.nextDouble() < density) {
+                    // only draw when needed, so that corpora without identical operations stay as they were
+                    kinds[j] = identical > 0 && random.nextDouble() < identical ? IDENTICAL : VARYING;
+                }
+                any[kinds[j]] = true;
+            }
+
+            // local 0 is the running value, local 1 the instance of Target, local 2 that of Shared
+            mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "m" + i, "(I)I", null, null);
+            mv.visitCode();
+            if (any[VARYING]) newInstance(mv, MAPPED, 1);
+            if (any[IDENTICAL]) newInstance(mv, SHARED, 2);
+            for (int j = 0; j < ops; j++) {
+                if (kinds[j] == VARYING) {
+                    mappedOp(mv, MAPPED, 1, next++ % MAPPED_OPS);
+                } else if (kinds[j] == IDENTICAL) {
+                    mappedOp(mv, SHARED, 2, next++ % MAPPED_OPS);
+                } else {
+                    plainOp(mv, j);
+                }
+            }
+            mv.visitVarInsn(Opcodes.ILOAD, 0);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void newInstance(MethodVisitor mv, String owner, int local) {
+        mv.visitTypeInsn(Opcodes.NEW, owner);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, owner, "<init>", "(I)V", false);
+        mv.visitVarInsn(Opcodes.ASTORE, local);
+    }
+
+    /**
+     * @param owner The mapped class to go through.
+     * @param local The local holding an instance of it.
+     */
+    private static void mappedOp(MethodVisitor mv, String owner, int local, int op) {
+        switch (op) {
+            case 0:
+                mv.visitVarInsn(Opcodes.ALOAD, local);
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, "increment", "(I)I", false);
+                mv.visitVarInsn(Opcodes.ISTORE, 0);
+                break;
+            case 1:
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "twice", "(I)I", false);
+                mv.visitVarInsn(Opcodes.ISTORE, 0);
+                break;
+            case 2:
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitVarInsn(Opcodes.ALOAD, local);
+                mv.visitFieldInsn(Opcodes.GETFIELD, owner, "value", "I");
+                mv.visitInsn(Opcodes.IADD);
+                mv.visitVarInsn(Opcodes.ISTORE, 0);
+                break;
+            case 3:
+                mv.visitVarInsn(Opcodes.ALOAD, local);
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitFieldInsn(Opcodes.PUTFIELD, owner, "value", "I");
+                break;
+            case 4:
+                mv.visitVarInsn(Opcodes.ALOAD, local);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+                mv.visitVarInsn(Opcodes.ASTORE, local);
+                break;
+            case 5:
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitVarInsn(Opcodes.ALOAD, local);
+                mv.visitTypeInsn(Opcodes.INSTANCEOF, owner);
+                mv.visitInsn(Opcodes.IADD);
+                mv.visitVarInsn(Opcodes.ISTORE, 0);
+                break;
+            case 6:
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitInsn(Opcodes.ICONST_2);
+                mv.visitTypeInsn(Opcodes.ANEWARRAY, owner);
+                mv.visitInsn(Opcodes.ARRAYLENGTH);
+                mv.visitInsn(Opcodes.IADD);
+                mv.visitVarInsn(Opcodes.ISTORE, 0);
+                break;
+            case 7:
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitInsn(Opcodes.ICONST_2);
+                mv.visitInsn(Opcodes.ICONST_2);
+                mv.visitMultiANewArrayInsn("[[L" + owner + ";", 2);
+                mv.visitInsn(Opcodes.ARRAYLENGTH);
+                mv.visitInsn(Opcodes.IADD);
+                mv.visitVarInsn(Opcodes.ISTORE, 0);
+                break;
+            case 8:
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitLdcInsn(Type.getObjectType(owner));
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "getModifiers", "()I", false);
+                mv.visitInsn(Opcodes.IADD);
+                mv.visitVarInsn(Opcodes.ISTORE, 0);
+                break;
+
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private static void plainOp(MethodVisitor mv, int j) {
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        if (j % 2 == 0) {
+            mv.visitIntInsn(Opcodes.BIPUSH, 31);
+            mv.visitInsn(Opcodes.IMUL);
+            mv.visitIntInsn(Opcodes.BIPUSH, j & 0x3F);
+            mv.visitInsn(Opcodes.IADD);
+        } else {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "abs", "(I)I", false);
+        }
+        mv.visitVarInsn(Opcodes.ISTORE, 0);
+    }
+
+    /**
+     * @param suffix The suffix of each member's name.
+     */
+    private static byte[] targetClass(String name, String suffix) {
+        String value = "value" + suffix;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        cw.visitField(Opcodes.ACC_PUBLIC, value, "I", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(I)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, value, "I");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "increment" + suffix, "(I)I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, value, "I");
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "twice" + suffix, "(I)I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitInsn(Opcodes.ICONST_2);
+        mv.visitInsn(Opcodes.IMUL);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
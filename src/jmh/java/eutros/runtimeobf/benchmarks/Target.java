@@ -0,0 +1,21 @@
+package eutros.runtimeobf.benchmarks;
+
+/**
+ * The class whose references are remapped in benchmarks.
+ */
+public class Target {
+    public static int counter;
+    public int value;
+
+    public Target(int value) {
+        this.value = value;
+    }
+
+    public int increment(int by) {
+        return value + by;
+    }
+
+    public static int twice(int value) {
+        return value * 2;
+    }
+}
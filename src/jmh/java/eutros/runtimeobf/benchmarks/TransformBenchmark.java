@@ -0,0 +1,54 @@
+package eutros.runtimeobf.benchmarks;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the transforming visitor chain over classes of increasing size,
+ * against a plain read and write of the same class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransformBenchmark {
+    private static final Set<String> MAPPED = new HashSet<>(Arrays.asList(
+            "java/lang/String",
+            "java/lang/Integer",
+            "java/util/Objects"));
+
+    @Param({
+            "eutros/runtimeobf/benchmarks/Workload",
+            "java/util/ArrayList",
+            "java/util/HashMap",
+            "java/util/concurrent/ConcurrentHashMap",
+    })
+    public String className;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        bytes = BenchmarkHelper.readClass(className);
+    }
+
+    @Benchmark
+    public byte[] copy() {
+        ClassWriter cw = new ClassWriter(0);
+        new ClassReader(bytes).accept(cw, 0);
+        return cw.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] transform() {
+        return BenchmarkHelper.transform(bytes, MAPPED::contains);
+    }
+}
@@ -0,0 +1,29 @@
+package eutros.runtimeobf.benchmarks;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Code that uses {@link Target} through every kind of instruction that the transformation replaces.
+ */
+@SuppressWarnings("ConstantConditions")
+public class Workload implements IntSupplier {
+    private final Target target = new Target(1);
+
+    @Override
+    public int getAsInt() {
+        Target t = target;
+        int sum = 0;
+        for (int i = 0; i < 16; i++) {
+            t.value = t.increment(i);
+            sum += Target.twice(t.value);
+        }
+        Target.counter = sum;
+        Object o = t;
+        if (o instanceof Target) sum += ((Target) o).value;
+        Target[] targets = new Target[2];
+        Target[][] targetArrays = new Target[2][2];
+        targets[0] = new Target(sum);
+        sum += targets.length + targetArrays.length + targets[0].value;
+        return Target.class == o.getClass() ? sum : -sum;
+    }
+}
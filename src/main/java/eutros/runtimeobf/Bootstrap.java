@@ -2,19 +2,36 @@ package eutros.runtimeobf;
 
 import eutros.runtimeobf.function.ClassNameRemapperFunction;
 import eutros.runtimeobf.function.NameRemapperFunction;
+import eutros.runtimeobf.linkage.CallSiteMode;
+import eutros.runtimeobf.linkage.CallSites;
+import eutros.runtimeobf.linkage.LinkageCache;
+import eutros.runtimeobf.linkage.LinkageMetrics;
+import eutros.runtimeobf.linkage.MemberStubs;
+import eutros.runtimeobf.linkage.MissingTargets;
+import eutros.runtimeobf.linkage.SymbolResolver;
+import eutros.runtimeobf.linkage.TypeStubs;
 import eutros.runtimeobf.util.DescriptorHelper;
-import eutros.runtimeobf.util.RegexHelper;
+import eutros.runtimeobf.util.SiteTables;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
 import java.lang.invoke.*;
 import java.lang.reflect.Array;
-import java.util.regex.Matcher;
 
 /**
  * Bootstrap methods for INVOKEDYNAMIC instructions.
+ * <p>
+ * Targets that don't exist in the current environment are handled by the {@link MissingTargets#getPolicy() policy}
+ * of {@link MissingTargets}.
  */
 public class Bootstrap {
 
+    /**
+     * Combined with the opcode given to {@link #obfMethodOrFieldBootstrap} when the INVOKESTATIC or INVOKESPECIAL
+     * it replaced referred to a method of an interface. Linking doesn't need it, but emitting the instruction again does.
+     */
+    public static final int INTERFACE_OWNER = 1 << 8;
+
     /**
      * The INVOKEDYNAMIC bootstrap method that replaces method invocations and field accesses.
      * <p>
@@ -31,7 +48,8 @@ public class Bootstrap {
      *                                  GETSTATIC,
      *                                  PUTSTATIC,
      *                                  GETFIELD or
-     *                                  PUTFIELD.
+     *                                  PUTFIELD,
+     *                                  possibly combined with {@link #INTERFACE_OWNER}.
      * @param getClassRemapper          A method that returns a method handle that remaps class names.
      *                                  <p>
      *                                  ()L{@link ClassNameRemapperFunction eutros/runtimeobf/function/ClassNameRemapperFunction};
@@ -45,6 +63,8 @@ public class Bootstrap {
      *                                  ()I
      *                                  <p>
      *                                  This will be used to index owners, names and descriptors to get which one to use.
+     *                                  It is read again on relinking if the call site is {@link CallSiteMode#SWITCHABLE switchable},
+     *                                  and on every invocation if it is {@link CallSiteMode#PER_INVOCATION per-invocation}.
      * @param ownersNamesAndDescriptors Three arrays of equal length flattened into one:
      *                                  An array of class names. {@code owners[getEnv()]} will be the one to use.
      *                                  An array of method names. {@code names[getEnv()]} will be the one to use.
@@ -64,8 +84,121 @@ public class Bootstrap {
             throws Throwable {
 
         assert ownersNamesAndDescriptors.length % 3 == 0;
+        int insnOpcode = opcode & ~INTERFACE_OWNER;
+        return CallSites.create(invokedType, getEnv, ownersNamesAndDescriptors.length / 3, env -> {
+            try {
+                return resolveMethodOrField(caller, insnOpcode, getClassRemapper, getNameRemapper, env, ownersNamesAndDescriptors)
+                        .asType(invokedType);
+            } catch (ReflectiveOperationException e) {
+                return MissingTargets.deferred(invokedType, e);
+            }
+        });
+    }
+
+    /**
+     * The INVOKEDYNAMIC bootstrap method that replaces single type instructions for classes.
+     *
+     * @param caller           Stacked automatically by the JVM. A {@link MethodHandles.Lookup lookup} in the caller class.
+     * @param invokedName      Stacked automatically by the JVM. The name indicated by the INVOKEDYNAMIC instruction.
+     * @param invokedType      Stacked automatically by the JVM. The type indicated by the INVOKEDYNAMIC instruction.
+     * @param opcode           The opcode that the INVOKEDYNAMIC replaced. One of:
+     *                         LDC,
+     *                         CHECKCAST,
+     *                         INSTANCEOF,
+     *                         ANEWARRAY or
+     *                         MULTIANEWARRAY.
+     * @param getClassRemapper A method that returns a method handle that remaps class names.
+     *                         <p>
+     *                         ()L{@link ClassNameRemapperFunction eutros/runtimeobf/function/ClassNameRemapperFunction};
+     * @param getEnv           A method of that returns an integer representing the environment.
+     *                         Expected to have descriptor:
+     *                         <p>
+     *                         ()I
+     * @param internalNames    An array of internal class names. {@code internalNames[getEnv()]} will be the one to use.
+     * @return A {@link CallSite} for the INVOKEDYNAMIC instruction.
+     * @throws Throwable if any of the method handles throw anything.
+     */
+    public static CallSite obfTypeBootstrap(MethodHandles.Lookup caller,
+                                            @SuppressWarnings("unused")
+                                                    String invokedName,
+                                            MethodType invokedType,
+                                            int opcode,
+                                            MethodHandle getClassRemapper,
+                                            MethodHandle getEnv,
+                                            String... internalNames)
+            throws Throwable {
+        return CallSites.create(invokedType, getEnv, internalNames.length, env -> {
+            try {
+                return resolveType(caller, invokedType, opcode, getClassRemapper, env, internalNames)
+                        .asType(invokedType);
+            } catch (ReflectiveOperationException e) {
+                return MissingTargets.deferred(invokedType, e);
+            }
+        });
+    }
+
+    /**
+     * The same as {@link #obfMethodOrFieldBootstrap(MethodHandles.Lookup, String, MethodType, int, MethodHandle, MethodHandle, MethodHandle, String...)},
+     * but with the owners, names and descriptors taken from an entry of the class's site table.
+     *
+     * @param table The site table of the class, a CONSTANT_Dynamic resolved by {@link #siteTable(MethodHandles.Lookup, String, Class, Object...)}.
+     * @param index The index of the entry in the table.
+     */
+    public static CallSite tableMethodOrFieldBootstrap(MethodHandles.Lookup caller,
+                                                       String invokedName,
+                                                       MethodType invokedType,
+                                                       int opcode,
+                                                       MethodHandle getClassRemapper,
+                                                       MethodHandle getNameRemapper,
+                                                       MethodHandle getEnv,
+                                                       String[][] table,
+                                                       int index)
+            throws Throwable {
+        return obfMethodOrFieldBootstrap(caller, invokedName, invokedType, opcode,
+                getClassRemapper, getNameRemapper, getEnv, table[index]);
+    }
+
+    /**
+     * The same as {@link #obfTypeBootstrap(MethodHandles.Lookup, String, MethodType, int, MethodHandle, MethodHandle, String...)},
+     * but with the internal names taken from an entry of the class's site table.
+     *
+     * @param table The site table of the class, a CONSTANT_Dynamic resolved by {@link #siteTable(MethodHandles.Lookup, String, Class, Object...)}.
+     * @param index The index of the entry in the table.
+     */
+    public static CallSite tableTypeBootstrap(MethodHandles.Lookup caller,
+                                              String invokedName,
+                                              MethodType invokedType,
+                                              int opcode,
+                                              MethodHandle getClassRemapper,
+                                              MethodHandle getEnv,
+                                              String[][] table,
+                                              int index)
+            throws Throwable {
+        return obfTypeBootstrap(caller, invokedName, invokedType, opcode, getClassRemapper, getEnv, table[index]);
+    }
+
+    /**
+     * The CONSTANT_Dynamic bootstrap method for the site table of a class. Resolved once per class,
+     * however many call sites refer to it.
+     *
+     * @param data The encoded table, as described in {@link SiteTables}.
+     * @return The decoded entries.
+     */
+    public static String[][] siteTable(@SuppressWarnings("unused") MethodHandles.Lookup caller,
+                                       @SuppressWarnings("unused") String name,
+                                       @SuppressWarnings("unused") Class<?> type,
+                                       Object... data) {
+        return SiteTables.decode(data);
+    }
+
+    private static MethodHandle resolveMethodOrField(MethodHandles.Lookup caller,
+                                                     int opcode,
+                                                     MethodHandle getClassRemapper,
+                                                     MethodHandle getNameRemapper,
+                                                     int env,
+                                                     String[] ownersNamesAndDescriptors)
+            throws Throwable {
         int maxEnv = ownersNamesAndDescriptors.length / 3;
-        int env = (int) getEnv.invokeExact();
         assert env < maxEnv;
         String owner = ownersNamesAndDescriptors[env];
         String name = ownersNamesAndDescriptors[maxEnv + env];
@@ -74,21 +207,84 @@ public class Bootstrap {
         ClassNameRemapperFunction classRemapper = (ClassNameRemapperFunction) getClassRemapper.invokeExact();
         NameRemapperFunction nameRemapper = (NameRemapperFunction) getNameRemapper.invokeExact();
 
-        String mappedOwner = classRemapper.remapClassName(owner);
-        String mappedName = nameRemapper.remapName(owner, name, descriptor);
-        String mappedDescriptor = RegexHelper.replaceAll(DescriptorHelper.DESCRIPTOR_NAME_PATTERN.matcher(descriptor),
-                matcher -> Matcher.quoteReplacement(classRemapper
-                        .remapClassName(matcher
-                                .group()
-                                .replace('/', '.')))
-                        .replace('.', '/'));
+        LinkageMetrics.linked(opcode);
+        LinkageCache.Key key = new LinkageCache.Key(caller, opcode, classRemapper, nameRemapper, owner, name, descriptor);
+        return LinkageCache.get(caller, key,
+                () -> linkMethodOrField(caller, opcode, classRemapper, nameRemapper, owner, name, descriptor));
+    }
 
-        ClassLoader loader = caller.lookupClass().getClassLoader();
-        boolean methodCall = mappedDescriptor.charAt(0) == '(';
+    private static MethodHandle resolveType(MethodHandles.Lookup caller,
+                                            MethodType invokedType,
+                                            int opcode,
+                                            MethodHandle getClassRemapper,
+                                            int env,
+                                            String[] internalNames)
+            throws Throwable {
+        String internalName = internalNames[env];
+        ClassNameRemapperFunction classRemapper = (ClassNameRemapperFunction) getClassRemapper.invokeExact();
+
+        LinkageMetrics.linked(opcode);
+        // the element type alone doesn't decide how many dimensions MULTIANEWARRAY creates
+        String desc = opcode == Opcodes.MULTIANEWARRAY ? invokedType.toMethodDescriptorString() : null;
+        LinkageCache.Key key = new LinkageCache.Key(caller, opcode, classRemapper, null, internalName, null, desc);
+        return LinkageCache.get(caller, key,
+                () -> linkType(caller, invokedType, opcode, classRemapper, internalName));
+    }
+
+    private static MethodHandle linkMethodOrField(MethodHandles.Lookup caller,
+                                                  int opcode,
+                                                  ClassNameRemapperFunction classRemapper,
+                                                  NameRemapperFunction nameRemapper,
+                                                  String owner,
+                                                  String name,
+                                                  String descriptor)
+            throws ReflectiveOperationException {
+        LinkageMetrics.Link link = LinkageMetrics.begin(caller, opcode, owner, name, descriptor);
+        try {
+            SymbolResolver symbols = SymbolResolver.of(caller.lookupClass().getClassLoader());
+            String mappedName = nameRemapper.remapName(owner, name, descriptor);
+            String mappedOwner = symbols.remapClassName(classRemapper, owner);
+            String mappedDescriptor = symbols.remapDescriptor(classRemapper, descriptor);
+            link.remapped();
+
+            // a missing owner is remembered as a class, so the members of a missing class all fail fast
+            MissingTargets.check(symbols, mappedOwner);
+            Class<?> ownerClass;
+            try {
+                ownerClass = symbols.loadClass(mappedOwner);
+            } catch (ClassNotFoundException e) {
+                throw MissingTargets.failed(symbols, mappedOwner, e);
+            }
 
-        Class<?> ownerClass = Class.forName(mappedOwner.replace('/', '.'), false, loader);
-        MethodType targetType = MethodType.fromMethodDescriptorString(methodCall ? mappedDescriptor : "()" + mappedDescriptor, loader);
+            String target = MissingTargets.target(mappedOwner, mappedName, mappedDescriptor);
+            MissingTargets.check(symbols, target);
+            try {
+                boolean methodCall = descriptor.charAt(0) == '(';
+                MethodType targetType = symbols.methodType(methodCall ? mappedDescriptor : "()" + mappedDescriptor);
+                link.loaded();
 
+                MethodHandle mh = findMember(caller, opcode, methodCall, ownerClass, mappedName, targetType);
+                MethodHandle stub = MemberStubs.stub(caller, opcode, ownerClass, mappedName, targetType, mh);
+                if (stub != null) mh = stub;
+                link.lookedUp();
+                link.end();
+                return mh;
+            } catch (ReflectiveOperationException e) {
+                throw MissingTargets.failed(symbols, target, e);
+            }
+        } catch (Throwable t) {
+            link.failed(t);
+            throw t;
+        }
+    }
+
+    private static MethodHandle findMember(MethodHandles.Lookup caller,
+                                           int opcode,
+                                           boolean methodCall,
+                                           Class<?> ownerClass,
+                                           String mappedName,
+                                           MethodType targetType)
+            throws ReflectiveOperationException {
         MethodHandle mh;
         if (methodCall) {
             switch (opcode) {
@@ -100,7 +296,7 @@ public class Bootstrap {
                     if ("<init>".equals(mappedName)) {
                         mh = caller.findConstructor(ownerClass, targetType);
                     } else {
-                        mh = caller.findSpecial(ownerClass, mappedName, targetType, ownerClass);
+                        mh = caller.findSpecial(ownerClass, mappedName, targetType, caller.lookupClass());
                     }
                     break;
                 case Opcodes.INVOKESTATIC:
@@ -131,52 +327,44 @@ public class Bootstrap {
             }
         }
 
-        return new ConstantCallSite(mh.asType(invokedType));
+        return mh;
     }
 
-    /**
-     * The INVOKEDYNAMIC bootstrap method that replaces single type instructions for classes.
-     *
-     * @param caller           Stacked automatically by the JVM. A {@link MethodHandles.Lookup lookup} in the caller class.
-     * @param invokedName      Stacked automatically by the JVM. The name indicated by the INVOKEDYNAMIC instruction.
-     * @param invokedType      Stacked automatically by the JVM. The type indicated by the INVOKEDYNAMIC instruction.
-     * @param opcode           The opcode that the INVOKEDYNAMIC replaced. One of:
-     *                         LDC,
-     *                         CHECKCAST,
-     *                         INSTANCEOF,
-     *                         ANEWARRAY or
-     *                         MULTIANEWARRAY.
-     * @param getClassRemapper A method that returns a method handle that remaps class names.
-     *                         <p>
-     *                         ()L{@link ClassNameRemapperFunction eutros/runtimeobf/function/ClassNameRemapperFunction};
-     * @param getEnv           A method of that returns an integer representing the environment.
-     *                         Expected to have descriptor:
-     *                         <p>
-     *                         ()I
-     * @param internalNames    An array of internal class names. {@code internalNames[getEnv()]} will be the one to use.
-     * @return A {@link CallSite} for the INVOKEDYNAMIC instruction.
-     * @throws Throwable if any of the method handles throw anything.
-     */
-    public static CallSite obfTypeBootstrap(MethodHandles.Lookup caller,
-                                            @SuppressWarnings("unused")
-                                                    String invokedName,
-                                            MethodType invokedType,
-                                            int opcode,
-                                            MethodHandle getClassRemapper,
-                                            MethodHandle getEnv,
-                                            String... internalNames)
-            throws Throwable {
-        String internalName = internalNames[(int) getEnv.invokeExact()];
-        ClassNameRemapperFunction classRemapper = (ClassNameRemapperFunction) getClassRemapper.invokeExact();
-        String mappedName = classRemapper.remapClassName(internalName.replace('/', '.'));
-        ClassLoader loader = caller.lookupClass().getClassLoader();
-        Class<?> mappedClass = Class.forName(mappedName, false, loader);
+    private static MethodHandle linkType(MethodHandles.Lookup caller,
+                                         MethodType invokedType,
+                                         int opcode,
+                                         ClassNameRemapperFunction classRemapper,
+                                         String internalName)
+            throws ReflectiveOperationException {
+        LinkageMetrics.Link link = LinkageMetrics.begin(caller, opcode, internalName, null, null);
+        try {
+            SymbolResolver symbols = SymbolResolver.of(caller.lookupClass().getClassLoader());
+            String mappedName = symbols.remapClassName(classRemapper, internalName);
+            link.remapped();
+            MissingTargets.check(symbols, mappedName);
+            Class<?> mappedClass;
+            try {
+                mappedClass = symbols.loadClass(mappedName);
+            } catch (ClassNotFoundException e) {
+                throw MissingTargets.failed(symbols, mappedName, e);
+            }
+            link.loaded();
+            MethodHandle mh = typeHandle(caller, invokedType, opcode, mappedClass);
+            link.end();
+            return mh;
+        } catch (Throwable t) {
+            link.failed(t);
+            throw t;
+        }
+    }
+
+    private static MethodHandle typeHandle(MethodHandles.Lookup caller, MethodType invokedType, int opcode, Class<?> mappedClass) {
+        if (opcode == Opcodes.LDC) return MethodHandles.constant(Class.class, mappedClass);
+        MethodHandle stub = TypeStubs.stub(caller, opcode, mappedClass, invokedType);
+        if (stub != null) return stub;
 
         MethodHandle mh;
         switch (opcode) {
-            case Opcodes.LDC:
-                mh = MethodHandles.constant(Class.class, mappedClass);
-                break;
             case Opcodes.CHECKCAST:
                 mh = MethodHandles.identity(mappedClass);
                 break;
@@ -187,13 +375,19 @@ public class Bootstrap {
                 mh = ARRAY_NEW_SINGLE.bindTo(mappedClass);
                 break;
             case Opcodes.MULTIANEWARRAY:
-                mh = ARRAY_NEW_MULTI.bindTo(mappedClass).asVarargsCollector(int[].class);
+                // the erased return type has as many dimensions as the array being created,
+                // of which only the outermost are given lengths
+                Class<?> componentType = mappedClass;
+                int unsized = DescriptorHelper.arrayDimensions(Type.getDescriptor(invokedType.returnType())) -
+                        invokedType.parameterCount();
+                for (int i = 0; i < unsized; i++) componentType = Array.newInstance(componentType, 0).getClass();
+                mh = ARRAY_NEW_MULTI.bindTo(componentType).asCollector(int[].class, invokedType.parameterCount());
                 break;
             default:
                 throw new IllegalArgumentException();
         }
 
-        return new ConstantCallSite(mh.asType(invokedType));
+        return mh;
     }
 
     private static final MethodHandle ARRAY_NEW_SINGLE;
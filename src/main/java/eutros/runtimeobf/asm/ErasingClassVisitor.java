@@ -22,6 +22,9 @@ public class ErasingClassVisitor extends ClassVisitor {
     private final Consumer<OwnerNameAndDesc> erasedFields;
     private final Consumer<OwnerNameAndDesc> erasedMethods;
 
+    private final DescriptorHelper.InternalNameMapper eraser;
+    private final StringBuilder descBuf = new StringBuilder();
+
     /**
      * @param classVisitor The class visitor to delegate to.
      * @param internalNamePredicate A predicate for internal names that need to be erased.
@@ -36,6 +39,25 @@ public class ErasingClassVisitor extends ClassVisitor {
         this.internalNamePredicate = internalNamePredicate;
         this.erasedFields = erasedFields;
         this.erasedMethods = erasedMethods;
+        this.eraser = (desc, start, end) ->
+                internalNamePredicate.test(desc.substring(start, end)) ? DescriptorHelper.OBJECT : null;
+    }
+
+    /**
+     * @param classVisitor The class visitor to delegate to.
+     * @param table The table of classes that need to be erased.
+     * @param erasedFields A consumer of fields to call with the fields whose types are erased.
+     * @param erasedMethods A consumer of methods to call with the methods whose types are erased.
+     */
+    public ErasingClassVisitor(ClassVisitor classVisitor,
+                               RemapTable table,
+                               Consumer<OwnerNameAndDesc> erasedFields,
+                               Consumer<OwnerNameAndDesc> erasedMethods) {
+        super(Opcodes.ASM9, classVisitor);
+        this.internalNamePredicate = table::isMappedClass;
+        this.erasedFields = erasedFields;
+        this.erasedMethods = erasedMethods;
+        this.eraser = (desc, start, end) -> table.isMappedClass(desc, start, end) ? DescriptorHelper.OBJECT : null;
     }
 
     @Override
@@ -54,15 +76,15 @@ public class ErasingClassVisitor extends ClassVisitor {
 
     @Override
     public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
-        String erased = DescriptorHelper.eraseDescriptorTypes(descriptor, internalNamePredicate);
-        if (!erased.equals(descriptor)) erasedFields.accept(new OwnerNameAndDesc(internalName, name, descriptor));
+        String erased = DescriptorHelper.remapDescriptor(descriptor, eraser, descBuf);
+        if (erased != descriptor) erasedFields.accept(new OwnerNameAndDesc(internalName, name, descriptor));
         return super.visitField(access, name, erased, signature, value);
     }
 
     @Override
     public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
-        String erased = DescriptorHelper.eraseDescriptorTypes(descriptor, internalNamePredicate);
-        if (!erased.equals(descriptor)) erasedMethods.accept(new OwnerNameAndDesc(internalName, name, descriptor));
+        String erased = DescriptorHelper.remapDescriptor(descriptor, eraser, descBuf);
+        if (erased != descriptor) erasedMethods.accept(new OwnerNameAndDesc(internalName, name, descriptor));
         return super.visitMethod(access, name, erased, signature, exceptions);
     }
 
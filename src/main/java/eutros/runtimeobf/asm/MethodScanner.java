@@ -0,0 +1,119 @@
+package eutros.runtimeobf.asm;
+
+import org.objectweb.asm.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Finds the methods of a class that {@link ErasingClassVisitor} and {@link RuntimeObfMethodVisitor} would change,
+ * by reading their code without writing anything.
+ * <p>
+ * A method is changed if its own descriptor is erased, or if any instruction, frame or local variable in it
+ * refers to a remapped or erased class or member. Every other method can be copied as it is, which a
+ * {@link ClassWriter} sharing the {@link ClassReader} does byte for byte if the method writer is handed straight
+ * back to the reader.
+ */
+public class MethodScanner {
+    /**
+     * @param reader The class to scan.
+     * @param table  The classes and members to remap and erase.
+     * @return The methods that need transforming, as {@link #key(String, String) keys}.
+     */
+    public static Set<String> changedMethods(ClassReader reader, RemapTable table) {
+        Set<String> changed = new HashSet<>();
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                String key = key(name, descriptor);
+                if (table.anyMappedClass(descriptor)) {
+                    changed.add(key);
+                    return null;
+                }
+                return new Scan(table, changed, key);
+            }
+        }, 0);
+        return changed;
+    }
+
+    /**
+     * @return The key of a method in the set returned by {@link #changedMethods(ClassReader, RemapTable)}.
+     */
+    public static String key(String name, String descriptor) {
+        return name + descriptor;
+    }
+
+    private static class Scan extends MethodVisitor {
+        private final RemapTable table;
+        private final Set<String> changed;
+        private final String key;
+        private boolean found = false;
+
+        Scan(RemapTable table, Set<String> changed, String key) {
+            super(Opcodes.ASM9);
+            this.table = table;
+            this.changed = changed;
+            this.key = key;
+        }
+
+        private void found() {
+            if (!found) {
+                found = true;
+                changed.add(key);
+            }
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            if (!found && table.isMappedType(type)) found();
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            if (!found && (table.expandClass(owner) != null ||
+                    table.anyMappedClass(descriptor) ||
+                    table.isErasedField(owner, name, descriptor) ||
+                    table.expandField(owner, name, descriptor) != null)) found();
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            if (!found && (table.expandClass(owner) != null ||
+                    table.anyMappedClass(descriptor) ||
+                    table.isErasedMethod(owner, name, descriptor) ||
+                    table.expandMethod(owner, name, descriptor) != null)) found();
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            if (found || !(value instanceof Type)) return;
+            Type type = (Type) value;
+            if ((type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY) &&
+                    table.isMappedType(type.getInternalName())) found();
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            if (!found && table.isMappedType(descriptor)) found();
+        }
+
+        @Override
+        public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+            if (!found && table.anyMappedClass(descriptor)) found();
+        }
+
+        @Override
+        public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+            if (found) return;
+            if (anyMapped(local, numLocal) || anyMapped(stack, numStack)) found();
+        }
+
+        private boolean anyMapped(Object[] types, int count) {
+            if (types == null) return false;
+            for (int i = 0; i < count; i++) {
+                if (types[i] instanceof String && table.isMappedType((String) types[i])) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -4,11 +4,20 @@ import java.util.Objects;
 
 public class OwnerNameAndDesc {
     public final String owner, name, desc;
+    private final int hash;
 
     public OwnerNameAndDesc(String owner, String name, String desc) {
         this.owner = owner;
         this.name = name;
         this.desc = desc;
+        this.hash = hash(owner, name, desc);
+    }
+
+    /**
+     * @return The hash code of an {@link OwnerNameAndDesc} with these parts, without making one.
+     */
+    public static int hash(String owner, String name, String desc) {
+        return (Objects.hashCode(owner) * 31 + Objects.hashCode(name)) * 31 + Objects.hashCode(desc);
     }
 
     @Override
@@ -16,14 +25,15 @@ public class OwnerNameAndDesc {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         OwnerNameAndDesc that = (OwnerNameAndDesc) o;
-        return Objects.equals(owner, that.owner) &&
+        return hash == that.hash &&
+                Objects.equals(owner, that.owner) &&
                 Objects.equals(name, that.name) &&
                 Objects.equals(desc, that.desc);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(owner, name, desc);
+        return hash;
     }
 
     @Override
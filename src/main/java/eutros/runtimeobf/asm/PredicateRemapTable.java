@@ -0,0 +1,68 @@
+package eutros.runtimeobf.asm;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A {@link RemapTable} made of separate predicates and expansion functions.
+ */
+class PredicateRemapTable implements RemapTable {
+    private final Predicate<String> internalNamePredicate;
+    private final Function<String, String[]> expandInternalName;
+    private final Predicate<OwnerNameAndDesc> fieldNamePredicate;
+    private final Function<OwnerNameAndDesc, String[]> expandFieldName;
+    private final Predicate<OwnerNameAndDesc> methodNamePredicate;
+    private final Function<OwnerNameAndDesc, String[]> expandMethodName;
+    private final Predicate<OwnerNameAndDesc> erasedFields;
+    private final Predicate<OwnerNameAndDesc> erasedMethods;
+
+    PredicateRemapTable(Predicate<String> internalNamePredicate,
+                        Function<String, String[]> expandInternalName,
+                        Predicate<OwnerNameAndDesc> fieldNamePredicate,
+                        Function<OwnerNameAndDesc, String[]> expandFieldName,
+                        Predicate<OwnerNameAndDesc> methodNamePredicate,
+                        Function<OwnerNameAndDesc, String[]> expandMethodName,
+                        Predicate<OwnerNameAndDesc> erasedFields,
+                        Predicate<OwnerNameAndDesc> erasedMethods) {
+        this.internalNamePredicate = internalNamePredicate;
+        this.expandInternalName = expandInternalName;
+        this.fieldNamePredicate = fieldNamePredicate;
+        this.expandFieldName = expandFieldName;
+        this.methodNamePredicate = methodNamePredicate;
+        this.expandMethodName = expandMethodName;
+        this.erasedFields = erasedFields;
+        this.erasedMethods = erasedMethods;
+    }
+
+    @Override
+    public boolean isMappedClass(String internalName) {
+        return internalNamePredicate.test(internalName);
+    }
+
+    @Override
+    public String[] expandClass(String internalName) {
+        return internalNamePredicate.test(internalName) ? expandInternalName.apply(internalName) : null;
+    }
+
+    @Override
+    public String[] expandField(String owner, String name, String desc) {
+        OwnerNameAndDesc ownerNameAndDesc = new OwnerNameAndDesc(owner, name, desc);
+        return fieldNamePredicate.test(ownerNameAndDesc) ? expandFieldName.apply(ownerNameAndDesc) : null;
+    }
+
+    @Override
+    public String[] expandMethod(String owner, String name, String desc) {
+        OwnerNameAndDesc ownerNameAndDesc = new OwnerNameAndDesc(owner, name, desc);
+        return methodNamePredicate.test(ownerNameAndDesc) ? expandMethodName.apply(ownerNameAndDesc) : null;
+    }
+
+    @Override
+    public boolean isErasedField(String owner, String name, String desc) {
+        return erasedFields.test(new OwnerNameAndDesc(owner, name, desc));
+    }
+
+    @Override
+    public boolean isErasedMethod(String owner, String name, String desc) {
+        return erasedMethods.test(new OwnerNameAndDesc(owner, name, desc));
+    }
+}
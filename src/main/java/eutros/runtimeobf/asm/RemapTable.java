@@ -0,0 +1,85 @@
+package eutros.runtimeobf.asm;
+
+import eutros.runtimeobf.util.DescriptorHelper;
+
+/**
+ * Answers which classes, fields and methods are remapped or erased, and what they expand to in each environment.
+ * <p>
+ * Arrays returned by implementations may be shared, and must not be modified.
+ */
+public interface RemapTable {
+    /**
+     * @param internalName The internal name of a class. Array classes are never remapped themselves.
+     * @return The internal names the class may have in each environment, or null if the class isn't remapped.
+     */
+    String[] expandClass(String internalName);
+
+    /**
+     * @return The names the field may have in each environment, or null if the field isn't remapped.
+     */
+    String[] expandField(String owner, String name, String desc);
+
+    /**
+     * @return The names the method may have in each environment, or null if the method isn't remapped.
+     */
+    String[] expandMethod(String owner, String name, String desc);
+
+    /**
+     * @return Whether accesses to the field should involve erasing types and nothing else.
+     */
+    boolean isErasedField(String owner, String name, String desc);
+
+    /**
+     * @return Whether invocations of the method should involve erasing types and nothing else.
+     */
+    boolean isErasedMethod(String owner, String name, String desc);
+
+    /**
+     * @param internalName The internal name of a class. Array classes are never remapped themselves.
+     * @return Whether the class is remapped, and so erased.
+     */
+    default boolean isMappedClass(String internalName) {
+        return expandClass(internalName) != null;
+    }
+
+    /**
+     * Check an internal name that is a region of a descriptor.
+     *
+     * @see #isMappedClass(String)
+     */
+    default boolean isMappedClass(String descriptor, int start, int end) {
+        return isMappedClass(descriptor.substring(start, end));
+    }
+
+    /**
+     * Expand an internal name that is a region of a descriptor.
+     *
+     * @see #expandClass(String)
+     */
+    default String[] expandClass(String descriptor, int start, int end) {
+        return expandClass(descriptor.substring(start, end));
+    }
+
+    /**
+     * @param internalName The internal name of a class or an array class.
+     * @return Whether the class, or the element class of an array of objects, is remapped.
+     */
+    default boolean isMappedType(String internalName) {
+        int dimensions = DescriptorHelper.arrayDimensions(internalName);
+        if (dimensions == 0) return isMappedClass(internalName);
+        return internalName.charAt(dimensions) == 'L' &&
+                isMappedClass(internalName, dimensions + 1, internalName.length() - 1);
+    }
+
+    /**
+     * @return Whether any internal name in a field or method descriptor is remapped.
+     */
+    default boolean anyMappedClass(String descriptor) {
+        for (int i = descriptor.indexOf('L'); i != -1; ) {
+            int end = descriptor.indexOf(';', i + 1);
+            if (isMappedClass(descriptor, i + 1, end)) return true;
+            i = descriptor.indexOf('L', end + 1);
+        }
+        return false;
+    }
+}
@@ -9,7 +9,6 @@ import org.objectweb.asm.*;
 import java.util.Arrays;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.regex.Matcher;
 
 public class RuntimeObfMethodVisitor extends MethodVisitor {
     private static final Handle obfMethodOrFieldBootstrap = AsmHelper.unreflect(BootstrapHelper.obfMethodOrFieldBootstrap);
@@ -19,17 +18,34 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
     private final Handle getNameRemapper;
     private final Handle getEnv;
 
-    private final Predicate<String> internalNamePredicate;
-    private final Function<String, String[]> expandInternalName;
-    private final Predicate<OwnerNameAndDesc> fieldNamePredicate;
-    private final Function<OwnerNameAndDesc, String[]> expandFieldName;
-    private final Predicate<OwnerNameAndDesc> methodNamePredicate;
-    private final Function<OwnerNameAndDesc, String[]> expandMethodName;
-
-    private final Predicate<OwnerNameAndDesc> erasedFields;
-    private final Predicate<OwnerNameAndDesc> erasedMethods;
+    private final RemapTable table;
+    private final DescriptorHelper.InternalNameMapper eraser;
+    private final DescriptorHelper.InternalNameExpander expander;
 
     private boolean sawNew = false;
+    private boolean elideIdentical = false;
+    private final StringBuilder descBuf = new StringBuilder();
+
+    /**
+     * @param methodVisitor The method visitor to delegate to.
+     * @param getClassRemapper The handle to use as the getClassRemapper argument in {@link Bootstrap} methods.
+     * @param getNameRemapper The handle to use as the getNameRemapper argument in {@link Bootstrap} methods.
+     * @param getEnv The handle to use as the getEnv argument in {@link Bootstrap} methods.
+     * @param table The classes and members to remap and erase, and what they expand to.
+     */
+    public RuntimeObfMethodVisitor(MethodVisitor methodVisitor,
+                                   Handle getClassRemapper,
+                                   Handle getNameRemapper,
+                                   Handle getEnv,
+                                   RemapTable table) {
+        super(Opcodes.ASM9, methodVisitor);
+        this.getClassRemapper = getClassRemapper;
+        this.getNameRemapper = getNameRemapper;
+        this.getEnv = getEnv;
+        this.table = table;
+        this.eraser = (desc, start, end) -> table.isMappedClass(desc, start, end) ? DescriptorHelper.OBJECT : null;
+        this.expander = table::expandClass;
+    }
 
     /**
      * @param methodVisitor The method visitor to delegate to.
@@ -57,18 +73,18 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
                                    Function<OwnerNameAndDesc, String[]> expandMethodName,
                                    Predicate<OwnerNameAndDesc> erasedFields,
                                    Predicate<OwnerNameAndDesc> erasedMethods) {
-        super(Opcodes.ASM9, methodVisitor);
-        this.getClassRemapper = getClassRemapper;
-        this.getNameRemapper = getNameRemapper;
-        this.getEnv = getEnv;
-        this.internalNamePredicate = internalNamePredicate;
-        this.expandInternalName = expandInternalName;
-        this.fieldNamePredicate = fieldNamePredicate;
-        this.expandFieldName = expandFieldName;
-        this.methodNamePredicate = methodNamePredicate;
-        this.expandMethodName = expandMethodName;
-        this.erasedFields = erasedFields;
-        this.erasedMethods = erasedMethods;
+        this(methodVisitor,
+                getClassRemapper,
+                getNameRemapper,
+                getEnv,
+                new PredicateRemapTable(internalNamePredicate,
+                        expandInternalName,
+                        fieldNamePredicate,
+                        expandFieldName,
+                        methodNamePredicate,
+                        expandMethodName,
+                        erasedFields,
+                        erasedMethods));
     }
 
     public RuntimeObfMethodVisitor(MethodVisitor methodVisitor,
@@ -95,41 +111,42 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
                 $ -> false);
     }
 
+    /**
+     * Set whether instructions that expand to the same owner, name and descriptor in every environment should be
+     * emitted as plain instructions against that expansion, rather than as INVOKEDYNAMIC.
+     * <p>
+     * Only enable this if the class and name remappers leave expanded names as they are, since elided instructions
+     * never reach them. Constructor invocations are never elided, as their NEW and DUP instructions are already gone,
+     * and nor are invocations or accesses with an erased operand anywhere but on top of the stack, which would take
+     * more than a single CHECKCAST to restore.
+     *
+     * @return This visitor.
+     */
+    public RuntimeObfMethodVisitor setElideIdentical(boolean elideIdentical) {
+        this.elideIdentical = elideIdentical;
+        return this;
+    }
+
     protected boolean visitObfMethodOrFieldBootstrap(int opcode, String owner, String name, String desc) {
+        return visitObfMethodOrFieldBootstrap(opcode, owner, name, desc, opcode == Opcodes.INVOKEINTERFACE);
+    }
+
+    private boolean visitObfMethodOrFieldBootstrap(int opcode, String owner, String name, String desc, boolean isInterface) {
         boolean method = desc.charAt(0) == '(';
-        String erasedDesc = DescriptorHelper.eraseDescriptorTypes(desc, internalNamePredicate);
-        OwnerNameAndDesc ownerNameAndDesc = new OwnerNameAndDesc(owner, name, desc);
+        String erasedDesc = DescriptorHelper.remapDescriptor(desc, eraser, descBuf);
 
-        if ((method ? erasedMethods : erasedFields).test(ownerNameAndDesc)) {
+        if (method ? table.isErasedMethod(owner, name, desc) : table.isErasedField(owner, name, desc)) {
             if (method) {
-                super.visitMethodInsn(opcode, owner, name, erasedDesc, opcode == Opcodes.INVOKEINTERFACE);
+                super.visitMethodInsn(opcode, owner, name, erasedDesc, isInterface);
             } else {
                 super.visitFieldInsn(opcode, owner, name, erasedDesc);
             }
             return true;
         }
 
-        String[] owners;
-        String[] names;
-        String[] descs;
-
-        if (internalNamePredicate.test(owner)) owners = expandInternalName.apply(owner);
-        else owners = null;
-
-        Predicate<OwnerNameAndDesc> namePredicate;
-        Function<OwnerNameAndDesc, String[]> expandName;
-        if (method) {
-            namePredicate = methodNamePredicate;
-            expandName = expandMethodName;
-        } else {
-            namePredicate = fieldNamePredicate;
-            expandName = expandFieldName;
-        }
-
-        if (namePredicate.test(ownerNameAndDesc)) names = expandName.apply(ownerNameAndDesc);
-        else names = null;
-
-        descs = expandDescriptor(desc);
+        String[] owners = table.expandClass(owner);
+        String[] names = method ? table.expandMethod(owner, name, desc) : table.expandField(owner, name, desc);
+        String[] descs = DescriptorHelper.expandDescriptor(desc, expander);
 
         int expectedLength =
                 owners != null ? owners.length :
@@ -155,8 +172,12 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
             Arrays.fill(descs, desc);
         }
 
+        if (elideIdentical && visitIdentical(opcode, owner, name, desc, isInterface, owners, names, descs)) return true;
+
         Object[] args = new Object[BootstrapHelper.OMOFB_FIXED_ARGS + expectedLength * 3];
-        args[BootstrapHelper.OMOFB_OPCODE] = opcode;
+        args[BootstrapHelper.OMOFB_OPCODE] = isInterface && opcode != Opcodes.INVOKEINTERFACE ?
+                opcode | Bootstrap.INTERFACE_OWNER :
+                opcode;
         args[BootstrapHelper.OMOFB_GET_CLASS_REMAPPER] = getClassRemapper;
         args[BootstrapHelper.OMOFB_GET_NAME_REMAPPER] = getNameRemapper;
         args[BootstrapHelper.OMOFB_GET_ENV] = getEnv;
@@ -164,18 +185,124 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
         System.arraycopy(names, 0, args, BootstrapHelper.OMOFB_FIXED_ARGS + expectedLength, expectedLength);
         System.arraycopy(descs, 0, args, BootstrapHelper.OMOFB_FIXED_ARGS + 2 * expectedLength, expectedLength);
 
-        boolean constructor = "<init>".equals(name);
-        if (constructor) {
-            name = "construct";
-            erasedDesc = erasedDesc.substring(0, erasedDesc.length() - 1) +
-                    'L' + DescriptorHelper.eraseType(owner) + ';';
+        String invokedDesc = invokedDescriptor(opcode, owner, name, erasedDesc);
+        if ("<init>".equals(name)) name = "construct";
+        super.visitInvokeDynamicInsn(name, invokedDesc, obfMethodOrFieldBootstrap, args);
+        return true;
+    }
+
+    /**
+     * Emit a plain instruction in place of a method invocation or field access whose expansions are all the same,
+     * casting the operand on top of the stack back from its erased type if need be.
+     *
+     * @return Whether the instruction was emitted.
+     */
+    private boolean visitIdentical(int opcode,
+                                   String owner,
+                                   String name,
+                                   String desc,
+                                   boolean isInterface,
+                                   String[] owners,
+                                   String[] names,
+                                   String[] descs) {
+        if ("<init>".equals(name) || !allEqual(owners) || !allEqual(names) || !allEqual(descs)) return false;
+
+        boolean method = desc.charAt(0) == '(';
+        Type[] operands;
+        Type[] expandedOperands;
+        if (method) {
+            operands = Type.getArgumentTypes(desc);
+            expandedOperands = Type.getArgumentTypes(descs[0]);
+        } else if (opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC) {
+            operands = new Type[] { Type.getType(desc) };
+            expandedOperands = new Type[] { Type.getType(descs[0]) };
+        } else {
+            operands = expandedOperands = new Type[0];
+        }
+
+        // the receiver, then the arguments or value, from the bottom of the stack up
+        int count = operands.length;
+        boolean hasReceiver = opcode != Opcodes.INVOKESTATIC && opcode != Opcodes.GETSTATIC && opcode != Opcodes.PUTSTATIC;
+        String cast = null;
+        for (int i = hasReceiver ? -1 : 0; i < count; i++) {
+            String internalName = i == -1 ? owner : referenceName(operands[i]);
+            if (internalName == null || !table.isMappedType(internalName)) continue;
+            if (i != count - 1) return false;
+            cast = i == -1 ? owners[0] : expandedOperands[i].getInternalName();
+        }
+
+        if (cast != null) super.visitTypeInsn(Opcodes.CHECKCAST, cast);
+        if (method) {
+            super.visitMethodInsn(opcode, owners[0], names[0], descs[0], isInterface);
+        } else {
+            super.visitFieldInsn(opcode, owners[0], names[0], descs[0]);
+        }
+        return true;
+    }
+
+    private static String referenceName(Type type) {
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY ? type.getInternalName() : null;
+    }
+
+    private static boolean allEqual(String[] expansions) {
+        for (int i = 1; i < expansions.length; i++) {
+            if (!expansions[i].equals(expansions[0])) return false;
         }
-        super.visitInvokeDynamicInsn(name, erasedDesc, obfMethodOrFieldBootstrap, args);
         return true;
     }
 
+    /**
+     * Get the descriptor of the INVOKEDYNAMIC instruction that replaces a method invocation or field access,
+     * taking the receiver or value on the stack into account.
+     */
+    private String invokedDescriptor(int opcode, String owner, String name, String erasedDesc) {
+        String ownerDesc = table.isMappedType(owner) ?
+                DescriptorHelper.toDescriptor(DescriptorHelper.eraseType(owner)) :
+                DescriptorHelper.toDescriptor(owner);
+        switch (opcode) {
+            case Opcodes.INVOKESTATIC:
+                return erasedDesc;
+            case Opcodes.INVOKESPECIAL:
+                return "<init>".equals(name) ?
+                        erasedDesc.substring(0, erasedDesc.length() - 1) + ownerDesc :
+                        "(" + ownerDesc + erasedDesc.substring(1);
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKEINTERFACE:
+                return "(" + ownerDesc + erasedDesc.substring(1);
+            case Opcodes.GETSTATIC:
+                return "()" + erasedDesc;
+            case Opcodes.PUTSTATIC:
+                return "(" + erasedDesc + ")V";
+            case Opcodes.GETFIELD:
+                return "(" + ownerDesc + ")" + erasedDesc;
+            case Opcodes.PUTFIELD:
+                return "(" + ownerDesc + erasedDesc + ")V";
+
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
     protected void visitObfTypeBootstrap(String name, String desc, int opcode, String internalName) {
-        String[] internalNamesMasked = expandInternalName.apply(DescriptorHelper.maskArray(internalName));
+        String[] internalNamesMasked = table.expandClass(DescriptorHelper.maskArray(internalName));
+        if (elideIdentical && allEqual(internalNamesMasked)) {
+            String expanded = DescriptorHelper.unmaskArray(internalName, internalNamesMasked[0]);
+            switch (opcode) {
+                case Opcodes.LDC:
+                    super.visitLdcInsn(Type.getObjectType(expanded));
+                    return;
+                case Opcodes.MULTIANEWARRAY:
+                    // the erased return type has as many dimensions as the array being created
+                    Type type = Type.getMethodType(desc);
+                    super.visitMultiANewArrayInsn(DescriptorHelper.repeatChar('[', type.getReturnType().getDimensions()) +
+                            DescriptorHelper.toDescriptor(expanded), type.getArgumentTypes().length);
+                    return;
+
+                default:
+                    super.visitTypeInsn(opcode, expanded);
+                    return;
+            }
+        }
         Object[] args = new Object[BootstrapHelper.OTB_FIXED_ARGS + internalNamesMasked.length];
         args[BootstrapHelper.OTB_OPCODE] = opcode;
         args[BootstrapHelper.OTB_GET_CLASS_REMAPPER] = getClassRemapper;
@@ -186,41 +313,12 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
         super.visitInvokeDynamicInsn(name, desc, obfTypeBootstrap, args);
     }
 
-    private String[] expandDescriptor(String desc) {
-        boolean expanded = false;
-        StringBuffer[] bufs = new StringBuffer[]{new StringBuffer()};
-        Matcher matcher = DescriptorHelper.DESCRIPTOR_NAME_PATTERN.matcher(desc);
-        while (matcher.find()) {
-            String internalName = matcher.group();
-            if (internalNamePredicate.test(internalName)) {
-                expanded = true;
-                String[] expandedInternal = expandInternalName.apply(internalName);
-                if (bufs.length < expandedInternal.length) {
-                    StringBuffer[] newBufs = Arrays.copyOf(bufs, expandedInternal.length);
-                    for (int i = bufs.length - 1; i < newBufs.length; i++) {
-                        newBufs[i] = new StringBuffer(desc.subSequence(0, matcher.start()));
-                    }
-                    bufs = newBufs;
-                }
-                for (int i = 0; i < expandedInternal.length; i++) {
-                    matcher.appendReplacement(bufs[i], Matcher.quoteReplacement(expandedInternal[i]));
-                }
-            } else {
-                for (StringBuffer buf : bufs) {
-                    matcher.appendReplacement(buf, Matcher.quoteReplacement(internalName));
-                }
-            }
-        }
-        if (!expanded) return null;
-        for (StringBuffer buf : bufs) matcher.appendTail(buf);
-        String[] ret = new String[bufs.length];
-        for (int i = 0; i < ret.length; i++) ret[i] = bufs[i].toString();
-        return ret;
-    }
-
     @Override
     public void visitTypeInsn(int opcode, String type) {
-        if (!internalNamePredicate.test(DescriptorHelper.maskArray(type))) super.visitTypeInsn(opcode, type);
+        if (!table.isMappedType(type)) {
+            super.visitTypeInsn(opcode, type);
+            return;
+        }
         String desc;
         String name;
         switch (opcode) {
@@ -232,7 +330,7 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
                 name = "newArray";
                 break;
             case Opcodes.CHECKCAST:
-                desc = "(Ljava/lang/Object;)" + DescriptorHelper.eraseType(type);
+                desc = "(Ljava/lang/Object;)" + DescriptorHelper.toDescriptor(DescriptorHelper.eraseType(type));
                 name = "checkCast";
                 break;
             case Opcodes.INSTANCEOF:
@@ -262,7 +360,7 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
 
     @Override
     public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
-        if (visitObfMethodOrFieldBootstrap(opcode, owner, name, descriptor)) return;
+        if (visitObfMethodOrFieldBootstrap(opcode, owner, name, descriptor, isInterface)) return;
         super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
     }
 
@@ -274,7 +372,7 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
         }
         Type type = (Type) value;
         if ((type.getSort() != Type.OBJECT && type.getSort() != Type.ARRAY) ||
-                !internalNamePredicate.test(type.toString())) {
+                !table.isMappedType(type.getInternalName())) {
             super.visitLdcInsn(value);
             return;
         }
@@ -283,18 +381,18 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
 
     @Override
     public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
-        String masked = DescriptorHelper.maskArray(descriptor);
-        if (!internalNamePredicate.test(masked)) {
+        if (!table.isMappedType(descriptor)) {
             super.visitMultiANewArrayInsn(descriptor, numDimensions);
             return;
         }
-        String desc = "(" + DescriptorHelper.repeatChar('I', numDimensions) + ")" + DescriptorHelper.eraseDescriptorTypes(descriptor, internalNamePredicate);
+        String masked = DescriptorHelper.maskArray(descriptor);
+        String desc = "(" + DescriptorHelper.repeatChar('I', numDimensions) + ")" + DescriptorHelper.remapDescriptor(descriptor, eraser, descBuf);
         visitObfTypeBootstrap("multiNewArray", desc, Opcodes.MULTIANEWARRAY, masked);
     }
 
     @Override
     public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
-        super.visitLocalVariable(name, DescriptorHelper.eraseDescriptorTypes(descriptor, internalNamePredicate), signature, start, end, index);
+        super.visitLocalVariable(name, DescriptorHelper.remapDescriptor(descriptor, eraser, descBuf), signature, start, end, index);
     }
 
     @Override
@@ -306,7 +404,7 @@ public class RuntimeObfMethodVisitor extends MethodVisitor {
         Object[] ret = new Object[local.length];
         for (int i = 0; i < local.length; i++) {
             Object o = local[i];
-            if (o instanceof String && internalNamePredicate.test(DescriptorHelper.maskArray(((String) o)))) {
+            if (o instanceof String && table.isMappedType((String) o)) {
                 ret[i] = DescriptorHelper.eraseType((String) o);
             } else {
                 ret[i] = o;
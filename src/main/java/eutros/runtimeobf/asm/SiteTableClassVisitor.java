@@ -0,0 +1,157 @@
+package eutros.runtimeobf.asm;
+
+import eutros.runtimeobf.util.AsmHelper;
+import eutros.runtimeobf.util.BootstrapHelper;
+import eutros.runtimeobf.util.SiteTables;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+
+/**
+ * A class visitor that moves the owners, names and descriptors of the INVOKEDYNAMIC instructions emitted by
+ * {@link RuntimeObfMethodVisitor} into a site table shared by the whole class, a single CONSTANT_Dynamic
+ * that call sites refer to by index. Entries are de-duplicated, and encoded as described in {@link SiteTables},
+ * storing only the environments that differ.
+ * <p>
+ * Should run after the {@link RuntimeObfMethodVisitor}, that is, wrapped by it. Methods are buffered until the end
+ * of the class, since the table has to be complete before any instruction can refer to it. Classes older than
+ * Java 11 can't have CONSTANT_Dynamic entries, and are passed through as they are.
+ */
+public class SiteTableClassVisitor extends ClassVisitor {
+    private static final Handle obfMethodOrFieldBootstrap = AsmHelper.unreflect(BootstrapHelper.obfMethodOrFieldBootstrap);
+    private static final Handle obfTypeBootstrap = AsmHelper.unreflect(BootstrapHelper.obfTypeBootstrap);
+    private static final Handle tableMethodOrFieldBootstrap = AsmHelper.unreflect(BootstrapHelper.tableMethodOrFieldBootstrap);
+    private static final Handle tableTypeBootstrap = AsmHelper.unreflect(BootstrapHelper.tableTypeBootstrap);
+    private static final Handle siteTable = AsmHelper.unreflect(BootstrapHelper.siteTable);
+    private static final String TABLE_DESCRIPTOR = "[[Ljava/lang/String;";
+
+    private boolean enabled;
+    private final List<Table> tables = new ArrayList<>();
+    private final Map<List<Object>, Entry> entries = new HashMap<>();
+    private final List<Runnable> pendingMethods = new ArrayList<>();
+
+    public SiteTableClassVisitor(ClassVisitor classVisitor) {
+        super(Opcodes.ASM9, classVisitor);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        enabled = (version & 0xFFFF) >= Opcodes.V11;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor delegate = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!enabled || delegate == null) return delegate;
+        return new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+            @Override
+            public void visitEnd() {
+                Map<InvokeDynamicInsnNode, Entry> sites = collect(this);
+                if (sites.isEmpty()) {
+                    accept(delegate);
+                } else {
+                    pendingMethods.add(() -> {
+                        sites.forEach(SiteTableClassVisitor::rewrite);
+                        accept(delegate);
+                    });
+                }
+            }
+        };
+    }
+
+    @Override
+    public void visitEnd() {
+        for (Runnable method : pendingMethods) method.run();
+        super.visitEnd();
+    }
+
+    /**
+     * Find the sites of a method, and add their entries to the tables.
+     */
+    private Map<InvokeDynamicInsnNode, Entry> collect(MethodNode method) {
+        Map<InvokeDynamicInsnNode, Entry> sites = new IdentityHashMap<>();
+        for (AbstractInsnNode insn : method.instructions) {
+            if (!(insn instanceof InvokeDynamicInsnNode)) continue;
+            InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+            int components;
+            if (obfMethodOrFieldBootstrap.equals(indy.bsm)) components = 3;
+            else if (obfTypeBootstrap.equals(indy.bsm)) components = 1;
+            else continue;
+            int fixed = fixedArgs(indy);
+            List<Object> key = new ArrayList<>(indy.bsmArgs.length - fixed + 1);
+            key.add(components);
+            key.addAll(Arrays.asList(indy.bsmArgs).subList(fixed, indy.bsmArgs.length));
+            sites.put(indy, entries.computeIfAbsent(key, $ -> add(indy, fixed, components)));
+        }
+        return sites;
+    }
+
+    private static int fixedArgs(InvokeDynamicInsnNode indy) {
+        return obfMethodOrFieldBootstrap.equals(indy.bsm) ? BootstrapHelper.OMOFB_FIXED_ARGS : BootstrapHelper.OTB_FIXED_ARGS;
+    }
+
+    private Entry add(InvokeDynamicInsnNode indy, int fixed, int components) {
+        String[] values = new String[indy.bsmArgs.length - fixed];
+        for (int i = 0; i < values.length; i++) values[i] = (String) indy.bsmArgs[fixed + i];
+        int envCount = values.length / components;
+        List<Object> encoded = new ArrayList<>();
+        SiteTables.encodeEntry(values, components, encoded);
+        Table table = tables.isEmpty() ? null : tables.get(tables.size() - 1);
+        if (table == null || table.args.size() + encoded.size() > SiteTables.MAX_ARGS || table.envCount != envCount) {
+            table = new Table(tables.size(), envCount);
+            tables.add(table);
+        }
+        Entry entry = new Entry(table, table.entries++);
+        table.args.addAll(encoded);
+        return entry;
+    }
+
+    private static void rewrite(InvokeDynamicInsnNode indy, Entry entry) {
+        boolean member = obfMethodOrFieldBootstrap.equals(indy.bsm);
+        int fixed = fixedArgs(indy);
+        Object[] args = new Object[fixed + 2];
+        System.arraycopy(indy.bsmArgs, 0, args, 0, fixed);
+        args[fixed] = entry.table.constant();
+        args[fixed + 1] = entry.index;
+        indy.bsm = member ? tableMethodOrFieldBootstrap : tableTypeBootstrap;
+        indy.bsmArgs = args;
+    }
+
+    private static class Table {
+        final int number;
+        final int envCount;
+        final List<Object> args = new ArrayList<>();
+        int entries;
+        private ConstantDynamic constant;
+
+        Table(int number, int envCount) {
+            this.number = number;
+            this.envCount = envCount;
+            args.add(envCount);
+        }
+
+        /**
+         * @return The CONSTANT_Dynamic of the table. Only valid once all entries have been added.
+         */
+        ConstantDynamic constant() {
+            if (constant == null) {
+                constant = new ConstantDynamic("siteTable" + number, TABLE_DESCRIPTOR, siteTable, args.toArray());
+            }
+            return constant;
+        }
+    }
+
+    private static class Entry {
+        final Table table;
+        final int index;
+
+        Entry(Table table, int index) {
+            this.table = table;
+            this.index = index;
+        }
+    }
+}
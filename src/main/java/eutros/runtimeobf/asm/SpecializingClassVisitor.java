@@ -0,0 +1,220 @@
+package eutros.runtimeobf.asm;
+
+import eutros.runtimeobf.Bootstrap;
+import eutros.runtimeobf.function.ClassNameRemapperFunction;
+import eutros.runtimeobf.function.NameRemapperFunction;
+import eutros.runtimeobf.util.AsmHelper;
+import eutros.runtimeobf.util.BootstrapHelper;
+import eutros.runtimeobf.util.DescriptorHelper;
+import eutros.runtimeobf.util.SiteTables;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.*;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A class visitor that specializes a class transformed by {@link RuntimeObfMethodVisitor} for a single environment,
+ * replacing its INVOKEDYNAMIC instructions with the instructions they stand for,
+ * with owners, names and descriptors remapped as the bootstrap methods would at runtime.
+ * <p>
+ * Erased field and method declarations are kept as they are, since the transformed class no longer has their
+ * original types, and all of their uses remain consistently erased. Arguments that were erased on the stack
+ * are cast back to the types the remapped member expects.
+ * <p>
+ * Invocations are emitted as interface method references if they replaced INVOKEINTERFACE,
+ * or an INVOKESTATIC or INVOKESPECIAL marked with {@link Bootstrap#INTERFACE_OWNER}.
+ * <p>
+ * Sites that refer to a {@link SiteTableClassVisitor site table} are specialized the same way.
+ */
+public class SpecializingClassVisitor extends ClassVisitor {
+    private static final Handle obfMethodOrFieldBootstrap = AsmHelper.unreflect(BootstrapHelper.obfMethodOrFieldBootstrap);
+    private static final Handle obfTypeBootstrap = AsmHelper.unreflect(BootstrapHelper.obfTypeBootstrap);
+
+    private final int env;
+    private final ClassNameRemapperFunction classRemapper;
+    private final NameRemapperFunction nameRemapper;
+    private final Map<ConstantDynamic, String[][]> siteTables = new IdentityHashMap<>();
+
+    /**
+     * @param classVisitor  The class visitor to delegate to.
+     * @param env           The environment to specialize for, as the getEnv handle would return it.
+     * @param classRemapper The class remapper of the environment, as the getClassRemapper handle would return it.
+     * @param nameRemapper  The name remapper of the environment, as the getNameRemapper handle would return it.
+     */
+    public SpecializingClassVisitor(ClassVisitor classVisitor,
+                                    int env,
+                                    ClassNameRemapperFunction classRemapper,
+                                    NameRemapperFunction nameRemapper) {
+        super(Opcodes.ASM9, classVisitor);
+        this.env = env;
+        this.classRemapper = classRemapper;
+        this.nameRemapper = nameRemapper;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor delegate = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (delegate == null) return null;
+        return new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+            @Override
+            public void visitEnd() {
+                specialize(this);
+                accept(delegate);
+            }
+        };
+    }
+
+    private void specialize(MethodNode method) {
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; ) {
+            AbstractInsnNode next = insn.getNext();
+            if (insn instanceof InvokeDynamicInsnNode) {
+                InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                Handle expandedBsm = SiteTables.expandedBootstrap(indy.bsm);
+                if (expandedBsm != null) {
+                    indy.bsmArgs = SiteTables.expandArgs(indy.bsm, indy.bsmArgs, siteTables);
+                    indy.bsm = expandedBsm;
+                }
+                if (obfMethodOrFieldBootstrap.equals(indy.bsm)) {
+                    method.instructions.insert(indy, specializeMethodOrField(method, indy));
+                    method.instructions.remove(indy);
+                } else if (obfTypeBootstrap.equals(indy.bsm)) {
+                    method.instructions.set(indy, specializeType(indy));
+                }
+            }
+            insn = next;
+        }
+    }
+
+    private String remapInternalName(String internalName) {
+        String masked = DescriptorHelper.maskArray(internalName);
+        return DescriptorHelper.unmaskArray(internalName, classRemapper.remapClassName(masked));
+    }
+
+    private AbstractInsnNode specializeType(InvokeDynamicInsnNode indy) {
+        int opcode = (Integer) indy.bsmArgs[BootstrapHelper.OTB_OPCODE];
+        String mapped = remapInternalName((String) indy.bsmArgs[BootstrapHelper.OTB_FIXED_ARGS + env]);
+        switch (opcode) {
+            case Opcodes.LDC:
+                return new LdcInsnNode(Type.getObjectType(mapped));
+            case Opcodes.CHECKCAST:
+            case Opcodes.INSTANCEOF:
+            case Opcodes.ANEWARRAY:
+                return new TypeInsnNode(opcode, mapped);
+            case Opcodes.MULTIANEWARRAY:
+                // the erased return type has as many dimensions as the array being created
+                int dimensions = DescriptorHelper.arrayDimensions(Type.getReturnType(indy.desc).getDescriptor());
+                return new MultiANewArrayInsnNode(
+                        DescriptorHelper.repeatChar('[', dimensions) + DescriptorHelper.toDescriptor(mapped),
+                        Type.getArgumentTypes(indy.desc).length);
+
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private InsnList specializeMethodOrField(MethodNode method, InvokeDynamicInsnNode indy) {
+        Object[] args = indy.bsmArgs;
+        int opcode = (Integer) args[BootstrapHelper.OMOFB_OPCODE];
+        boolean isInterface = opcode == Opcodes.INVOKEINTERFACE || (opcode & Bootstrap.INTERFACE_OWNER) != 0;
+        opcode &= ~Bootstrap.INTERFACE_OWNER;
+        int envCount = (args.length - BootstrapHelper.OMOFB_FIXED_ARGS) / 3;
+        String owner = (String) args[BootstrapHelper.OMOFB_FIXED_ARGS + env];
+        String name = (String) args[BootstrapHelper.OMOFB_FIXED_ARGS + envCount + env];
+        String desc = (String) args[BootstrapHelper.OMOFB_FIXED_ARGS + 2 * envCount + env];
+
+        String mappedOwner = remapInternalName(owner);
+        String mappedName = nameRemapper.remapName(owner, name, desc);
+        String mappedDesc = DescriptorHelper.remapDescriptor(desc, classRemapper::remapClassName);
+
+        boolean constructor = opcode == Opcodes.INVOKESPECIAL && "<init>".equals(mappedName);
+        Type[] stackTypes = Type.getArgumentTypes(indy.desc);
+        Type[] targetTypes = targetStackTypes(opcode, mappedOwner, mappedDesc, constructor);
+
+        InsnList insns = new InsnList();
+        int castFrom = stackTypes.length;
+        for (int i = 0; i < stackTypes.length; i++) {
+            if (needsCast(stackTypes[i], targetTypes[i])) {
+                castFrom = i;
+                break;
+            }
+        }
+
+        if (constructor || castFrom < stackTypes.length - 1) {
+            // values below the top of the stack need casting, or must go above the new instance, so spill them
+            int[] slots = new int[stackTypes.length];
+            int local = method.maxLocals;
+            for (int i = 0; i < stackTypes.length; i++) {
+                slots[i] = local;
+                local += stackTypes[i].getSize();
+            }
+            for (int i = stackTypes.length - 1; i >= 0; i--) {
+                insns.add(new VarInsnNode(stackTypes[i].getOpcode(Opcodes.ISTORE), slots[i]));
+            }
+            if (constructor) {
+                insns.add(new TypeInsnNode(Opcodes.NEW, mappedOwner));
+                insns.add(new InsnNode(Opcodes.DUP));
+                method.maxStack += 2;
+            }
+            for (int i = 0; i < stackTypes.length; i++) {
+                insns.add(new VarInsnNode(stackTypes[i].getOpcode(Opcodes.ILOAD), slots[i]));
+                if (needsCast(stackTypes[i], targetTypes[i])) {
+                    insns.add(new TypeInsnNode(Opcodes.CHECKCAST, targetTypes[i].getInternalName()));
+                }
+            }
+            method.maxLocals = Math.max(method.maxLocals, local);
+        } else if (castFrom == stackTypes.length - 1) {
+            insns.add(new TypeInsnNode(Opcodes.CHECKCAST, targetTypes[castFrom].getInternalName()));
+        }
+
+        switch (opcode) {
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKESPECIAL:
+            case Opcodes.INVOKESTATIC:
+            case Opcodes.INVOKEINTERFACE:
+                insns.add(new MethodInsnNode(opcode, mappedOwner, mappedName, mappedDesc, isInterface));
+                break;
+            default:
+                insns.add(new FieldInsnNode(opcode, mappedOwner, mappedName, mappedDesc));
+        }
+        return insns;
+    }
+
+    /**
+     * @return The types the direct instruction expects on the stack, in order.
+     */
+    private static Type[] targetStackTypes(int opcode, String owner, String desc, boolean constructor) {
+        Type ownerType = Type.getObjectType(owner);
+        switch (opcode) {
+            case Opcodes.INVOKESTATIC:
+                return Type.getArgumentTypes(desc);
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKESPECIAL:
+            case Opcodes.INVOKEINTERFACE:
+                if (constructor) return Type.getArgumentTypes(desc);
+                Type[] argTypes = Type.getArgumentTypes(desc);
+                Type[] types = new Type[argTypes.length + 1];
+                types[0] = ownerType;
+                System.arraycopy(argTypes, 0, types, 1, argTypes.length);
+                return types;
+            case Opcodes.GETSTATIC:
+                return new Type[0];
+            case Opcodes.PUTSTATIC:
+                return new Type[] { Type.getType(desc) };
+            case Opcodes.GETFIELD:
+                return new Type[] { ownerType };
+            case Opcodes.PUTFIELD:
+                return new Type[] { ownerType, Type.getType(desc) };
+
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private static boolean needsCast(Type stackType, Type targetType) {
+        int sort = targetType.getSort();
+        return (sort == Type.OBJECT || sort == Type.ARRAY) &&
+                !targetType.equals(stackType) &&
+                !targetType.getDescriptor().equals(DescriptorHelper.OBJECT_DESCRIPTOR);
+    }
+}
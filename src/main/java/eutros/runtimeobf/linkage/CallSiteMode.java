@@ -0,0 +1,27 @@
+package eutros.runtimeobf.linkage;
+
+/**
+ * How call sites linked by the {@link eutros.runtimeobf.Bootstrap bootstrap methods} follow the environment.
+ *
+ * @see CallSites#setMode(CallSiteMode)
+ */
+public enum CallSiteMode {
+    /**
+     * The environment is read once, when the call site is linked, and the call site never changes after.
+     */
+    CONSTANT,
+    /**
+     * The call site is guarded by a {@link java.lang.invoke.SwitchPoint}, and is relinked against the
+     * current environment on its next invocation after {@link CallSites#switchEnvironment()}.
+     */
+    SWITCHABLE,
+    /**
+     * The environment is read on every invocation, and the call site dispatches to a target linked for that
+     * environment. The target for the environment the site is linked in is linked with it, as in the other modes,
+     * and the others on their first use. Targets are cached in the call site: a chain of guards for the first
+     * few environments, and a table lookup over all of them beyond that.
+     * <p>
+     * The getEnv handle may read a thread-local or other context value, so that environments run side by side.
+     */
+    PER_INVOCATION,
+}
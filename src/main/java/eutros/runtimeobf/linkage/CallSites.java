@@ -0,0 +1,164 @@
+package eutros.runtimeobf.linkage;
+
+import java.lang.invoke.*;
+
+/**
+ * Creates the call sites returned by the {@link eutros.runtimeobf.Bootstrap bootstrap methods},
+ * according to the current {@link CallSiteMode}.
+ */
+public final class CallSites {
+
+    private static volatile CallSiteMode mode = CallSiteMode.CONSTANT;
+    private static volatile SwitchPoint switchPoint = new SwitchPoint();
+
+    private CallSites() {
+    }
+
+    /**
+     * Set the mode of call sites linked from now on. Call sites that are already linked keep their mode.
+     *
+     * @param mode The mode to use.
+     */
+    public static void setMode(CallSiteMode mode) {
+        CallSites.mode = mode;
+    }
+
+    public static CallSiteMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Notify call sites that the environment has changed.
+     * <p>
+     * All {@link CallSiteMode#SWITCHABLE switchable} call sites are invalidated at once,
+     * and each is relinked against the new environment the next time it is invoked. A site that fails to relink
+     * throws the failure {@linkplain #linkOrFail(MethodType, SiteLinker) as a bootstrap method would} on that and
+     * every later invocation, until the next switch.
+     */
+    public static synchronized void switchEnvironment() {
+        SwitchPoint old = switchPoint;
+        switchPoint = new SwitchPoint();
+        SwitchPoint.invalidateAll(new SwitchPoint[] { old });
+    }
+
+    /**
+     * Change the environment and notify call sites.
+     *
+     * @param change A task that changes what the getEnv handles of the bootstrap methods return.
+     * @see #switchEnvironment()
+     */
+    public static synchronized void switchEnvironment(Runnable change) {
+        change.run();
+        switchEnvironment();
+    }
+
+    /**
+     * Create a call site. {@link CallSiteMode#PER_INVOCATION Per-invocation} call sites can't be created without
+     * the environment, and are created {@link CallSiteMode#CONSTANT constant}.
+     *
+     * @param type   The type of the call site.
+     * @param linker A linker that reads the current environment and resolves a target of exactly {@code type}.
+     * @return The call site.
+     * @throws Throwable if the linker throws anything.
+     */
+    public static CallSite create(MethodType type, SiteLinker linker) throws Throwable {
+        if (mode != CallSiteMode.SWITCHABLE) {
+            return new ConstantCallSite(linker.link());
+        }
+        MutableCallSite site = new MutableCallSite(type);
+        // read the switch point first, so a switch that races with linking invalidates the new target
+        SwitchPoint guard = switchPoint;
+        install(site, linker, guard, linker.link());
+        return site;
+    }
+
+    /**
+     * Create a call site for targets that differ by environment.
+     *
+     * @param type     The type of the call site.
+     * @param getEnv   A handle of type {@code ()int} that returns the current environment.
+     * @param envCount The number of environments.
+     * @param linker   A linker that resolves a target of exactly {@code type} for a given environment.
+     * @return The call site.
+     * @throws Throwable if the linker or getEnv throw anything.
+     */
+    public static CallSite create(MethodType type, MethodHandle getEnv, int envCount, EnvLinker linker) throws Throwable {
+        if (mode == CallSiteMode.PER_INVOCATION) {
+            InlineCache cache = new InlineCache(type, getEnv, envCount, linker);
+            cache.linkCurrent();
+            return cache.site;
+        }
+        return create(type, () -> linker.link((int) getEnv.invokeExact()));
+    }
+
+    /**
+     * Link a target, or else a handle that throws the failure, as the JVM would have from a bootstrap method:
+     * errors as they are, and anything else wrapped in a {@link BootstrapMethodError}. The same error is thrown
+     * on every invocation, so a target that failed isn't resolved again.
+     *
+     * @param type   The type of the target.
+     * @param linker The linker to resolve the target with.
+     * @return The target, or a handle of {@code type} that throws.
+     */
+    static MethodHandle linkOrFail(MethodType type, SiteLinker linker) {
+        Error error;
+        try {
+            return linker.link();
+        } catch (VirtualMachineError e) {
+            // not a property of the target, so worth trying again
+            throw e;
+        } catch (Error e) {
+            error = e;
+        } catch (Throwable t) {
+            error = new BootstrapMethodError("Failed to link a call site of type " + type, t);
+        }
+        return MethodHandles.dropArguments(
+                MethodHandles.throwException(type.returnType(), Error.class).bindTo(error),
+                0, type.parameterList());
+    }
+
+    /**
+     * Relink a switchable call site against the current environment.
+     *
+     * @return The new unguarded target of the call site.
+     */
+    private static MethodHandle relink(MutableCallSite site, SiteLinker linker) {
+        SwitchPoint guard = switchPoint;
+        MethodHandle target = linkOrFail(site.type(), linker);
+        install(site, linker, guard, target);
+        return target;
+    }
+
+    private static void install(MutableCallSite site, SiteLinker linker, SwitchPoint guard, MethodHandle target) {
+        MethodHandle fallback = MethodHandles.foldArguments(MethodHandles.exactInvoker(site.type()),
+                MethodHandles.insertArguments(RELINK, 0, site, linker));
+        site.setTarget(guard.guardWithTest(target, fallback));
+    }
+
+    /**
+     * Resolves the target of a call site for the current environment.
+     */
+    @FunctionalInterface
+    public interface SiteLinker {
+        MethodHandle link() throws Throwable;
+    }
+
+    /**
+     * Resolves the target of a call site for an environment.
+     */
+    @FunctionalInterface
+    public interface EnvLinker {
+        MethodHandle link(int env) throws Throwable;
+    }
+
+    private static final MethodHandle RELINK;
+
+    static {
+        try {
+            RELINK = MethodHandles.lookup().findStatic(CallSites.class, "relink",
+                    MethodType.methodType(MethodHandle.class, MutableCallSite.class, SiteLinker.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package eutros.runtimeobf.linkage;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * Defines hidden classes for {@link TypeStubs} and {@link MemberStubs}.
+ * <p>
+ * {@code Lookup.defineHiddenClass} was added in Java 15, so it is looked up reflectively to keep the rest of
+ * the library running on Java 11. On older runtimes no stubs are defined, and call sites link to
+ * method handles instead.
+ */
+final class HiddenClasses {
+    /**
+     * {@code (Lookup, byte[], boolean)Lookup}, defining a class with no options, or null if unsupported.
+     */
+    private static final MethodHandle DEFINE_HIDDEN_CLASS;
+
+    static {
+        MethodHandle mh;
+        try {
+            Class<?> options = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            Object noOptions = Array.newInstance(options, 0);
+            mh = MethodHandles.publicLookup().findVirtual(MethodHandles.Lookup.class, "defineHiddenClass",
+                    MethodType.methodType(MethodHandles.Lookup.class, byte[].class, boolean.class, noOptions.getClass()));
+            mh = MethodHandles.insertArguments(mh, 3, noOptions);
+        } catch (ReflectiveOperationException e) {
+            mh = null;
+        }
+        DEFINE_HIDDEN_CLASS = mh;
+    }
+
+    private HiddenClasses() {
+    }
+
+    /**
+     * @return Whether the runtime can define hidden classes.
+     */
+    static boolean isSupported() {
+        return DEFINE_HIDDEN_CLASS != null;
+    }
+
+    /**
+     * Define and initialize a hidden class in the package of a lookup.
+     *
+     * @param lookup The lookup to define the class with. Must have full privilege access.
+     * @param bytes  The class file, named in the package of {@code lookup}.
+     * @return A lookup in the hidden class, with full privilege access.
+     * @throws IllegalAccessException if {@code lookup} doesn't have full privilege access.
+     * @throws IllegalStateException  if hidden classes aren't {@link #isSupported() supported}.
+     */
+    static MethodHandles.Lookup define(MethodHandles.Lookup lookup, byte[] bytes) throws IllegalAccessException {
+        if (DEFINE_HIDDEN_CLASS == null) throw new IllegalStateException("Hidden classes need Java 15 or later");
+        try {
+            return (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invokeExact(lookup, bytes, true);
+        } catch (IllegalAccessException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+}
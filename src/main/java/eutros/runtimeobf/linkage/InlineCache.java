@@ -0,0 +1,129 @@
+package eutros.runtimeobf.linkage;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * The state of a {@link CallSiteMode#PER_INVOCATION per-invocation} call site: the targets linked so far,
+ * one per environment, and the dispatch over them.
+ * <p>
+ * While at most {@value #MAX_GUARDS} environments have been seen, the site tests for each in the order they were
+ * first seen, so a site only ever invoked in one environment costs a single comparison over a constant call site.
+ * Beyond that, it looks the target for the environment up in an array of them and invokes it exactly.
+ */
+final class InlineCache {
+    static final int MAX_GUARDS = 4;
+
+    final MutableCallSite site;
+    private final MethodHandle getEnv;
+    private final CallSites.EnvLinker linker;
+    private final MethodHandle[] targets;
+    private final int[] order;
+    private int count = 0;
+    /**
+     * Links and invokes the target for an environment, with the type of the call site and the environment first.
+     */
+    private final MethodHandle miss;
+
+    InlineCache(MethodType type, MethodHandle getEnv, int envCount, CallSites.EnvLinker linker) {
+        this.site = new MutableCallSite(type);
+        this.getEnv = getEnv;
+        this.linker = linker;
+        this.targets = new MethodHandle[envCount];
+        this.order = new int[envCount];
+        this.miss = MethodHandles.foldArguments(
+                MethodHandles.dropArguments(MethodHandles.exactInvoker(type), 1, int.class),
+                MISS.bindTo(this));
+        site.setTarget(MethodHandles.foldArguments(miss, getEnv));
+    }
+
+    /**
+     * Link the target for the environment the site is created in, so that failing to link it fails the bootstrap
+     * method as it would in the other modes, and so that pre-linking resolves it.
+     *
+     * @throws Throwable if getEnv or the linker throw anything.
+     */
+    synchronized void linkCurrent() throws Throwable {
+        int env = checkRange((int) getEnv.invokeExact());
+        add(env, linker.link(env));
+    }
+
+    @SuppressWarnings("unused")
+    private synchronized MethodHandle miss(int env) {
+        MethodHandle target = targets[checkRange(env)];
+        if (target == null) {
+            // a failure is cached like any target, so FAIL_ON_LINK throws the same error as in the other modes
+            target = CallSites.linkOrFail(site.type(), () -> linker.link(env));
+            add(env, target);
+        }
+        return target;
+    }
+
+    private int checkRange(int env) {
+        if (env < 0 || env >= targets.length) {
+            throw new IllegalStateException("Environment " + env + " out of range for " + targets.length + " environments");
+        }
+        return env;
+    }
+
+    private void add(int env, MethodHandle target) {
+        targets[env] = target;
+        order[count++] = env;
+        site.setTarget(MethodHandles.foldArguments(dispatch(), getEnv));
+    }
+
+    /**
+     * @return A handle with the type of the call site and the environment first, that invokes the target for it.
+     */
+    private MethodHandle dispatch() {
+        if (count <= MAX_GUARDS) {
+            MethodHandle dispatch = miss;
+            for (int i = count - 1; i >= 0; i--) {
+                int env = order[i];
+                dispatch = MethodHandles.guardWithTest(MethodHandles.insertArguments(IS_ENV, 0, env),
+                        MethodHandles.dropArguments(targets[env], 0, int.class),
+                        dispatch);
+            }
+            return dispatch;
+        }
+        MethodHandle[] cases = new MethodHandle[targets.length];
+        for (int env = 0; env < cases.length; env++) {
+            cases[env] = targets[env] == null ? miss : MethodHandles.dropArguments(targets[env], 0, int.class);
+        }
+        MethodHandle table = MethodHandles.foldArguments(
+                MethodHandles.exactInvoker(miss.type()),
+                MethodHandles.arrayElementGetter(MethodHandle[].class).bindTo(cases));
+        // out of range environments go to the miss handle, to fail as they would before the table
+        return MethodHandles.guardWithTest(MethodHandles.insertArguments(IS_IN_RANGE, 0, cases.length), table, miss);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean isEnv(int expected, int env) {
+        return expected == env;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean isInRange(int length, int env) {
+        return env >= 0 && env < length;
+    }
+
+    private static final MethodHandle MISS;
+    private static final MethodHandle IS_ENV;
+    private static final MethodHandle IS_IN_RANGE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MISS = lookup.findVirtual(InlineCache.class, "miss",
+                    MethodType.methodType(MethodHandle.class, int.class));
+            IS_ENV = lookup.findStatic(InlineCache.class, "isEnv",
+                    MethodType.methodType(boolean.class, int.class, int.class));
+            IS_IN_RANGE = lookup.findStatic(InlineCache.class, "isInRange",
+                    MethodType.methodType(boolean.class, int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package eutros.runtimeobf.linkage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event for one cache miss in the bootstrap methods, that is, one member or type actually being resolved.
+ */
+@Name("eutros.runtimeobf.Link")
+@Label("Runtime Obfuscation Link")
+@Category("Runtime Obfuscation")
+@Description("Resolution of a remapped member or type for an INVOKEDYNAMIC call site")
+@StackTrace(false)
+class LinkEvent extends jdk.jfr.Event {
+    @Label("Caller")
+    Class<?> caller;
+
+    @Label("Opcode")
+    int opcode;
+
+    @Label("Owner")
+    String owner;
+
+    @Label("Name")
+    String name;
+
+    @Label("Descriptor")
+    String descriptor;
+
+    @Label("Remap Time")
+    @Timespan
+    long remapNanos;
+
+    @Label("Class Load Time")
+    @Timespan
+    long loadNanos;
+
+    @Label("Lookup Time")
+    @Timespan
+    long lookupNanos;
+
+    @Label("Failure")
+    String failure;
+}
@@ -0,0 +1,171 @@
+package eutros.runtimeobf.linkage;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A cache of resolved method handles, shared by all INVOKEDYNAMIC call sites of a class.
+ * <p>
+ * Entries are scoped to the lookup class of the caller, since that determines which members are accessible,
+ * and are held through a {@link ClassValue} so that caching never keeps a class from being unloaded.
+ * They are deliberately not shared across a class loader: a handle to a private member is only valid for its
+ * nest, and one to a protected member has its receiver narrowed to the caller, so a handle resolved for one class
+ * can't be handed to another class of the same loader even when both have the same lookup modes.
+ * Sharing of the expensive part across a loader happens one level down, in {@link SymbolResolver}.
+ * <p>
+ * Concurrent requests for the same key are de-duplicated: only one thread resolves the handle,
+ * the others wait for its result. Failed resolutions are not cached.
+ */
+public final class LinkageCache {
+
+    private static final ClassValue<ConcurrentMap<Key, FutureTask<MethodHandle>>> CACHE =
+            new ClassValue<ConcurrentMap<Key, FutureTask<MethodHandle>>>() {
+                @Override
+                protected ConcurrentMap<Key, FutureTask<MethodHandle>> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<>();
+                }
+            };
+
+    private LinkageCache() {
+    }
+
+    /**
+     * Get the handle for a key, resolving it with the linker if it isn't cached yet.
+     *
+     * @param caller The lookup of the class the handle is being linked for.
+     * @param key    The key that uniquely identifies the resolved handle.
+     * @param linker The linker to call if the handle isn't present.
+     * @return The resolved handle.
+     * @throws Throwable if the linker throws anything.
+     */
+    public static MethodHandle get(MethodHandles.Lookup caller, Key key, Linker linker) throws Throwable {
+        ConcurrentMap<Key, FutureTask<MethodHandle>> map = CACHE.get(caller.lookupClass());
+        FutureTask<MethodHandle> task = map.get(key);
+        if (task == null) {
+            FutureTask<MethodHandle> newTask = new FutureTask<>(() -> {
+                try {
+                    return linker.link();
+                } catch (Exception | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new UndeclaredThrowableException(t);
+                }
+            });
+            task = map.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            map.remove(key, task);
+            Throwable cause = e.getCause();
+            throw cause instanceof UndeclaredThrowableException ? cause.getCause() : cause;
+        }
+    }
+
+    /**
+     * Drop all handles cached for a class.
+     *
+     * @param lookupClass The class to drop the handles of.
+     */
+    public static void invalidate(Class<?> lookupClass) {
+        CACHE.remove(lookupClass);
+    }
+
+    /**
+     * Resolves a method handle on a cache miss.
+     */
+    @FunctionalInterface
+    public interface Linker {
+        MethodHandle link() throws Throwable;
+    }
+
+    /**
+     * Identifies a resolved handle within the scope of a lookup class.
+     * <p>
+     * Remapper functions are compared by identity.
+     */
+    public static final class Key {
+        private static final int ACCESS_MODES = MethodHandles.Lookup.PUBLIC |
+                MethodHandles.Lookup.PACKAGE |
+                MethodHandles.Lookup.PROTECTED |
+                MethodHandles.Lookup.PRIVATE;
+
+        private final int opcode;
+        private final int lookupModes;
+        private final Object classRemapper;
+        private final Object nameRemapper;
+        private final String owner;
+        private final String name;
+        private final String desc;
+        private final int hash;
+
+        /**
+         * @param caller        The lookup the handle is resolved with.
+         * @param opcode        The opcode that the INVOKEDYNAMIC replaced.
+         * @param classRemapper The class remapper in use.
+         * @param nameRemapper  The name remapper in use, or null if none is needed.
+         * @param owner         The owner or type, as selected for the environment.
+         * @param name          The name, as selected for the environment, or null if there is none.
+         * @param desc          The descriptor, as selected for the environment, or null if there is none.
+         */
+        public Key(MethodHandles.Lookup caller,
+                   int opcode,
+                   Object classRemapper,
+                   Object nameRemapper,
+                   String owner,
+                   String name,
+                   String desc) {
+            this.opcode = opcode;
+            // only the modes that decide member access, so lookups from privateLookupIn share entries
+            this.lookupModes = caller.lookupModes() & ACCESS_MODES;
+            this.classRemapper = classRemapper;
+            this.nameRemapper = nameRemapper;
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+            int h = opcode;
+            h = 31 * h + lookupModes;
+            h = 31 * h + System.identityHashCode(classRemapper);
+            h = 31 * h + System.identityHashCode(nameRemapper);
+            h = 31 * h + owner.hashCode();
+            h = 31 * h + Objects.hashCode(name);
+            h = 31 * h + Objects.hashCode(desc);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return hash == that.hash &&
+                    opcode == that.opcode &&
+                    lookupModes == that.lookupModes &&
+                    classRemapper == that.classRemapper &&
+                    nameRemapper == that.nameRemapper &&
+                    owner.equals(that.owner) &&
+                    Objects.equals(name, that.name) &&
+                    Objects.equals(desc, that.desc);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return opcode + " " + owner + " " + name + " " + desc;
+        }
+    }
+}
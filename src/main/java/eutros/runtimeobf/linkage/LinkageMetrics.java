@@ -0,0 +1,357 @@
+package eutros.runtimeobf.linkage;
+
+import eutros.runtimeobf.Bootstrap;
+import org.objectweb.asm.Opcodes;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of the {@link Bootstrap bootstrap methods}, exposed over JMX as a
+ * {@link LinkageMetricsMXBean} and, per resolution, as {@code eutros.runtimeobf.Link} JFR events.
+ * <p>
+ * Every bootstrap method invocation is counted by opcode. Only cache misses are timed, split into time spent
+ * remapping names, loading classes and looking up members, and only they produce JFR events. Recording is
+ * lock-free except for the short list of the slowest resolutions.
+ */
+public final class LinkageMetrics implements LinkageMetricsMXBean {
+    public static final String OBJECT_NAME = "eutros.runtimeobf:type=LinkageMetrics";
+
+    private static final LinkageMetrics INSTANCE = new LinkageMetrics();
+    private static final int SLOWEST = 16;
+    private static final int BUCKETS = 64;
+
+    private volatile boolean enabled = true;
+    private final LongAdder[] links = adders(256);
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final Phase remap = new Phase();
+    private final Phase classLoad = new Phase();
+    private final Phase lookup = new Phase();
+
+    private final List<Slow> slowest = new ArrayList<>();
+    private volatile long slowThreshold = 0;
+
+    private LinkageMetrics() {
+    }
+
+    public static LinkageMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, if they aren't already.
+     *
+     * @throws JMException if registration fails.
+     */
+    public static void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        synchronized (LinkageMetrics.class) {
+            if (!server.isRegistered(name)) server.registerMBean(INSTANCE, name);
+        }
+    }
+
+    /**
+     * Count a bootstrap method invocation.
+     */
+    public static void linked(int opcode) {
+        if (INSTANCE.enabled) INSTANCE.links[opcode & 0xFF].increment();
+    }
+
+    /**
+     * Start timing a cache miss.
+     *
+     * @return The link to report the phases of the resolution to.
+     */
+    public static Link begin(MethodHandles.Lookup caller, int opcode, String owner, String name, String descriptor) {
+        if (!INSTANCE.enabled) return Link.DISABLED;
+        INSTANCE.cacheMisses.increment();
+        return new Link(caller.lookupClass(), opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public Map<String, Long> getLinksByOpcode() {
+        Map<String, Long> ret = new LinkedHashMap<>();
+        for (int opcode = 0; opcode < links.length; opcode++) {
+            long count = links[opcode].sum();
+            if (count != 0) ret.put(opcodeName(opcode), count);
+        }
+        return ret;
+    }
+
+    @Override
+    public long getCacheHits() {
+        long total = 0;
+        for (LongAdder adder : links) total += adder.sum();
+        return Math.max(0, total - cacheMisses.sum());
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRemapNanos() {
+        return remap.nanos.sum();
+    }
+
+    @Override
+    public long getClassLoadNanos() {
+        return classLoad.nanos.sum();
+    }
+
+    @Override
+    public long getLookupNanos() {
+        return lookup.nanos.sum();
+    }
+
+    @Override
+    public long[] getRemapHistogram() {
+        return remap.histogram();
+    }
+
+    @Override
+    public long[] getClassLoadHistogram() {
+        return classLoad.histogram();
+    }
+
+    @Override
+    public long[] getLookupHistogram() {
+        return lookup.histogram();
+    }
+
+    @Override
+    public synchronized String[] getSlowestLinks() {
+        String[] ret = new String[slowest.size()];
+        for (int i = 0; i < ret.length; i++) ret[i] = slowest.get(i).description;
+        return ret;
+    }
+
+    @Override
+    public String[] getMissingTargets() {
+        return MissingTargets.report().toArray(new String[0]);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : links) adder.reset();
+        cacheMisses.reset();
+        failures.reset();
+        remap.reset();
+        classLoad.reset();
+        lookup.reset();
+        synchronized (this) {
+            slowest.clear();
+            slowThreshold = 0;
+        }
+    }
+
+    private void recordSlow(long nanos, Link link) {
+        if (nanos <= slowThreshold) return;
+        synchronized (this) {
+            int i = 0;
+            while (i < slowest.size() && slowest.get(i).nanos >= nanos) i++;
+            if (i == SLOWEST) return;
+            slowest.add(i, new Slow(nanos, link.describe(nanos)));
+            if (slowest.size() > SLOWEST) slowest.remove(SLOWEST);
+            if (slowest.size() == SLOWEST) slowThreshold = slowest.get(SLOWEST - 1).nanos;
+        }
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    static String opcodeName(int opcode) {
+        switch (opcode) {
+            case Opcodes.LDC:
+                return "LDC";
+            case Opcodes.GETSTATIC:
+                return "GETSTATIC";
+            case Opcodes.PUTSTATIC:
+                return "PUTSTATIC";
+            case Opcodes.GETFIELD:
+                return "GETFIELD";
+            case Opcodes.PUTFIELD:
+                return "PUTFIELD";
+            case Opcodes.INVOKEVIRTUAL:
+                return "INVOKEVIRTUAL";
+            case Opcodes.INVOKESPECIAL:
+                return "INVOKESPECIAL";
+            case Opcodes.INVOKESTATIC:
+                return "INVOKESTATIC";
+            case Opcodes.INVOKEINTERFACE:
+                return "INVOKEINTERFACE";
+            case Opcodes.ANEWARRAY:
+                return "ANEWARRAY";
+            case Opcodes.CHECKCAST:
+                return "CHECKCAST";
+            case Opcodes.INSTANCEOF:
+                return "INSTANCEOF";
+            case Opcodes.MULTIANEWARRAY:
+                return "MULTIANEWARRAY";
+            default:
+                return Integer.toString(opcode);
+        }
+    }
+
+    /**
+     * The time spent in one phase of resolution.
+     */
+    private static class Phase {
+        final LongAdder nanos = new LongAdder();
+        final LongAdder[] buckets = adders(BUCKETS);
+
+        void record(long time) {
+            nanos.add(time);
+            buckets[BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(time, 1))].increment();
+        }
+
+        long[] histogram() {
+            long[] ret = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) ret[i] = buckets[i].sum();
+            return ret;
+        }
+
+        void reset() {
+            nanos.reset();
+            for (LongAdder bucket : buckets) bucket.reset();
+        }
+    }
+
+    private static class Slow {
+        final long nanos;
+        final String description;
+
+        Slow(long nanos, String description) {
+            this.nanos = nanos;
+            this.description = description;
+        }
+    }
+
+    /**
+     * The timing of a single resolution. Phases are reported in order as each one finishes;
+     * a phase that doesn't happen may be skipped.
+     */
+    public static class Link {
+        static final Link DISABLED = new Link(null, 0, null, null, null);
+
+        private final Class<?> caller;
+        private final int opcode;
+        private final String owner;
+        private final String name;
+        private final String descriptor;
+        private final LinkEvent event;
+        private final long start;
+        private long last;
+        private long remapNanos;
+        private long loadNanos;
+        private long lookupNanos;
+
+        private Link(Class<?> caller, int opcode, String owner, String name, String descriptor) {
+            this.caller = caller;
+            this.opcode = opcode;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+            if (caller == null) {
+                event = null;
+                start = 0;
+            } else {
+                event = new LinkEvent();
+                event.begin();
+                start = last = System.nanoTime();
+            }
+        }
+
+        private long lap() {
+            long now = System.nanoTime();
+            long time = now - last;
+            last = now;
+            return time;
+        }
+
+        public void remapped() {
+            if (this == DISABLED) return;
+            remapNanos += lap();
+        }
+
+        public void loaded() {
+            if (this == DISABLED) return;
+            loadNanos += lap();
+        }
+
+        public void lookedUp() {
+            if (this == DISABLED) return;
+            lookupNanos += lap();
+        }
+
+        public void end() {
+            end(null);
+        }
+
+        public void failed(Throwable t) {
+            if (this == DISABLED) return;
+            INSTANCE.failures.increment();
+            end(t);
+        }
+
+        private void end(Throwable failure) {
+            if (this == DISABLED) return;
+            long total = System.nanoTime() - start;
+            INSTANCE.remap.record(remapNanos);
+            INSTANCE.classLoad.record(loadNanos);
+            if (lookupNanos != 0) INSTANCE.lookup.record(lookupNanos);
+            INSTANCE.recordSlow(total, this);
+            event.end();
+            if (event.shouldCommit()) {
+                event.caller = caller;
+                event.opcode = opcode;
+                event.owner = owner;
+                event.name = name;
+                event.descriptor = descriptor;
+                event.remapNanos = remapNanos;
+                event.loadNanos = loadNanos;
+                event.lookupNanos = lookupNanos;
+                event.failure = failure == null ? null : failure.toString();
+                event.commit();
+            }
+        }
+
+        String describe(long total) {
+            StringBuilder sb = new StringBuilder()
+                    .append(caller.getName()).append(": ")
+                    .append(opcodeName(opcode)).append(' ').append(owner);
+            if (name != null) sb.append('.').append(name).append(descriptor);
+            return sb.append(String.format(" took %dus (remap %dus, load %dus, lookup %dus)",
+                    total / 1000, remapNanos / 1000, loadNanos / 1000, lookupNanos / 1000)).toString();
+        }
+    }
+}
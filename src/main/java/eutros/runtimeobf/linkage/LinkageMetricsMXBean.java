@@ -0,0 +1,50 @@
+package eutros.runtimeobf.linkage;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link LinkageMetrics}, registered as {@value LinkageMetrics#OBJECT_NAME}.
+ * <p>
+ * Times are in nanoseconds. Histograms have one bucket per power of two: bucket {@code i} counts times in
+ * {@code [2^i, 2^(i+1))} nanoseconds, with bucket 0 also counting times below one nanosecond.
+ */
+public interface LinkageMetricsMXBean {
+    /**
+     * @return Bootstrap method invocations, by the name of the opcode they replaced.
+     */
+    Map<String, Long> getLinksByOpcode();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getFailures();
+
+    long getRemapNanos();
+
+    long getClassLoadNanos();
+
+    long getLookupNanos();
+
+    long[] getRemapHistogram();
+
+    long[] getClassLoadHistogram();
+
+    long[] getLookupHistogram();
+
+    /**
+     * @return The slowest resolutions so far, slowest first, each described by its caller, member and times.
+     */
+    String[] getSlowestLinks();
+
+    /**
+     * @see MissingTargets#report()
+     */
+    String[] getMissingTargets();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void reset();
+}
@@ -0,0 +1,228 @@
+package eutros.runtimeobf.linkage;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Spins hidden classes that access a single member with a plain invocation or field instruction,
+ * so that call sites replacing them link to the same bytecode the untransformed class had, rather than to a
+ * direct method handle. The JIT can then treat the call like any other, including devirtualizing it through
+ * class hierarchy analysis.
+ * <p>
+ * Stubs are defined as hidden classes in the package of the caller. Since they aren't nestmates or subclasses of
+ * the caller, members that are only accessible to the caller as such are left to direct method handles:
+ * private members, protected members of other packages, and super calls. Neither are caller sensitive methods,
+ * such as {@code MethodHandles.lookup()} or {@code Class.forName(String)}, which would see the stub as their caller.
+ * Those of {@code java.base} are known by name, all overloads included, since their annotation isn't visible.
+ * <p>
+ * Opt-in, as every linked member costs a class. Hidden classes need Java 15 or later, so on older runtimes
+ * no stubs are spun, as if they were disabled.
+ */
+public final class MemberStubs {
+    private static final String STUB_NAME = "RuntimeObf$MemberStub";
+    private static final String METHOD_NAME = "invoke";
+
+    private static final Set<String> CALLER_SENSITIVE = new HashSet<>(Arrays.asList(
+            "java.lang.Class.forName",
+            "java.lang.Class.newInstance",
+            "java.lang.Class.getClassLoader",
+            "java.lang.Class.getClasses",
+            "java.lang.Class.getFields",
+            "java.lang.Class.getMethods",
+            "java.lang.Class.getConstructors",
+            "java.lang.Class.getField",
+            "java.lang.Class.getMethod",
+            "java.lang.Class.getConstructor",
+            "java.lang.Class.getDeclaredClasses",
+            "java.lang.Class.getDeclaredFields",
+            "java.lang.Class.getDeclaredMethods",
+            "java.lang.Class.getDeclaredConstructors",
+            "java.lang.Class.getDeclaredField",
+            "java.lang.Class.getDeclaredMethod",
+            "java.lang.Class.getDeclaredConstructor",
+            "java.lang.Class.getDeclaringClass",
+            "java.lang.Class.getEnclosingClass",
+            "java.lang.Class.getEnclosingMethod",
+            "java.lang.Class.getEnclosingConstructor",
+            "java.lang.Class.getNestHost",
+            "java.lang.Class.getNestMembers",
+            "java.lang.Class.getPermittedSubclasses",
+            "java.lang.Class.getRecordComponents",
+            "java.lang.Class.getResource",
+            "java.lang.Class.getResourceAsStream",
+            "java.lang.ClassLoader.getParent",
+            "java.lang.ClassLoader.getPlatformClassLoader",
+            "java.lang.ClassLoader.getSystemClassLoader",
+            "java.lang.ClassLoader.registerAsParallelCapable",
+            "java.lang.Module.addExports",
+            "java.lang.Module.addOpens",
+            "java.lang.Module.addReads",
+            "java.lang.Module.addUses",
+            "java.lang.Module.getResourceAsStream",
+            "java.lang.Package.getPackage",
+            "java.lang.Package.getPackages",
+            "java.lang.Runtime.load",
+            "java.lang.Runtime.loadLibrary",
+            "java.lang.StackWalker.getCallerClass",
+            "java.lang.System.getLogger",
+            "java.lang.System.load",
+            "java.lang.System.loadLibrary",
+            "java.lang.Thread.getContextClassLoader",
+            "java.lang.invoke.MethodHandleProxies.asInterfaceInstance",
+            "java.lang.invoke.MethodHandles.lookup",
+            "java.lang.invoke.MethodHandles.privateLookupIn",
+            "java.lang.invoke.MethodHandles.reflectAs",
+            "java.lang.reflect.AccessibleObject.canAccess",
+            "java.lang.reflect.AccessibleObject.checkAccess",
+            "java.lang.reflect.AccessibleObject.setAccessible",
+            "java.lang.reflect.AccessibleObject.trySetAccessible",
+            "java.lang.reflect.Constructor.newInstance",
+            "java.lang.reflect.Constructor.setAccessible",
+            "java.lang.reflect.Field.get",
+            "java.lang.reflect.Field.getBoolean",
+            "java.lang.reflect.Field.getByte",
+            "java.lang.reflect.Field.getChar",
+            "java.lang.reflect.Field.getShort",
+            "java.lang.reflect.Field.getInt",
+            "java.lang.reflect.Field.getLong",
+            "java.lang.reflect.Field.getFloat",
+            "java.lang.reflect.Field.getDouble",
+            "java.lang.reflect.Field.set",
+            "java.lang.reflect.Field.setBoolean",
+            "java.lang.reflect.Field.setByte",
+            "java.lang.reflect.Field.setChar",
+            "java.lang.reflect.Field.setShort",
+            "java.lang.reflect.Field.setInt",
+            "java.lang.reflect.Field.setLong",
+            "java.lang.reflect.Field.setFloat",
+            "java.lang.reflect.Field.setDouble",
+            "java.lang.reflect.Field.setAccessible",
+            "java.lang.reflect.Method.invoke",
+            "java.lang.reflect.Method.setAccessible",
+            "java.lang.reflect.Proxy.getProxyClass",
+            "java.lang.reflect.Proxy.newProxyInstance",
+            "java.util.ResourceBundle.clearCache",
+            "java.util.ResourceBundle.getBundle",
+            "java.util.ServiceLoader.load",
+            "java.util.ServiceLoader.loadInstalled",
+            "java.util.concurrent.atomic.AtomicIntegerFieldUpdater.newUpdater",
+            "java.util.concurrent.atomic.AtomicLongFieldUpdater.newUpdater",
+            "java.util.concurrent.atomic.AtomicReferenceFieldUpdater.newUpdater"));
+
+    private static volatile boolean enabled = false;
+
+    private MemberStubs() {
+    }
+
+    /**
+     * Set whether members linked from now on use stubs.
+     */
+    public static void setEnabled(boolean enabled) {
+        MemberStubs.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Spin a stub for a member access.
+     *
+     * @param caller     The lookup of the class the call site is in. Must have full privilege access.
+     * @param opcode     The opcode to perform. Any method invocation or field access opcode.
+     * @param owner      The class to refer to the member through.
+     * @param name       The name of the member.
+     * @param targetType The type of the method, or {@code ()T} for a field of type {@code T}.
+     * @param direct     The direct handle to the member, as found by {@code caller}.
+     * @return A static handle of the same type as {@code direct}, or null if stubs are disabled, the member
+     * can't be accessed from a stub, or the member is caller sensitive.
+     */
+    public static MethodHandle stub(MethodHandles.Lookup caller,
+                                    int opcode,
+                                    Class<?> owner,
+                                    String name,
+                                    MethodType targetType,
+                                    MethodHandle direct) {
+        if (!enabled || !HiddenClasses.isSupported()) return null;
+        if (opcode == Opcodes.INVOKESPECIAL && !"<init>".equals(name)) return null;
+        Class<?> callerClass = caller.lookupClass();
+        try {
+            MethodHandleInfo info = caller.revealDirect(direct);
+            if (CALLER_SENSITIVE.contains(info.getDeclaringClass().getName() + "." + name)) return null;
+            if (!accessible(callerClass, owner, info.getDeclaringClass(), info.getModifiers())) return null;
+
+            String desc = direct.type().toMethodDescriptorString();
+            MethodHandles.Lookup stubLookup = HiddenClasses.define(caller,
+                    spin(callerClass, opcode, owner, name, targetType, desc));
+            return stubLookup.findStatic(stubLookup.lookupClass(), METHOD_NAME, direct.type());
+        } catch (IllegalArgumentException | IllegalAccessException | NoSuchMethodException e) {
+            // not a plain member, or no full privilege access, so the direct handle will have to do
+            return null;
+        }
+    }
+
+    private static boolean accessible(Class<?> caller, Class<?> owner, Class<?> declaring, int modifiers) {
+        if (!Modifier.isPublic(owner.getModifiers()) && !samePackage(caller, owner)) return false;
+        if (Modifier.isPublic(modifiers)) return true;
+        return !Modifier.isPrivate(modifiers) && samePackage(caller, declaring);
+    }
+
+    private static boolean samePackage(Class<?> a, Class<?> b) {
+        return a.getClassLoader() == b.getClassLoader() && a.getPackageName().equals(b.getPackageName());
+    }
+
+    private static byte[] spin(Class<?> caller,
+                               int opcode,
+                               Class<?> owner,
+                               String name,
+                               MethodType targetType,
+                               String desc) {
+        String packageName = caller.getPackageName();
+        String stubName = packageName.isEmpty() ? STUB_NAME : packageName.replace('.', '/') + "/" + STUB_NAME;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC, stubName, null,
+                "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_STATIC, METHOD_NAME, desc, null, null);
+        mv.visitCode();
+        String ownerName = Type.getInternalName(owner);
+        if (opcode == Opcodes.INVOKESPECIAL) {
+            mv.visitTypeInsn(Opcodes.NEW, ownerName);
+            mv.visitInsn(Opcodes.DUP);
+        }
+        int local = 0;
+        for (Type arg : Type.getArgumentTypes(desc)) {
+            mv.visitVarInsn(arg.getOpcode(Opcodes.ILOAD), local);
+            local += arg.getSize();
+        }
+        switch (opcode) {
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKEINTERFACE:
+            case Opcodes.INVOKESTATIC:
+                mv.visitMethodInsn(owner.isInterface() && opcode == Opcodes.INVOKEVIRTUAL ? Opcodes.INVOKEINTERFACE : opcode,
+                        ownerName, name, targetType.toMethodDescriptorString(), owner.isInterface());
+                break;
+            case Opcodes.INVOKESPECIAL:
+                mv.visitMethodInsn(opcode, ownerName, name, targetType.toMethodDescriptorString(), false);
+                break;
+
+            default:
+                mv.visitFieldInsn(opcode, ownerName, name, Type.getDescriptor(targetType.returnType()));
+        }
+        mv.visitInsn(Type.getReturnType(desc).getOpcode(Opcodes.IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,21 @@
+package eutros.runtimeobf.linkage;
+
+/**
+ * What the {@link eutros.runtimeobf.Bootstrap bootstrap methods} do when a remapped class or member doesn't
+ * exist in the current environment.
+ *
+ * @see MissingTargets#setPolicy(MissingTargetPolicy)
+ */
+public enum MissingTargetPolicy {
+    /**
+     * The bootstrap method throws, so the INVOKEDYNAMIC instruction fails with a {@link BootstrapMethodError},
+     * and linking is tried again in full the next time. Nothing is cached.
+     */
+    FAIL_ON_LINK,
+    /**
+     * The call site is linked to a handle that throws a {@link LinkageError} when invoked, as the JVM would for
+     * a missing class, method or field. The missing target is remembered per class loader, so that no other call
+     * site looks for it again, and is {@link MissingTargets#report() reported}.
+     */
+    FAIL_ON_INVOKE,
+}
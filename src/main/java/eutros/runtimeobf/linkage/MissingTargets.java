@@ -0,0 +1,159 @@
+package eutros.runtimeobf.linkage;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handles call sites whose remapped class or member doesn't exist in the current environment,
+ * according to the current {@link MissingTargetPolicy}.
+ * <p>
+ * A target is a class, described by its runtime internal name, or a member, described as
+ * {@code owner.name descriptor} in runtime names. Missing targets are remembered by the {@link SymbolResolver}
+ * of the loader they were looked for from, up to {@link SymbolResolver#MAX_MISSING} per loader, and the members
+ * of a missing class are remembered as that class. Only the type and message of each failure are kept, so every
+ * failure to link or invoke a missing target throws exceptions of its own.
+ */
+public final class MissingTargets {
+    /**
+     * The most targets listed by {@link #report()}.
+     */
+    public static final int MAX_REPORTED = 4096;
+
+    private static volatile MissingTargetPolicy policy = MissingTargetPolicy.FAIL_ON_LINK;
+    private static final Set<String> REPORT = ConcurrentHashMap.newKeySet();
+
+    private MissingTargets() {
+    }
+
+    /**
+     * Set the policy for call sites linked from now on. Call sites that are already linked keep their targets.
+     *
+     * @param policy The policy to use.
+     */
+    public static void setPolicy(MissingTargetPolicy policy) {
+        MissingTargets.policy = policy;
+    }
+
+    public static MissingTargetPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return Every target found missing under {@link MissingTargetPolicy#FAIL_ON_INVOKE} since the last
+     * {@link #clearReport()}, each with the loader it was looked for from, sorted. At most {@link #MAX_REPORTED}.
+     */
+    public static List<String> report() {
+        List<String> report = new ArrayList<>(REPORT);
+        Collections.sort(report);
+        return report;
+    }
+
+    /**
+     * Forget the reported targets. Loaders still remember which targets they are missing.
+     */
+    public static void clearReport() {
+        REPORT.clear();
+    }
+
+    /**
+     * @return The target of a member, or of a class if {@code name} is null.
+     */
+    public static String target(String owner, String name, String desc) {
+        return name == null ? owner : owner + "." + name + " " + desc;
+    }
+
+    /**
+     * Fail fast if a target is already known to be missing.
+     *
+     * @throws ReflectiveOperationException a new failure like the one the target was first found missing with.
+     */
+    public static void check(SymbolResolver symbols, String target) throws ReflectiveOperationException {
+        if (policy == MissingTargetPolicy.FAIL_ON_LINK) return;
+        Missing missing = symbols.getMissing(target);
+        if (missing != null) throw missing.exception();
+    }
+
+    /**
+     * Remember a failure to link a target, if it means that the target is missing.
+     *
+     * @return The failure, to throw.
+     */
+    public static <E extends ReflectiveOperationException> E failed(SymbolResolver symbols, String target, E failure) {
+        if (policy != MissingTargetPolicy.FAIL_ON_LINK && isMissing(failure)) {
+            symbols.putMissing(target, new Missing(failure));
+            if (REPORT.size() < MAX_REPORTED) REPORT.add(target + " from " + symbols.describeLoader());
+        }
+        return failure;
+    }
+
+    /**
+     * Link a call site whose target couldn't be resolved.
+     *
+     * @param type    The type of the call site.
+     * @param failure The failure from resolving the target.
+     * @return A handle of {@code type} that throws a {@link LinkageError} caused by {@code failure} when invoked.
+     * @throws ReflectiveOperationException {@code failure}, if the policy is to fail on link, or the target isn't missing.
+     */
+    public static MethodHandle deferred(MethodType type, ReflectiveOperationException failure)
+            throws ReflectiveOperationException {
+        if (policy == MissingTargetPolicy.FAIL_ON_LINK || !isMissing(failure)) throw failure;
+        return MethodHandles.dropArguments(THROW_MISSING.bindTo(new Missing(failure)), 0, type.parameterList()).asType(type);
+    }
+
+    private static boolean isMissing(ReflectiveOperationException failure) {
+        return failure instanceof ClassNotFoundException ||
+                failure instanceof NoSuchMethodException ||
+                failure instanceof NoSuchFieldException;
+    }
+
+    @SuppressWarnings("unused")
+    private static Object throwMissing(Missing missing) {
+        LinkageError error = missing.error();
+        error.initCause(missing.exception());
+        throw error;
+    }
+
+    /**
+     * The type and message of the failure a target was found missing with.
+     */
+    static final class Missing {
+        private final Class<?> type;
+        private final String message;
+
+        Missing(ReflectiveOperationException failure) {
+            type = failure instanceof ClassNotFoundException ? ClassNotFoundException.class :
+                    failure instanceof NoSuchMethodException ? NoSuchMethodException.class :
+                            NoSuchFieldException.class;
+            message = failure.getMessage();
+        }
+
+        ReflectiveOperationException exception() {
+            if (type == ClassNotFoundException.class) return new ClassNotFoundException(message);
+            if (type == NoSuchMethodException.class) return new NoSuchMethodException(message);
+            return new NoSuchFieldException(message);
+        }
+
+        LinkageError error() {
+            if (type == ClassNotFoundException.class) return new NoClassDefFoundError(message);
+            if (type == NoSuchMethodException.class) return new NoSuchMethodError(message);
+            return new NoSuchFieldError(message);
+        }
+    }
+
+    private static final MethodHandle THROW_MISSING;
+
+    static {
+        try {
+            THROW_MISSING = MethodHandles.lookup().findStatic(MissingTargets.class, "throwMissing",
+                    MethodType.methodType(Object.class, Missing.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package eutros.runtimeobf.linkage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of {@link Prelinker pre-linking} the call sites of one class.
+ */
+public class PrelinkReport {
+    /**
+     * The class whose call sites were linked.
+     */
+    public final Class<?> lookupClass;
+    /**
+     * The number of distinct runtime obfuscation call sites found in the class.
+     */
+    public final int sites;
+    /**
+     * The wall time spent scanning and linking the class, in nanoseconds.
+     */
+    public final long nanos;
+    /**
+     * The sites that failed to link.
+     */
+    public final List<Failure> failures;
+
+    public PrelinkReport(Class<?> lookupClass, int sites, long nanos, List<Failure> failures) {
+        this.lookupClass = lookupClass;
+        this.sites = sites;
+        this.nanos = nanos;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d sites in %.3fms, %d failed",
+                lookupClass.getName(), sites, nanos / 1e6, failures.size());
+    }
+
+    public static class Failure {
+        /**
+         * A description of the call site, its name, type and bootstrap arguments.
+         */
+        public final String site;
+        public final Throwable cause;
+
+        public Failure(String site, Throwable cause) {
+            this.site = site;
+            this.cause = cause;
+        }
+
+        @Override
+        public String toString() {
+            return site + ": " + cause;
+        }
+    }
+}
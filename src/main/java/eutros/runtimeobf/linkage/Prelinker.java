@@ -0,0 +1,221 @@
+package eutros.runtimeobf.linkage;
+
+import eutros.runtimeobf.Bootstrap;
+import eutros.runtimeobf.util.AsmHelper;
+import eutros.runtimeobf.util.BootstrapHelper;
+import eutros.runtimeobf.util.SiteTables;
+import org.objectweb.asm.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Links the runtime obfuscation call sites of transformed classes ahead of time.
+ * <p>
+ * Pre-linking runs the {@link Bootstrap bootstrap methods} for every site found in the class file,
+ * which fills the {@link LinkageCache}, so that the first real invocation of each site only has to adapt
+ * an already resolved handle.
+ * <p>
+ * Sites are linked against the current environment. In {@link CallSiteMode#PER_INVOCATION per-invocation} mode,
+ * targets for other environments are still resolved on the first invocation in each.
+ */
+public final class Prelinker {
+    private static final Handle obfMethodOrFieldBootstrap = AsmHelper.unreflect(BootstrapHelper.obfMethodOrFieldBootstrap);
+    private static final Handle obfTypeBootstrap = AsmHelper.unreflect(BootstrapHelper.obfTypeBootstrap);
+
+    private Prelinker() {
+    }
+
+    /**
+     * Pre-link the call sites of a class on the current thread.
+     *
+     * @param lookup     A lookup in the transformed class, with private access.
+     * @param classBytes The bytes of the transformed class, as it was defined.
+     * @return The report for the class.
+     */
+    public static PrelinkReport prelink(MethodHandles.Lookup lookup, byte[] classBytes) {
+        long start = System.nanoTime();
+        List<Site> sites = findSites(classBytes);
+        List<PrelinkReport.Failure> failures = new ArrayList<>();
+        for (Site site : sites) {
+            try {
+                site.link(lookup);
+            } catch (Throwable t) {
+                failures.add(new PrelinkReport.Failure(site.toString(), t));
+            }
+        }
+        return new PrelinkReport(lookup.lookupClass(), sites.size(), System.nanoTime() - start, failures);
+    }
+
+    /**
+     * Pre-link the call sites of a class, reading its bytes from its class loader.
+     *
+     * @param lookup A lookup in the transformed class, with private access.
+     * @return The report for the class.
+     * @throws IOException if the class file can't be read.
+     */
+    public static PrelinkReport prelink(MethodHandles.Lookup lookup) throws IOException {
+        Class<?> clazz = lookup.lookupClass();
+        ClassLoader loader = clazz.getClassLoader();
+        String resName = clazz.getName().replace('.', '/') + ".class";
+        try (InputStream is = loader == null ?
+                ClassLoader.getSystemResourceAsStream(resName) :
+                loader.getResourceAsStream(resName)) {
+            if (is == null) throw new IOException("Class file not found: " + resName);
+            return prelink(lookup, is.readAllBytes());
+        }
+    }
+
+    /**
+     * Pre-link the call sites of many classes in parallel, reading their bytes from their class loaders.
+     *
+     * @param classes  The transformed classes. They must be open to this module for deep reflection.
+     * @param executor The executor to link classes on. Each class is linked by a single task.
+     * @return A report for each class, in the order of {@code classes}.
+     * @throws InterruptedException if interrupted while waiting for the tasks.
+     */
+    public static List<PrelinkReport> prelinkAll(Collection<Class<?>> classes, ExecutorService executor)
+            throws InterruptedException {
+        List<Callable<PrelinkReport>> tasks = new ArrayList<>();
+        for (Class<?> clazz : classes) {
+            tasks.add(() -> {
+                long start = System.nanoTime();
+                try {
+                    return prelink(MethodHandles.privateLookupIn(clazz, MethodHandles.lookup()));
+                } catch (IOException | IllegalAccessException | RuntimeException e) {
+                    return new PrelinkReport(clazz, 0, System.nanoTime() - start,
+                            Collections.singletonList(new PrelinkReport.Failure(clazz.getName(), e)));
+                }
+            });
+        }
+        return collect(executor.invokeAll(tasks));
+    }
+
+    /**
+     * Pre-link the call sites of many classes in parallel.
+     *
+     * @param classBytes A map from lookups in the transformed classes to their bytes, as they were defined.
+     * @param executor   The executor to link classes on. Each class is linked by a single task.
+     * @return A report for each class, in iteration order of {@code classBytes}.
+     * @throws InterruptedException if interrupted while waiting for the tasks.
+     */
+    public static List<PrelinkReport> prelinkAll(Map<MethodHandles.Lookup, byte[]> classBytes, ExecutorService executor)
+            throws InterruptedException {
+        List<Callable<PrelinkReport>> tasks = new ArrayList<>();
+        for (Map.Entry<MethodHandles.Lookup, byte[]> entry : classBytes.entrySet()) {
+            tasks.add(() -> prelink(entry.getKey(), entry.getValue()));
+        }
+        return collect(executor.invokeAll(tasks));
+    }
+
+    /**
+     * @see #prelinkAll(Collection, ExecutorService)
+     */
+    public static List<PrelinkReport> prelinkAll(Collection<Class<?>> classes) throws InterruptedException {
+        return prelinkAll(classes, ForkJoinPool.commonPool());
+    }
+
+    private static List<PrelinkReport> collect(List<Future<PrelinkReport>> futures) {
+        List<PrelinkReport> reports = new ArrayList<>();
+        for (Future<PrelinkReport> future : futures) {
+            try {
+                reports.add(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                // tasks catch their own failures, and invokeAll has already waited for them
+                throw new IllegalStateException(e);
+            }
+        }
+        return reports;
+    }
+
+    private static List<Site> findSites(byte[] classBytes) {
+        Set<Site> sites = new LinkedHashSet<>();
+        Map<ConstantDynamic, String[][]> siteTables = new IdentityHashMap<>();
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bsm, Object... bsmArgs) {
+                        Handle expandedBsm = SiteTables.expandedBootstrap(bsm);
+                        if (expandedBsm != null) {
+                            bsmArgs = SiteTables.expandArgs(bsm, bsmArgs, siteTables);
+                            bsm = expandedBsm;
+                        }
+                        if (obfMethodOrFieldBootstrap.equals(bsm) || obfTypeBootstrap.equals(bsm)) {
+                            sites.add(new Site(name, descriptor, bsm, bsmArgs));
+                        }
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return new ArrayList<>(sites);
+    }
+
+    private static class Site {
+        private final String name;
+        private final String desc;
+        private final Handle bsm;
+        private final Object[] args;
+
+        private Site(String name, String desc, Handle bsm, Object[] args) {
+            this.name = name;
+            this.desc = desc;
+            this.bsm = bsm;
+            this.args = args;
+        }
+
+        private void link(MethodHandles.Lookup lookup) throws Throwable {
+            MethodType type = MethodType.fromMethodDescriptorString(desc, lookup.lookupClass().getClassLoader());
+            int opcode = (Integer) args[0];
+            if (bsm.equals(obfMethodOrFieldBootstrap)) {
+                Bootstrap.obfMethodOrFieldBootstrap(lookup, name, type, opcode,
+                        handle(lookup, BootstrapHelper.OMOFB_GET_CLASS_REMAPPER),
+                        handle(lookup, BootstrapHelper.OMOFB_GET_NAME_REMAPPER),
+                        handle(lookup, BootstrapHelper.OMOFB_GET_ENV),
+                        strings(BootstrapHelper.OMOFB_FIXED_ARGS));
+            } else {
+                Bootstrap.obfTypeBootstrap(lookup, name, type, opcode,
+                        handle(lookup, BootstrapHelper.OTB_GET_CLASS_REMAPPER),
+                        handle(lookup, BootstrapHelper.OTB_GET_ENV),
+                        strings(BootstrapHelper.OTB_FIXED_ARGS));
+            }
+        }
+
+        private MethodHandle handle(MethodHandles.Lookup lookup, int index) throws ReflectiveOperationException {
+            return AsmHelper.toMethodHandle(lookup, (Handle) args[index]);
+        }
+
+        private String[] strings(int from) {
+            String[] strings = new String[args.length - from];
+            for (int i = 0; i < strings.length; i++) strings[i] = (String) args[from + i];
+            return strings;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Site site = (Site) o;
+            return name.equals(site.name) &&
+                    desc.equals(site.desc) &&
+                    bsm.equals(site.bsm) &&
+                    Arrays.equals(args, site.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, desc, bsm, Arrays.hashCode(args));
+        }
+
+        @Override
+        public String toString() {
+            return name + desc + " " + Arrays.toString(args);
+        }
+    }
+}
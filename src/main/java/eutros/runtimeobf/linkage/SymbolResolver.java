@@ -0,0 +1,214 @@
+package eutros.runtimeobf.linkage;
+
+import eutros.runtimeobf.function.ClassNameRemapperFunction;
+import eutros.runtimeobf.util.DescriptorHelper;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves remapped names, classes and method types as seen from one class loader, caching each so that types
+ * shared by many call sites are only resolved once per loader.
+ * <p>
+ * Nothing cached here keeps a loader from being unloaded: resolvers are held weakly by their loader,
+ * classes, method types and stub handles are held through weak references, and remapped names are held per remapper in
+ * weak maps. Entries whose value has been collected are removed the next time one is added.
+ * Remapper functions are assumed to always give the same result for the same name.
+ */
+public final class SymbolResolver {
+    /**
+     * The most missing targets remembered per loader. Targets found missing after that are looked for again
+     * each time they are linked.
+     */
+    public static final int MAX_MISSING = 4096;
+
+    private static final Map<ClassLoader, SymbolResolver> RESOLVERS = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final SymbolResolver BOOTSTRAP = new SymbolResolver(null);
+
+    private final WeakReference<ClassLoader> loader;
+    private final Map<ClassNameRemapperFunction, ConcurrentMap<String, String>> classNames =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<ClassNameRemapperFunction, ConcurrentMap<String, String>> descriptors =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private final WeakValueCache<Class<?>> classes = new WeakValueCache<>();
+    private final WeakValueCache<MethodType> methodTypes = new WeakValueCache<>();
+    private final WeakValueCache<MethodHandle> stubs = new WeakValueCache<>();
+    private final ConcurrentMap<String, MissingTargets.Missing> missing = new ConcurrentHashMap<>();
+
+    private SymbolResolver(ClassLoader loader) {
+        this.loader = new WeakReference<>(loader);
+    }
+
+    /**
+     * @param loader The class loader to resolve from, or null for the bootstrap class loader.
+     * @return The resolver for the loader.
+     */
+    public static SymbolResolver of(ClassLoader loader) {
+        if (loader == null) return BOOTSTRAP;
+        SymbolResolver resolver = RESOLVERS.get(loader);
+        if (resolver == null) resolver = RESOLVERS.computeIfAbsent(loader, SymbolResolver::new);
+        return resolver;
+    }
+
+    /**
+     * Remap the internal name of a class, or of the element class of an array of objects.
+     */
+    public String remapClassName(ClassNameRemapperFunction remapper, String internalName) {
+        ConcurrentMap<String, String> cache = cache(classNames, remapper);
+        String mapped = cache.get(internalName);
+        if (mapped == null) {
+            String masked = DescriptorHelper.maskArray(internalName);
+            mapped = masked == internalName ?
+                    remapper.remapClassName(internalName) :
+                    DescriptorHelper.unmaskArray(internalName, remapClassName(remapper, masked));
+            cache.putIfAbsent(internalName, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * Remap every internal name in a field or method descriptor.
+     */
+    public String remapDescriptor(ClassNameRemapperFunction remapper, String descriptor) {
+        ConcurrentMap<String, String> cache = cache(descriptors, remapper);
+        String mapped = cache.get(descriptor);
+        if (mapped == null) {
+            mapped = DescriptorHelper.remapDescriptor(descriptor, name -> remapClassName(remapper, name));
+            cache.putIfAbsent(descriptor, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * Remap and load a class, or an array class.
+     */
+    public Class<?> resolveClass(ClassNameRemapperFunction remapper, String internalName) throws ClassNotFoundException {
+        return loadClass(remapClassName(remapper, internalName));
+    }
+
+    /**
+     * Remap and resolve the type of a method descriptor.
+     */
+    public MethodType resolveMethodType(ClassNameRemapperFunction remapper, String descriptor) throws ClassNotFoundException {
+        return methodType(remapDescriptor(remapper, descriptor));
+    }
+
+    /**
+     * Load a class by its runtime internal name, without initializing it.
+     */
+    public Class<?> loadClass(String internalName) throws ClassNotFoundException {
+        Class<?> clazz = classes.get(internalName);
+        if (clazz == null) {
+            clazz = Class.forName(internalName.replace('/', '.'), false, loader());
+            classes.put(internalName, clazz);
+        }
+        return clazz;
+    }
+
+    /**
+     * Resolve a method type from a method descriptor of runtime names.
+     */
+    public MethodType methodType(String descriptor) throws ClassNotFoundException {
+        MethodType type = methodTypes.get(descriptor);
+        if (type == null) {
+            Type[] argumentTypes = Type.getArgumentTypes(descriptor);
+            Class<?>[] parameters = new Class<?>[argumentTypes.length];
+            for (int i = 0; i < parameters.length; i++) parameters[i] = toClass(argumentTypes[i]);
+            type = MethodType.methodType(toClass(Type.getReturnType(descriptor)), parameters);
+            methodTypes.put(descriptor, type);
+        }
+        return type;
+    }
+
+    private Class<?> toClass(Type type) throws ClassNotFoundException {
+        switch (type.getSort()) {
+            case Type.VOID:
+                return void.class;
+            case Type.BOOLEAN:
+                return boolean.class;
+            case Type.CHAR:
+                return char.class;
+            case Type.BYTE:
+                return byte.class;
+            case Type.SHORT:
+                return short.class;
+            case Type.INT:
+                return int.class;
+            case Type.FLOAT:
+                return float.class;
+            case Type.LONG:
+                return long.class;
+            case Type.DOUBLE:
+                return double.class;
+            default:
+                return loadClass(type.getInternalName());
+        }
+    }
+
+    /**
+     * Drop everything resolved from this loader, including targets known to be missing,
+     * so that they are remapped and looked up again.
+     */
+    public void clear() {
+        classNames.clear();
+        descriptors.clear();
+        classes.clear();
+        methodTypes.clear();
+        stubs.clear();
+        missing.clear();
+    }
+
+    /**
+     * @return The stub handles spun for classes of this loader, held until nothing links to them.
+     */
+    WeakValueCache<MethodHandle> stubs() {
+        return stubs;
+    }
+
+    /**
+     * @param target A target, as described by {@link MissingTargets}.
+     * @return The failure a target is known to fail with, or null if it hasn't failed.
+     */
+    MissingTargets.Missing getMissing(String target) {
+        return missing.get(target);
+    }
+
+    /**
+     * Remember that a target can't be found from this loader, so that it isn't looked for again,
+     * unless {@link #MAX_MISSING} targets are already remembered.
+     */
+    void putMissing(String target, MissingTargets.Missing failure) {
+        // may go over by a few under contention, which is fine for a bound on memory
+        if (missing.size() < MAX_MISSING) missing.putIfAbsent(target, failure);
+    }
+
+    /**
+     * @return A description of the loader, for reports.
+     */
+    String describeLoader() {
+        if (this == BOOTSTRAP) return "bootstrap";
+        ClassLoader loader = this.loader.get();
+        if (loader == null) return "unloaded";
+        return loader.getName() != null ? loader.getName() : loader.toString();
+    }
+
+    private ClassLoader loader() {
+        ClassLoader loader = this.loader.get();
+        if (loader == null && this != BOOTSTRAP) throw new IllegalStateException("Class loader was unloaded");
+        return loader;
+    }
+
+    private static ConcurrentMap<String, String> cache(Map<ClassNameRemapperFunction, ConcurrentMap<String, String>> caches,
+                                                       ClassNameRemapperFunction remapper) {
+        ConcurrentMap<String, String> cache = caches.get(remapper);
+        if (cache == null) cache = caches.computeIfAbsent(remapper, $ -> new ConcurrentHashMap<>());
+        return cache;
+    }
+}
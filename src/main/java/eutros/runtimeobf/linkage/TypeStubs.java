@@ -0,0 +1,134 @@
+package eutros.runtimeobf.linkage;
+
+import eutros.runtimeobf.util.DescriptorHelper;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Spins hidden classes that perform a single type instruction against a class resolved at link time,
+ * so that call sites replacing CHECKCAST, INSTANCEOF, ANEWARRAY and MULTIANEWARRAY run the real instruction
+ * instead of a reflective equivalent, and compile to the same code as the untransformed class would.
+ * <p>
+ * Stubs are defined as hidden classes in the package of the caller, so they can see every class the caller can.
+ * A stub only depends on its loader, package, opcode and type, so it is shared by every caller in the package.
+ * Stubs aren't strongly reachable from the caller's loader, and are unloaded once nothing links to them.
+ * <p>
+ * Hidden classes need Java 15 or later. On older runtimes no stubs are spun, as if they were disabled.
+ */
+public final class TypeStubs {
+    private static final String STUB_NAME = "RuntimeObf$TypeStub";
+    private static final String METHOD_NAME = "invoke";
+
+    private static volatile boolean enabled = true;
+
+    private TypeStubs() {
+    }
+
+    /**
+     * Set whether type instructions linked from now on use stubs. Disabled, or on runtimes older than Java 15,
+     * they are linked to reflective handles instead.
+     */
+    public static void setEnabled(boolean enabled) {
+        TypeStubs.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Spin a stub for a type instruction.
+     *
+     * @param caller      The lookup of the class the call site is in. Must have full privilege access.
+     * @param opcode      The opcode to perform. One of CHECKCAST, INSTANCEOF, ANEWARRAY or MULTIANEWARRAY.
+     * @param mappedClass The class to perform it against. For MULTIANEWARRAY, the element class of the array.
+     * @param type        The type of the call site.
+     * @return A static handle that performs the instruction, or null if stubs are disabled or can't be defined
+     * for the caller.
+     */
+    public static MethodHandle stub(MethodHandles.Lookup caller, int opcode, Class<?> mappedClass, MethodType type) {
+        if (!enabled || !HiddenClasses.isSupported()) return null;
+        String desc;
+        switch (opcode) {
+            case Opcodes.CHECKCAST:
+                desc = Type.getMethodDescriptor(Type.getType(mappedClass), Type.getType(Object.class));
+                break;
+            case Opcodes.INSTANCEOF:
+                desc = Type.getMethodDescriptor(Type.BOOLEAN_TYPE, Type.getType(Object.class));
+                break;
+            case Opcodes.ANEWARRAY:
+                desc = "(I)[" + Type.getDescriptor(mappedClass);
+                break;
+            case Opcodes.MULTIANEWARRAY:
+                // the erased return type has as many dimensions as the array being created
+                desc = "(" + DescriptorHelper.repeatChar('I', type.parameterCount()) + ")" +
+                        DescriptorHelper.repeatChar('[', DescriptorHelper.arrayDimensions(Type.getDescriptor(type.returnType()))) +
+                        Type.getDescriptor(mappedClass);
+                break;
+
+            default:
+                throw new IllegalArgumentException();
+        }
+
+        Class<?> callerClass = caller.lookupClass();
+        WeakValueCache<MethodHandle> stubs = SymbolResolver.of(callerClass.getClassLoader()).stubs();
+        // a name is the same class for any caller of the loader, though the descriptor doesn't always have it
+        String key = callerClass.getPackageName() + " " + opcode + " " + mappedClass.getName() + " " + desc;
+        MethodHandle stub = stubs.get(key);
+        if (stub != null) return stub;
+        try {
+            MethodHandles.Lookup stubLookup = HiddenClasses.define(caller, spin(callerClass, opcode, mappedClass, desc));
+            stub = stubLookup.findStatic(stubLookup.lookupClass(), METHOD_NAME,
+                    MethodType.fromMethodDescriptorString(desc, callerClass.getClassLoader()));
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            // without full privilege access the reflective handles still work
+            return null;
+        }
+        stubs.put(key, stub);
+        return stub;
+    }
+
+    private static byte[] spin(Class<?> caller, int opcode, Class<?> mappedClass, String desc) {
+        String packageName = caller.getPackageName();
+        String name = packageName.isEmpty() ? STUB_NAME : packageName.replace('.', '/') + "/" + STUB_NAME;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC, name, null,
+                "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_STATIC, METHOD_NAME, desc, null, null);
+        mv.visitCode();
+        String internalName = Type.getInternalName(mappedClass);
+        switch (opcode) {
+            case Opcodes.CHECKCAST:
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, internalName);
+                mv.visitInsn(Opcodes.ARETURN);
+                break;
+            case Opcodes.INSTANCEOF:
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitTypeInsn(Opcodes.INSTANCEOF, internalName);
+                mv.visitInsn(Opcodes.IRETURN);
+                break;
+            case Opcodes.ANEWARRAY:
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitTypeInsn(Opcodes.ANEWARRAY, internalName);
+                mv.visitInsn(Opcodes.ARETURN);
+                break;
+            case Opcodes.MULTIANEWARRAY:
+                Type[] dims = Type.getArgumentTypes(desc);
+                for (int i = 0; i < dims.length; i++) mv.visitVarInsn(Opcodes.ILOAD, i);
+                mv.visitMultiANewArrayInsn(Type.getReturnType(desc).getDescriptor(), dims.length);
+                mv.visitInsn(Opcodes.ARETURN);
+                break;
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
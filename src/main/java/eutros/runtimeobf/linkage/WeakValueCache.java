@@ -0,0 +1,46 @@
+package eutros.runtimeobf.linkage;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent map from strings to weakly held values.
+ * <p>
+ * Entries whose value has been collected are removed the next time one is added.
+ */
+final class WeakValueCache<V> {
+    private final ConcurrentMap<String, Entry<V>> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<V> cleared = new ReferenceQueue<>();
+
+    /**
+     * @return The value for the key, or null if there is none or it has been collected.
+     */
+    V get(String key) {
+        Entry<V> entry = map.get(key);
+        return entry == null ? null : entry.get();
+    }
+
+    void put(String key, V value) {
+        for (Reference<? extends V> ref; (ref = cleared.poll()) != null; ) {
+            Entry<?> entry = (Entry<?>) ref;
+            map.remove(entry.key, entry);
+        }
+        map.put(key, new Entry<>(key, value, cleared));
+    }
+
+    void clear() {
+        map.clear();
+    }
+
+    private static final class Entry<V> extends WeakReference<V> {
+        final String key;
+
+        Entry(String key, V value, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
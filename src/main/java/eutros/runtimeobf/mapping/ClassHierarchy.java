@@ -0,0 +1,37 @@
+package eutros.runtimeobf.mapping;
+
+/**
+ * The superclasses, interfaces and declared members of a set of classes, by internal name.
+ * <p>
+ * Implementations must be safe to use from any number of threads.
+ *
+ * @see HierarchyIndex
+ */
+public interface ClassHierarchy {
+    /**
+     * @return Whether the class is known to this hierarchy.
+     */
+    boolean contains(String internalName);
+
+    /**
+     * @return The internal name of the superclass of a class, or null if it has none or isn't known.
+     */
+    String superName(String internalName);
+
+    /**
+     * @return The internal names of the interfaces a class directly implements, or an empty array if it isn't known.
+     */
+    String[] interfaces(String internalName);
+
+    boolean declaresField(String owner, String name, String desc);
+
+    boolean declaresMethod(String owner, String name, String desc);
+
+    /**
+     * @return A digest of everything this hierarchy describes, or null if it can't be read as a whole, in which
+     * case configurations using it have a fingerprint of their own and never share cached transforms.
+     */
+    default byte[] fingerprint() {
+        return null;
+    }
+}
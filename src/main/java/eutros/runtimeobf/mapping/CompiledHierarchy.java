@@ -0,0 +1,161 @@
+package eutros.runtimeobf.mapping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A class hierarchy read from a memory-mapped file written by {@link HierarchyCompiler}.
+ * <p>
+ * The file is laid out as
+ * <pre>
+ * magic (8 bytes) | version | class count | ref count
+ * classes: hash | name | super | first ref | interface count | field count | method count
+ * refs: for each class, its interfaces, then the name and descriptor of each field, then of each method
+ * strings: modified UTF-8, each prefixed by its length as an unsigned short
+ * </pre>
+ * where every value is an int, names are offsets into the strings, a class without a superclass has a super of -1,
+ * and classes are sorted by hash. Lookups binary search the hashes and compare names in place, without decoding
+ * anything but the superclasses and interfaces asked for.
+ * <p>
+ * Safe to use from any number of threads.
+ */
+public class CompiledHierarchy implements ClassHierarchy {
+    static final long MAGIC = 0x524F_4246_4849_4552L; // ROBFHIER
+    static final int VERSION = 1;
+
+    private static final int HEADER = 20;
+    private static final int CLASS_ENTRY = 28;
+    private static final String[] NONE = new String[0];
+
+    private final ByteBuffer buf;
+    private final int classCount;
+    private final int refsStart;
+    private final int stringsStart;
+    private volatile byte[] fingerprint;
+
+    private CompiledHierarchy(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER || buf.getLong(0) != MAGIC) throw new IOException("Not a compiled hierarchy file");
+        if (buf.getInt(8) != VERSION) throw new IOException("Unsupported version: " + buf.getInt(8));
+        classCount = buf.getInt(12);
+        refsStart = HEADER + classCount * CLASS_ENTRY;
+        stringsStart = refsStart + buf.getInt(16) * 4;
+        if (stringsStart > buf.capacity()) throw new IOException("Truncated hierarchy file");
+    }
+
+    /**
+     * Map a compiled hierarchy file into memory.
+     *
+     * @throws IOException if the file can't be read, or wasn't written by {@link HierarchyCompiler}.
+     */
+    public static CompiledHierarchy open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new CompiledHierarchy(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int classCount() {
+        return classCount;
+    }
+
+    /**
+     * @return The SHA-256 digest of the whole file, computed the first time it is asked for.
+     */
+    @Override
+    public byte[] fingerprint() {
+        byte[] fingerprint = this.fingerprint;
+        if (fingerprint == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(buf.duplicate().clear());
+                this.fingerprint = fingerprint = digest.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return fingerprint.clone();
+    }
+
+    @Override
+    public boolean contains(String internalName) {
+        return find(internalName) != -1;
+    }
+
+    @Override
+    public String superName(String internalName) {
+        int entry = find(internalName);
+        if (entry == -1) return null;
+        int superName = buf.getInt(entry + 8);
+        return superName == -1 ? null : string(superName);
+    }
+
+    @Override
+    public String[] interfaces(String internalName) {
+        int entry = find(internalName);
+        if (entry == -1) return NONE;
+        int count = buf.getInt(entry + 16);
+        if (count == 0) return NONE;
+        int ref = refsStart + buf.getInt(entry + 12) * 4;
+        String[] ret = new String[count];
+        for (int i = 0; i < count; i++) ret[i] = string(buf.getInt(ref + i * 4));
+        return ret;
+    }
+
+    @Override
+    public boolean declaresField(String owner, String name, String desc) {
+        int entry = find(owner);
+        if (entry == -1) return false;
+        int ref = buf.getInt(entry + 12) + buf.getInt(entry + 16);
+        return declares(ref, buf.getInt(entry + 20), name, desc);
+    }
+
+    @Override
+    public boolean declaresMethod(String owner, String name, String desc) {
+        int entry = find(owner);
+        if (entry == -1) return false;
+        int ref = buf.getInt(entry + 12) + buf.getInt(entry + 16) + buf.getInt(entry + 20) * 2;
+        return declares(ref, buf.getInt(entry + 24), name, desc);
+    }
+
+    /**
+     * @param ref   The index of the first ref of the members.
+     * @param count The number of members.
+     */
+    private boolean declares(int ref, int count, String name, String desc) {
+        for (int pos = refsStart + ref * 4, end = pos + count * 8; pos < end; pos += 8) {
+            if (matches(buf.getInt(pos), name) && matches(buf.getInt(pos + 4), desc)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The position of the entry of a class, or -1 if there is none.
+     */
+    private int find(String internalName) {
+        int hash = internalName.hashCode();
+        int lo = 0;
+        int hi = classCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buf.getInt(HEADER + mid * CLASS_ENTRY) < hash) lo = mid + 1;
+            else hi = mid;
+        }
+        for (int entry = HEADER + lo * CLASS_ENTRY; lo < classCount && buf.getInt(entry) == hash; lo++, entry += CLASS_ENTRY) {
+            if (matches(buf.getInt(entry + 4), internalName)) return entry;
+        }
+        return -1;
+    }
+
+    private boolean matches(int offset, String s) {
+        return MappedStrings.matches(buf, stringsStart + offset, s);
+    }
+
+    private String string(int offset) {
+        return MappedStrings.decode(buf, stringsStart + offset);
+    }
+}
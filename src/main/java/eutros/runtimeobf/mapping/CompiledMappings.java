@@ -0,0 +1,142 @@
+package eutros.runtimeobf.mapping;
+
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+import eutros.runtimeobf.function.ClassNameRemapperFunction;
+import eutros.runtimeobf.function.NameRemapperFunction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Remaps names using a memory-mapped file written by {@link MappingCompiler}.
+ * <p>
+ * The file is laid out as
+ * <pre>
+ * magic (8 bytes) | version | class count | field count | method count
+ * classes: hash | from | to
+ * fields, then methods: hash | owner | name | desc | to
+ * strings: modified UTF-8, each prefixed by its length as an unsigned short
+ * </pre>
+ * where every value is an int, names are offsets into the strings, and entries are sorted by hash.
+ * Lookups binary search the hashes and compare names in place; only the mapped name is ever decoded.
+ * <p>
+ * Names that aren't in the file map to themselves. Fields mapped without a descriptor match any descriptor.
+ * Safe to use from any number of threads.
+ */
+public class CompiledMappings implements ClassNameRemapperFunction, NameRemapperFunction {
+    static final long MAGIC = 0x524F_4246_4D41_5053L; // ROBFMAPS
+    static final int VERSION = 1;
+    static final String ANY_DESCRIPTOR = "";
+
+    private static final int HEADER = 24;
+    private static final int CLASS_ENTRY = 12;
+    private static final int MEMBER_ENTRY = 20;
+
+    private final ByteBuffer buf;
+    private final int classCount;
+    private final int fieldCount;
+    private final int methodCount;
+    private final int fieldsStart;
+    private final int methodsStart;
+    private final int stringsStart;
+
+    private CompiledMappings(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER || buf.getLong(0) != MAGIC) throw new IOException("Not a compiled mapping file");
+        if (buf.getInt(8) != VERSION) throw new IOException("Unsupported version: " + buf.getInt(8));
+        classCount = buf.getInt(12);
+        fieldCount = buf.getInt(16);
+        methodCount = buf.getInt(20);
+        fieldsStart = HEADER + classCount * CLASS_ENTRY;
+        methodsStart = fieldsStart + fieldCount * MEMBER_ENTRY;
+        stringsStart = methodsStart + methodCount * MEMBER_ENTRY;
+        if (stringsStart > buf.capacity()) throw new IOException("Truncated mapping file");
+    }
+
+    /**
+     * Map a compiled mapping file into memory.
+     *
+     * @throws IOException if the file can't be read, or wasn't written by {@link MappingCompiler}.
+     */
+    public static CompiledMappings open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new CompiledMappings(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int classCount() {
+        return classCount;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public int methodCount() {
+        return methodCount;
+    }
+
+    @Override
+    public String remapClassName(String internalName) {
+        int hash = internalName.hashCode();
+        for (int entry = first(HEADER, CLASS_ENTRY, classCount, hash);
+             entry != -1 && buf.getInt(entry) == hash;
+             entry = next(entry, CLASS_ENTRY, fieldsStart)) {
+            if (matches(buf.getInt(entry + 4), internalName)) return string(buf.getInt(entry + 8));
+        }
+        return internalName;
+    }
+
+    @Override
+    public String remapName(String owner, String name, String descriptor) {
+        boolean method = descriptor.charAt(0) == '(';
+        int start = method ? methodsStart : fieldsStart;
+        int count = method ? methodCount : fieldCount;
+        String found = findMember(start, count, owner, name, descriptor);
+        if (found == null && !method) found = findMember(start, count, owner, name, ANY_DESCRIPTOR);
+        return found == null ? name : found;
+    }
+
+    private String findMember(int start, int count, String owner, String name, String desc) {
+        int hash = OwnerNameAndDesc.hash(owner, name, desc);
+        int end = start + count * MEMBER_ENTRY;
+        for (int entry = first(start, MEMBER_ENTRY, count, hash);
+             entry != -1 && buf.getInt(entry) == hash;
+             entry = next(entry, MEMBER_ENTRY, end)) {
+            if (matches(buf.getInt(entry + 4), owner) &&
+                    matches(buf.getInt(entry + 8), name) &&
+                    matches(buf.getInt(entry + 12), desc)) return string(buf.getInt(entry + 16));
+        }
+        return null;
+    }
+
+    /**
+     * @return The position of the first entry with the hash, or -1 if there is none.
+     */
+    private int first(int start, int entrySize, int count, int hash) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buf.getInt(start + mid * entrySize) < hash) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < count ? start + lo * entrySize : -1;
+    }
+
+    private static int next(int entry, int entrySize, int end) {
+        int next = entry + entrySize;
+        return next < end ? next : -1;
+    }
+
+    private boolean matches(int offset, String s) {
+        return MappedStrings.matches(buf, stringsStart + offset, s);
+    }
+
+    private String string(int offset) {
+        return MappedStrings.decode(buf, stringsStart + offset);
+    }
+}
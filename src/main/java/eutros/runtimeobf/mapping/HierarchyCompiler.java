@@ -0,0 +1,166 @@
+package eutros.runtimeobf.mapping;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Scans the declarations of classes and writes their hierarchy in the binary form read by {@link CompiledHierarchy}.
+ * <p>
+ * Only the class header and member declarations are read, never code. Adding a class of the same name again
+ * replaces the earlier one. Not thread-safe.
+ */
+public class HierarchyCompiler {
+    private final Map<String, ClassEntry> classes = new LinkedHashMap<>();
+
+    /**
+     * Add a class.
+     *
+     * @param classBytes The bytes of the class file.
+     */
+    public void add(byte[] classBytes) {
+        ClassEntry entry = new ClassEntry();
+        new ClassReader(classBytes).accept(entry, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        classes.put(entry.name, entry);
+    }
+
+    /**
+     * Add every class in a jar.
+     */
+    public void addJar(Path jar) throws IOException {
+        try (ZipInputStream zin = new ZipInputStream(new BufferedInputStream(Files.newInputStream(jar)))) {
+            for (ZipEntry entry; (entry = zin.getNextEntry()) != null; ) {
+                if (isClass(entry.getName()) && !entry.isDirectory()) add(zin.readAllBytes());
+            }
+        }
+    }
+
+    /**
+     * Add every class under a directory.
+     */
+    public void addDirectory(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.filter(path -> isClass(path.getFileName().toString()) && Files.isRegularFile(path)).forEach(files::add);
+        }
+        for (Path file : files) {
+            try (InputStream is = Files.newInputStream(file)) {
+                add(is.readAllBytes());
+            }
+        }
+    }
+
+    private static boolean isClass(String name) {
+        return name.endsWith(".class") && !name.endsWith("module-info.class") && !name.endsWith("package-info.class");
+    }
+
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * Write the hierarchy to a file, replacing it atomically.
+     */
+    public void write(Path path) throws IOException {
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                write(os);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Write the hierarchy to a stream. The stream isn't closed.
+     */
+    public void write(OutputStream os) throws IOException {
+        MappedStrings.Pool strings = new MappedStrings.Pool();
+        List<Integer> refs = new ArrayList<>();
+        int[][] entries = new int[classes.size()][];
+        int i = 0;
+        for (ClassEntry entry : classes.values()) {
+            int first = refs.size();
+            for (String itf : entry.interfaces) refs.add(strings.offset(itf));
+            for (String[] field : entry.fields) {
+                refs.add(strings.offset(field[0]));
+                refs.add(strings.offset(field[1]));
+            }
+            for (String[] method : entry.methods) {
+                refs.add(strings.offset(method[0]));
+                refs.add(strings.offset(method[1]));
+            }
+            entries[i++] = new int[] {
+                    entry.name.hashCode(),
+                    strings.offset(entry.name),
+                    entry.superName == null ? -1 : strings.offset(entry.superName),
+                    first,
+                    entry.interfaces.length,
+                    entry.fields.size(),
+                    entry.methods.size()
+            };
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeLong(CompiledHierarchy.MAGIC);
+        out.writeInt(CompiledHierarchy.VERSION);
+        out.writeInt(entries.length);
+        out.writeInt(refs.size());
+        MappingCompiler.writeSorted(out, entries);
+        for (int ref : refs) out.writeInt(ref);
+        strings.write(out);
+        out.flush();
+    }
+
+    private static class ClassEntry extends ClassVisitor {
+        String name;
+        String superName;
+        String[] interfaces;
+        final List<String[]> fields = new ArrayList<>();
+        final List<String[]> methods = new ArrayList<>();
+
+        ClassEntry() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces == null ? new String[0] : interfaces;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            fields.add(new String[] { name, descriptor });
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            methods.add(new String[] { name, descriptor });
+            return null;
+        }
+    }
+}
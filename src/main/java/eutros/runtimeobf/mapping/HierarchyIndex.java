@@ -0,0 +1,111 @@
+package eutros.runtimeobf.mapping;
+
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+import eutros.runtimeobf.function.NameRemapperFunction;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the class that declares a field or method referred to through some owner, walking a
+ * {@link ClassHierarchy} the way the JVM resolves members, and caches the result.
+ * <p>
+ * Mappings list members under the class that declares them, while code refers to inherited members through
+ * whichever class it uses. Rather than having every remapper walk the hierarchy itself at every call site,
+ * wrap it with {@link #remapper(NameRemapperFunction)}, and give the same index to
+ * {@link eutros.runtimeobf.transform.TransformationConfig.Builder#hierarchy(HierarchyIndex) the transformer}.
+ * <p>
+ * Safe to use from any number of threads.
+ */
+public final class HierarchyIndex {
+    private final ClassHierarchy hierarchy;
+    private final ConcurrentMap<OwnerNameAndDesc, String> fields = new ConcurrentHashMap<>();
+    private final ConcurrentMap<OwnerNameAndDesc, String> methods = new ConcurrentHashMap<>();
+
+    public HierarchyIndex(ClassHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    public ClassHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * @param owner The internal name of the class the member is referred to through.
+     * @param name  The name of the field or method.
+     * @param desc  The descriptor of the field or method.
+     * @return The internal name of the class that declares the member, or {@code owner} if no class in the
+     * hierarchy does.
+     */
+    public String declaringOwner(String owner, String name, String desc) {
+        boolean method = desc.charAt(0) == '(';
+        // constructors aren't inherited
+        if (method && "<init>".equals(name)) return owner;
+        ConcurrentMap<OwnerNameAndDesc, String> cache = method ? methods : fields;
+        OwnerNameAndDesc key = new OwnerNameAndDesc(owner, name, desc);
+        String declaring = cache.get(key);
+        if (declaring != null) return declaring;
+
+        declaring = method ? resolveMethod(owner, name, desc) : resolveField(owner, name, desc, new HashSet<>());
+        if (declaring == null) declaring = owner;
+        String existing = cache.putIfAbsent(key, declaring);
+        return existing == null ? declaring : existing;
+    }
+
+    /**
+     * @return The number of members resolved so far.
+     */
+    public int size() {
+        return fields.size() + methods.size();
+    }
+
+    /**
+     * Wrap a remapper so that it is always asked about the class that declares a member, rather than the class
+     * the member is referred to through.
+     * <p>
+     * Wrap once and return the same function from the getNameRemapper handle every time, as call sites are
+     * cached by remapper.
+     */
+    public NameRemapperFunction remapper(NameRemapperFunction remapper) {
+        return (owner, name, descriptor) -> remapper.remapName(declaringOwner(owner, name, descriptor), name, descriptor);
+    }
+
+    /**
+     * The class itself, then its superinterfaces, then its superclass, as in JVMS 5.4.3.2.
+     */
+    private String resolveField(String owner, String name, String desc, Set<String> visited) {
+        for (String clazz = owner; clazz != null && visited.add(clazz); clazz = hierarchy.superName(clazz)) {
+            if (hierarchy.declaresField(clazz, name, desc)) return clazz;
+            for (String itf : hierarchy.interfaces(clazz)) {
+                String found = resolveField(itf, name, desc, visited);
+                if (found != null) return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The class and its superclasses, then every superinterface of any of them, as in JVMS 5.4.3.3.
+     * Where more than one superinterface declares the method, the first found breadth first is taken.
+     */
+    private String resolveMethod(String owner, String name, String desc) {
+        Deque<String> interfaces = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        for (String clazz = owner; clazz != null && visited.add(clazz); clazz = hierarchy.superName(clazz)) {
+            if (hierarchy.declaresMethod(clazz, name, desc)) return clazz;
+            Collections.addAll(interfaces, hierarchy.interfaces(clazz));
+        }
+        while (!interfaces.isEmpty()) {
+            String itf = interfaces.remove();
+            if (!visited.add(itf)) continue;
+            if (hierarchy.declaresMethod(itf, name, desc)) return itf;
+            Collections.addAll(interfaces, hierarchy.interfaces(itf));
+        }
+        return null;
+    }
+}
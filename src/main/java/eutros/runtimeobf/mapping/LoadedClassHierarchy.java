@@ -0,0 +1,88 @@
+package eutros.runtimeobf.mapping;
+
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * A class hierarchy read by reflection from the classes a class loader can load, without initializing them.
+ * <p>
+ * Classes are described by their names at runtime, so this suits remappers that are asked about runtime names,
+ * where the class remapper leaves names as they are.
+ */
+public class LoadedClassHierarchy implements ClassHierarchy {
+    private static final String[] NONE = new String[0];
+
+    private final ClassLoader loader;
+
+    /**
+     * @param loader The loader to find classes with.
+     */
+    public LoadedClassHierarchy(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    private Class<?> load(String internalName) {
+        try {
+            return Class.forName(internalName.replace('/', '.'), false, loader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean contains(String internalName) {
+        return load(internalName) != null;
+    }
+
+    @Override
+    public String superName(String internalName) {
+        Class<?> clazz = load(internalName);
+        Class<?> superclass = clazz == null ? null : clazz.getSuperclass();
+        return superclass == null ? null : Type.getInternalName(superclass);
+    }
+
+    @Override
+    public String[] interfaces(String internalName) {
+        Class<?> clazz = load(internalName);
+        if (clazz == null) return NONE;
+        Class<?>[] interfaces = clazz.getInterfaces();
+        String[] ret = new String[interfaces.length];
+        for (int i = 0; i < ret.length; i++) ret[i] = Type.getInternalName(interfaces[i]);
+        return ret;
+    }
+
+    @Override
+    public boolean declaresField(String owner, String name, String desc) {
+        Class<?> clazz = load(owner);
+        if (clazz == null) return false;
+        try {
+            Field field = clazz.getDeclaredField(name);
+            return Type.getDescriptor(field.getType()).equals(desc);
+        } catch (NoSuchFieldException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean declaresMethod(String owner, String name, String desc) {
+        Class<?> clazz = load(owner);
+        if (clazz == null) return false;
+        try {
+            if ("<init>".equals(name)) {
+                for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+                    if (Type.getConstructorDescriptor(constructor).equals(desc)) return true;
+                }
+                return false;
+            }
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (method.getName().equals(name) && Type.getMethodDescriptor(method).equals(desc)) return true;
+            }
+        } catch (LinkageError e) {
+            // a member refers to a class that can't be loaded
+        }
+        return false;
+    }
+}
@@ -0,0 +1,111 @@
+package eutros.runtimeobf.mapping;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the string sections of compiled files, where each string is modified UTF-8
+ * prefixed by its length as an unsigned short, as written by {@link java.io.DataOutput#writeUTF(String)}.
+ */
+final class MappedStrings {
+    private MappedStrings() {
+    }
+
+    /**
+     * Compare a string in a buffer with a string, decoding one character at a time.
+     *
+     * @param pos The position of the string's length in the buffer.
+     */
+    static boolean matches(ByteBuffer buf, int pos, String s) {
+        int end = pos + 2 + (buf.getShort(pos) & 0xFFFF);
+        pos += 2;
+        int i = 0;
+        int length = s.length();
+        while (pos < end) {
+            if (i == length) return false;
+            int b = buf.get(pos) & 0xFF;
+            char c;
+            if (b < 0x80) {
+                c = (char) b;
+                pos++;
+            } else if ((b & 0xE0) == 0xC0) {
+                c = (char) (((b & 0x1F) << 6) | (buf.get(pos + 1) & 0x3F));
+                pos += 2;
+            } else {
+                c = (char) (((b & 0x0F) << 12) | ((buf.get(pos + 1) & 0x3F) << 6) | (buf.get(pos + 2) & 0x3F));
+                pos += 3;
+            }
+            if (c != s.charAt(i++)) return false;
+        }
+        return i == length;
+    }
+
+    /**
+     * Decode a string in a buffer.
+     *
+     * @param pos The position of the string's length in the buffer.
+     */
+    static String decode(ByteBuffer buf, int pos) {
+        int end = pos + 2 + (buf.getShort(pos) & 0xFFFF);
+        pos += 2;
+        char[] chars = new char[end - pos];
+        int length = 0;
+        while (pos < end) {
+            int b = buf.get(pos) & 0xFF;
+            if (b < 0x80) {
+                chars[length++] = (char) b;
+                pos++;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[length++] = (char) (((b & 0x1F) << 6) | (buf.get(pos + 1) & 0x3F));
+                pos += 2;
+            } else {
+                chars[length++] = (char) (((b & 0x0F) << 12) | ((buf.get(pos + 1) & 0x3F) << 6) | (buf.get(pos + 2) & 0x3F));
+                pos += 3;
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * @return The length of a string in modified UTF-8, as written by {@link java.io.DataOutput#writeUTF(String)}.
+     */
+    static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    /**
+     * A pool of distinct strings, with their offsets in the string section.
+     */
+    static final class Pool {
+        private final Map<String, Integer> offsets = new LinkedHashMap<>();
+        private final List<String> list = new ArrayList<>();
+        private int size = 0;
+
+        int offset(String s) {
+            Integer offset = offsets.get(s);
+            if (offset != null) return offset;
+            offsets.put(s, size);
+            list.add(s);
+            int ret = size;
+            size += 2 + utfLength(s);
+            return ret;
+        }
+
+        /**
+         * Write the string section.
+         */
+        void write(DataOutputStream out) throws IOException {
+            for (String string : list) out.writeUTF(string);
+        }
+    }
+}
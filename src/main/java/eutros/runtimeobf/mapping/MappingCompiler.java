@@ -0,0 +1,114 @@
+package eutros.runtimeobf.mapping;
+
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects mappings and writes them in the binary form read by {@link CompiledMappings}.
+ * <p>
+ * Mapping the same class or member again replaces the earlier mapping.
+ */
+public class MappingCompiler implements MappingSink {
+    private final Map<String, String> classes = new LinkedHashMap<>();
+    private final Map<OwnerNameAndDesc, String> fields = new LinkedHashMap<>();
+    private final Map<OwnerNameAndDesc, String> methods = new LinkedHashMap<>();
+
+    @Override
+    public void mapClass(String from, String to) {
+        classes.put(from, to);
+    }
+
+    @Override
+    public void mapField(String owner, String name, String desc, String to) {
+        fields.put(new OwnerNameAndDesc(owner, name, desc == null ? CompiledMappings.ANY_DESCRIPTOR : desc), to);
+    }
+
+    @Override
+    public void mapMethod(String owner, String name, String desc, String to) {
+        methods.put(new OwnerNameAndDesc(owner, name, desc), to);
+    }
+
+    /**
+     * Write the mappings to a file, replacing it atomically.
+     */
+    public void write(Path path) throws IOException {
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                write(os);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Write the mappings to a stream. The stream isn't closed.
+     */
+    public void write(OutputStream os) throws IOException {
+        MappedStrings.Pool strings = new MappedStrings.Pool();
+        int[][] classEntries = new int[classes.size()][];
+        int i = 0;
+        for (Map.Entry<String, String> entry : classes.entrySet()) {
+            classEntries[i] = new int[] { entry.getKey().hashCode(), strings.offset(entry.getKey()), strings.offset(entry.getValue()) };
+            i++;
+        }
+        int[][] fieldEntries = members(fields, strings);
+        int[][] methodEntries = members(methods, strings);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeLong(CompiledMappings.MAGIC);
+        out.writeInt(CompiledMappings.VERSION);
+        out.writeInt(classEntries.length);
+        out.writeInt(fieldEntries.length);
+        out.writeInt(methodEntries.length);
+        writeSorted(out, classEntries);
+        writeSorted(out, fieldEntries);
+        writeSorted(out, methodEntries);
+        strings.write(out);
+        out.flush();
+    }
+
+    private static int[][] members(Map<OwnerNameAndDesc, String> members, MappedStrings.Pool strings) {
+        int[][] entries = new int[members.size()][];
+        int i = 0;
+        for (Map.Entry<OwnerNameAndDesc, String> entry : members.entrySet()) {
+            OwnerNameAndDesc member = entry.getKey();
+            entries[i++] = new int[] {
+                    member.hashCode(),
+                    strings.offset(member.owner),
+                    strings.offset(member.name),
+                    strings.offset(member.desc),
+                    strings.offset(entry.getValue())
+            };
+        }
+        return entries;
+    }
+
+    private static long sortKey(int hash, int index) {
+        return ((long) hash << 32) | index;
+    }
+
+    /**
+     * Write entries ordered by hash, so that they can be binary searched.
+     */
+    static void writeSorted(DataOutputStream out, int[][] entries) throws IOException {
+        long[] order = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) order[i] = sortKey(entries[i][0], i);
+        Arrays.sort(order);
+        for (long key : order) {
+            for (int value : entries[(int) key]) out.writeInt(value);
+        }
+    }
+}
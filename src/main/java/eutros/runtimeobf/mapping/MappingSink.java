@@ -0,0 +1,28 @@
+package eutros.runtimeobf.mapping;
+
+/**
+ * Receives mappings as a mapping file is read. All names are internal names, with {@code /} separators.
+ */
+public interface MappingSink {
+    /**
+     * @param from The unmapped internal name of the class.
+     * @param to   The mapped internal name of the class.
+     */
+    void mapClass(String from, String to);
+
+    /**
+     * @param owner The unmapped internal name of the owning class.
+     * @param name  The unmapped name of the field.
+     * @param desc  The unmapped descriptor of the field, or null if the format doesn't give one.
+     * @param to    The mapped name of the field.
+     */
+    void mapField(String owner, String name, String desc, String to);
+
+    /**
+     * @param owner The unmapped internal name of the owning class.
+     * @param name  The unmapped name of the method.
+     * @param desc  The unmapped descriptor of the method.
+     * @param to    The mapped name of the method.
+     */
+    void mapMethod(String owner, String name, String desc, String to);
+}
@@ -0,0 +1,112 @@
+package eutros.runtimeobf.mapping;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads mappings in the ProGuard format, from the original names to the obfuscated names.
+ * <p>
+ * Line numbers are ignored, as are entries for methods inlined from other classes.
+ */
+public class ProGuardReader {
+    /**
+     * @param reader The mapping file.
+     * @param sink   The sink to send mappings to.
+     * @throws IOException if reading fails, or a line is malformed.
+     */
+    public static void read(BufferedReader reader, MappingSink sink) throws IOException {
+        String owner = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            int arrow = trimmed.indexOf(" -> ");
+            if (arrow == -1) throw new IOException("Malformed ProGuard line: " + line);
+            String to = trimmed.substring(arrow + 4);
+
+            if (!Character.isWhitespace(line.charAt(0))) {
+                if (!to.endsWith(":")) throw new IOException("Malformed ProGuard line: " + line);
+                owner = internalName(trimmed.substring(0, arrow));
+                String mapped = internalName(to.substring(0, to.length() - 1));
+                if (!owner.equals(mapped)) sink.mapClass(owner, mapped);
+                continue;
+            }
+            if (owner == null) throw new IOException("Member outside of a class: " + line);
+
+            String member = stripLineNumbers(trimmed.substring(0, arrow));
+            int space = member.indexOf(' ');
+            if (space == -1) throw new IOException("Malformed ProGuard line: " + line);
+            String type = member.substring(0, space);
+            String rest = member.substring(space + 1);
+            int paren = rest.indexOf('(');
+            if (paren == -1) {
+                if (!rest.equals(to)) sink.mapField(owner, rest, descriptor(type), to);
+                continue;
+            }
+            String name = rest.substring(0, paren);
+            if (name.indexOf('.') != -1) continue; // inlined from another class
+            int close = rest.indexOf(')', paren);
+            if (close == -1) throw new IOException("Malformed ProGuard line: " + line);
+            if (name.equals(to)) continue;
+            StringBuilder desc = new StringBuilder("(");
+            String args = rest.substring(paren + 1, close);
+            if (!args.isEmpty()) {
+                for (String arg : args.split(",")) desc.append(descriptor(arg.trim()));
+            }
+            sink.mapMethod(owner, name, desc.append(')').append(descriptor(type)).toString(), to);
+        }
+    }
+
+    /**
+     * Strip the {@code 1:2:} before and {@code :3:4} after a method, if present.
+     */
+    private static String stripLineNumbers(String member) {
+        int start = 0;
+        while (start < member.length() && (Character.isDigit(member.charAt(start)) || member.charAt(start) == ':')) start++;
+        int end = member.length();
+        int close = member.lastIndexOf(')');
+        if (close != -1) end = close + 1;
+        return member.substring(start, end);
+    }
+
+    private static String internalName(String javaName) {
+        return javaName.replace('.', '/');
+    }
+
+    /**
+     * @param javaType A type as written in Java source, such as {@code int[]} or {@code java.lang.String}.
+     */
+    static String descriptor(String javaType) {
+        int dimensions = 0;
+        int end = javaType.length();
+        while (javaType.startsWith("[]", end - 2)) {
+            dimensions++;
+            end -= 2;
+        }
+        StringBuilder sb = new StringBuilder(end + dimensions + 2);
+        for (int i = 0; i < dimensions; i++) sb.append('[');
+        String element = javaType.substring(0, end);
+        switch (element) {
+            case "void":
+                return sb.append('V').toString();
+            case "boolean":
+                return sb.append('Z').toString();
+            case "byte":
+                return sb.append('B').toString();
+            case "char":
+                return sb.append('C').toString();
+            case "short":
+                return sb.append('S').toString();
+            case "int":
+                return sb.append('I').toString();
+            case "long":
+                return sb.append('J').toString();
+            case "float":
+                return sb.append('F').toString();
+            case "double":
+                return sb.append('D').toString();
+            default:
+                return sb.append('L').append(internalName(element)).append(';').toString();
+        }
+    }
+}
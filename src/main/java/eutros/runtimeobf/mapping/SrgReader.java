@@ -0,0 +1,103 @@
+package eutros.runtimeobf.mapping;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads mappings in the SRG, TSRG or TSRG v2 formats, telling them apart by their first line.
+ * <p>
+ * TSRG v2 files are read from their first namespace to their second.
+ */
+public class SrgReader {
+    /**
+     * @param reader The mapping file.
+     * @param sink   The sink to send mappings to.
+     * @throws IOException if reading fails, or a line is malformed.
+     */
+    public static void read(BufferedReader reader, MappingSink sink) throws IOException {
+        String line = reader.readLine();
+        while (line != null && line.trim().isEmpty()) line = reader.readLine();
+        if (line == null) return;
+        if (line.startsWith("tsrg2 ")) {
+            readTsrg(reader, reader.readLine(), sink, line.split(" ").length - 1);
+        } else if (line.length() > 3 && line.charAt(2) == ':') {
+            readSrg(reader, line, sink);
+        } else {
+            readTsrg(reader, line, sink, 2);
+        }
+    }
+
+    private static void readSrg(BufferedReader reader, String line, MappingSink sink) throws IOException {
+        for (; line != null; line = reader.readLine()) {
+            if (line.trim().isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.trim().split(" +");
+            switch (parts[0]) {
+                case "CL:":
+                    expect(parts, 3, line);
+                    sink.mapClass(parts[1], parts[2]);
+                    break;
+                case "FD:":
+                    if (parts.length == 5) {
+                        // XSRG, with descriptors
+                        sink.mapField(owner(parts[1], line), simpleName(parts[1]), parts[2], simpleName(parts[3]));
+                    } else {
+                        expect(parts, 3, line);
+                        sink.mapField(owner(parts[1], line), simpleName(parts[1]), null, simpleName(parts[2]));
+                    }
+                    break;
+                case "MD:":
+                    expect(parts, 5, line);
+                    sink.mapMethod(owner(parts[1], line), simpleName(parts[1]), parts[2], simpleName(parts[3]));
+                    break;
+                case "PK:":
+                    break;
+                default:
+                    throw new IOException("Malformed SRG line: " + line);
+            }
+        }
+    }
+
+    private static void readTsrg(BufferedReader reader, String line, MappingSink sink, int namespaces) throws IOException {
+        String owner = null;
+        for (; line != null; line = reader.readLine()) {
+            if (line.trim().isEmpty() || line.startsWith("#")) continue;
+            int indent = 0;
+            while (indent < line.length() && line.charAt(indent) == '\t') indent++;
+            String[] parts = line.substring(indent).split(" ");
+            if (indent == 0) {
+                expect(parts, namespaces, line);
+                if (parts[0].endsWith("/")) {
+                    // package
+                    owner = null;
+                    continue;
+                }
+                owner = parts[0];
+                if (!parts[0].equals(parts[1])) sink.mapClass(parts[0], parts[1]);
+            } else if (indent == 1 && owner != null) {
+                if (parts.length == namespaces) {
+                    sink.mapField(owner, parts[0], null, parts[1]);
+                } else if (parts.length == namespaces + 1) {
+                    if (parts[1].charAt(0) == '(') sink.mapMethod(owner, parts[0], parts[1], parts[2]);
+                    else sink.mapField(owner, parts[0], parts[1], parts[2]);
+                } else {
+                    throw new IOException("Malformed TSRG line: " + line);
+                }
+            }
+            // deeper lines are parameters and flags
+        }
+    }
+
+    private static void expect(String[] parts, int length, String line) throws IOException {
+        if (parts.length < length) throw new IOException("Malformed mapping line: " + line);
+    }
+
+    private static String owner(String qualified, String line) throws IOException {
+        int slash = qualified.lastIndexOf('/');
+        if (slash == -1) throw new IOException("Malformed SRG line: " + line);
+        return qualified.substring(0, slash);
+    }
+
+    private static String simpleName(String qualified) {
+        return qualified.substring(qualified.lastIndexOf('/') + 1);
+    }
+}
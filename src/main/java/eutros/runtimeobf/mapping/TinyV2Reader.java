@@ -0,0 +1,128 @@
+package eutros.runtimeobf.mapping;
+
+import eutros.runtimeobf.util.DescriptorHelper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads mappings in the Tiny v2 format.
+ */
+public class TinyV2Reader {
+    /**
+     * @param reader        The mapping file.
+     * @param fromNamespace The namespace of the unmapped names.
+     * @param toNamespace   The namespace of the mapped names.
+     * @param sink          The sink to send mappings to.
+     * @throws IOException if reading fails, or the file isn't Tiny v2, or lacks either namespace.
+     */
+    public static void read(BufferedReader reader, String fromNamespace, String toNamespace, MappingSink sink) throws IOException {
+        String header = reader.readLine();
+        String[] headerParts = header == null ? new String[0] : header.split("\t");
+        if (headerParts.length < 5 || !"tiny".equals(headerParts[0]) || !"2".equals(headerParts[1])) {
+            throw new IOException("Not a Tiny v2 file");
+        }
+        List<String> namespaces = Arrays.asList(headerParts).subList(3, headerParts.length);
+        int from = namespaces.indexOf(fromNamespace);
+        int to = namespaces.indexOf(toNamespace);
+        if (from == -1) throw new IOException("Unknown namespace: " + fromNamespace);
+        if (to == -1) throw new IOException("Unknown namespace: " + toNamespace);
+
+        // descriptors are given in the first namespace, so members are held back until all classes are known
+        Map<String, String> toFrom = from == 0 ? null : new HashMap<>();
+        List<String[]> members = from == 0 ? null : new ArrayList<>();
+
+        boolean escaped = false;
+        boolean inClasses = false;
+        String[] owner = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            int indent = 0;
+            while (indent < line.length() && line.charAt(indent) == '\t') indent++;
+            String[] parts = line.substring(indent).split("\t", -1);
+            if (!inClasses && indent == 1) {
+                if ("escaped-names".equals(parts[0])) escaped = true;
+                continue;
+            }
+            if (indent == 0) {
+                inClasses = true;
+                if (!"c".equals(parts[0])) {
+                    owner = null;
+                    continue;
+                }
+                owner = names(parts, 1, namespaces.size(), escaped);
+                if (toFrom != null) toFrom.put(owner[0], owner[from]);
+                if (!owner[from].equals(owner[to])) sink.mapClass(owner[from], owner[to]);
+            } else if (indent == 1 && owner != null && ("f".equals(parts[0]) || "m".equals(parts[0]))) {
+                String desc = unescape(parts[1], escaped);
+                String[] names = names(parts, 2, namespaces.size(), escaped);
+                if (names[from].equals(names[to])) continue;
+                if (members == null) {
+                    map(sink, parts[0], owner[from], names[from], desc, names[to]);
+                } else {
+                    members.add(new String[] { parts[0], owner[from], names[from], desc, names[to] });
+                }
+            }
+        }
+
+        if (members != null) {
+            for (String[] member : members) {
+                String desc = DescriptorHelper.remapDescriptor(member[3], name -> toFrom.getOrDefault(name, name));
+                map(sink, member[0], member[1], member[2], desc, member[4]);
+            }
+        }
+    }
+
+    private static void map(MappingSink sink, String kind, String owner, String name, String desc, String to) {
+        if ("f".equals(kind)) sink.mapField(owner, name, desc, to);
+        else sink.mapMethod(owner, name, desc, to);
+    }
+
+    /**
+     * Read the names of a class or member in each namespace. A missing name is the same as the first.
+     */
+    private static String[] names(String[] parts, int start, int count, boolean escaped) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            String name = start + i < parts.length ? unescape(parts[start + i], escaped) : "";
+            names[i] = name.isEmpty() ? names[0] : name;
+        }
+        return names;
+    }
+
+    private static String unescape(String s, boolean escaped) {
+        if (!escaped || s.indexOf('\\') == -1) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = s.charAt(++i);
+            switch (next) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case '0':
+                    sb.append('\0');
+                    break;
+                default:
+                    sb.append(next);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package eutros.runtimeobf.transform;
+
+import java.util.Map;
+
+/**
+ * An open-addressing table from internal names to their expansions, that can be probed with a region
+ * of a descriptor as well as with a whole string.
+ * <p>
+ * Immutable once built, and so safe to share between threads.
+ */
+final class ClassTable {
+    private final String[] keys;
+    private final int[] hashes;
+    private final String[][] values;
+    private final int mask;
+
+    ClassTable(Map<String, String[]> entries) {
+        int capacity = tableSize(entries.size());
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new String[capacity][];
+        mask = capacity - 1;
+        for (Map.Entry<String, String[]> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            int hash = key.hashCode();
+            int slot = spread(hash) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            hashes[slot] = hash;
+            values[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * @return A power of two at least twice the size, keeping the load factor at most a half.
+     */
+    static int tableSize(int size) {
+        return Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+    }
+
+    static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    String[] get(String internalName) {
+        int hash = internalName.hashCode();
+        for (int slot = spread(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            String key = keys[slot];
+            if (hashes[slot] == hash && (key == internalName || key.equals(internalName))) return values[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Look up the internal name between {@code start} and {@code end} in a descriptor, without making a substring.
+     */
+    String[] get(String descriptor, int start, int end) {
+        // the same as String#hashCode, over the region
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + descriptor.charAt(i);
+        int length = end - start;
+        for (int slot = spread(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            String key = keys[slot];
+            if (hashes[slot] == hash &&
+                    key.length() == length &&
+                    key.regionMatches(0, descriptor, start, length)) return values[slot];
+        }
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+package eutros.runtimeobf.transform;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.util.function.Function;
+
+/**
+ * Transforms the bytes of a single class. Implementations must be safe to call from many threads at once.
+ */
+@FunctionalInterface
+public interface ClassTransformer {
+    /**
+     * @param internalName The internal name of the class, derived from where the class file was found.
+     * @param classBytes   The bytes of the class file. Must not be modified.
+     * @return The transformed bytes, or {@code classBytes} itself if the class is unchanged.
+     */
+    byte[] transform(String internalName, byte[] classBytes);
+
+    /**
+     * Create a transformer that runs a class through a visitor chain.
+     * <p>
+     * The class writer shares the constant pool of the class reader, so that methods the chain doesn't touch
+     * can be copied as they are.
+     *
+     * @param makeVisitor A function that wraps the class writer in the visitors to transform with.
+     * @return The transformer.
+     */
+    static ClassTransformer of(Function<ClassVisitor, ClassVisitor> makeVisitor) {
+        return (internalName, classBytes) -> {
+            ClassReader reader = new ClassReader(classBytes);
+            ClassWriter writer = new ClassWriter(reader, 0);
+            reader.accept(makeVisitor.apply(writer), 0);
+            return writer.toByteArray();
+        };
+    }
+}
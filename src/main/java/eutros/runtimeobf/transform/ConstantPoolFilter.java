@@ -0,0 +1,239 @@
+package eutros.runtimeobf.transform;
+
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+import eutros.runtimeobf.util.DescriptorHelper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Decides from the constant pool and member descriptors of a class file alone whether the class
+ * references anything that the transformation would change, without parsing any code.
+ * <p>
+ * Strings are only decoded for entries that have to be checked, and each at most once.
+ * The buffers indexing the constant pool are reused by each thread.
+ */
+public class ConstantPoolFilter {
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final DescriptorHelper.InternalNamePredicate internalNamePredicate;
+    private final Predicate<OwnerNameAndDesc> fieldNamePredicate;
+    private final Predicate<OwnerNameAndDesc> methodNamePredicate;
+    private final ThreadLocal<Scan> scans = ThreadLocal.withInitial(Scan::new);
+
+    /**
+     * @param internalNamePredicate A predicate for internal names that need to be remapped and erased.
+     * @param fieldNamePredicate    A predicate for field names to remap.
+     * @param methodNamePredicate   A predicate for method names to remap.
+     */
+    public ConstantPoolFilter(DescriptorHelper.InternalNamePredicate internalNamePredicate,
+                              Predicate<OwnerNameAndDesc> fieldNamePredicate,
+                              Predicate<OwnerNameAndDesc> methodNamePredicate) {
+        this.internalNamePredicate = internalNamePredicate;
+        this.fieldNamePredicate = fieldNamePredicate;
+        this.methodNamePredicate = methodNamePredicate;
+    }
+
+    /**
+     * @see #ConstantPoolFilter(DescriptorHelper.InternalNamePredicate, Predicate, Predicate)
+     */
+    public ConstantPoolFilter(Predicate<String> internalNamePredicate,
+                              Predicate<OwnerNameAndDesc> fieldNamePredicate,
+                              Predicate<OwnerNameAndDesc> methodNamePredicate) {
+        this(DescriptorHelper.matching(internalNamePredicate), fieldNamePredicate, methodNamePredicate);
+    }
+
+    /**
+     * @param b The bytes of a class file.
+     * @return Whether the class may need transforming. False only if the class references no matched names.
+     */
+    public boolean test(byte[] b) {
+        Scan scan = scans.get();
+        // a predicate may load a class, and so test another one on this thread before this one is done
+        if (scan.b != null) scan = new Scan();
+        try {
+            scan.index(b);
+            return scan.matches();
+        } finally {
+            scan.clear();
+        }
+    }
+
+    private class Scan {
+        private byte[] b;
+        private int[] offsets = new int[0];
+        private String[] strings = new String[0];
+        private int count;
+        private int end;
+
+        void index(byte[] b) {
+            this.b = b;
+            count = u2(8);
+            if (offsets.length < count) {
+                offsets = new int[count];
+                strings = new String[count];
+            }
+            int pos = 10;
+            for (int i = 1; i < count; i++) {
+                offsets[i] = pos;
+                switch (b[pos]) {
+                    case CONSTANT_UTF8:
+                        pos += 3 + u2(pos + 1);
+                        break;
+                    case CONSTANT_CLASS:
+                    case CONSTANT_STRING:
+                    case CONSTANT_METHOD_TYPE:
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        pos += 3;
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        pos += 4;
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        pos += 9;
+                        if (++i < count) offsets[i] = 0;
+                        break;
+                    case CONSTANT_INTEGER:
+                    case CONSTANT_FLOAT:
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        pos += 5;
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Unknown constant pool tag " + b[pos] + " at " + pos);
+                }
+            }
+            end = pos;
+        }
+
+        void clear() {
+            Arrays.fill(strings, 0, count, null);
+            count = 0;
+            b = null;
+        }
+
+        boolean matches() {
+            for (int i = 1; i < count; i++) {
+                int offset = offsets[i];
+                if (offset == 0) continue; // second slot of a long or double
+                switch (b[offset]) {
+                    case CONSTANT_CLASS:
+                        if (matchesClass(utf8(u2(offset + 1)))) return true;
+                        break;
+                    case CONSTANT_NAME_AND_TYPE:
+                        if (matchesDescriptor(utf8(u2(offset + 3)))) return true;
+                        break;
+                    case CONSTANT_METHOD_TYPE:
+                        if (matchesDescriptor(utf8(u2(offset + 1)))) return true;
+                        break;
+                    case CONSTANT_FIELDREF:
+                        if (fieldNamePredicate.test(memberRef(offset))) return true;
+                        break;
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                        if (methodNamePredicate.test(memberRef(offset))) return true;
+                        break;
+                }
+            }
+            // declared descriptors needn't be referenced from the constant pool
+            int pos = end + 6;
+            pos += 2 + 2 * u2(pos);
+            for (int members = 0; members < 2; members++) {
+                int count = u2(pos);
+                pos += 2;
+                for (int i = 0; i < count; i++) {
+                    if (matchesDescriptor(utf8(u2(pos + 4)))) return true;
+                    int attributes = u2(pos + 6);
+                    pos += 8;
+                    for (int j = 0; j < attributes; j++) {
+                        pos += 6 + u4(pos + 2);
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesClass(String internalName) {
+            return internalName.charAt(0) == '[' ?
+                    matchesDescriptor(internalName) :
+                    internalNamePredicate.test(internalName, 0, internalName.length());
+        }
+
+        private boolean matchesDescriptor(String descriptor) {
+            return DescriptorHelper.anyInternalName(descriptor, internalNamePredicate);
+        }
+
+        private OwnerNameAndDesc memberRef(int offset) {
+            String owner = utf8(u2(offsets[u2(offset + 1)] + 1));
+            int nameAndType = offsets[u2(offset + 3)];
+            return new OwnerNameAndDesc(owner, utf8(u2(nameAndType + 1)), utf8(u2(nameAndType + 3)));
+        }
+
+        private String utf8(int index) {
+            String s = strings[index];
+            if (s == null) strings[index] = s = decode(offsets[index] + 3, u2(offsets[index] + 1));
+            return s;
+        }
+
+        /**
+         * Decode modified UTF-8, which for class names and descriptors is nearly always plain ASCII.
+         */
+        private String decode(int start, int length) {
+            int end = start + length;
+            boolean ascii = true;
+            for (int i = start; i < end; i++) {
+                if (b[i] < 0) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) return new String(b, start, length, StandardCharsets.ISO_8859_1);
+
+            char[] chars = new char[length];
+            int len = 0;
+            for (int i = start; i < end; ) {
+                int c = b[i++] & 0xFF;
+                if (c < 0x80) {
+                    chars[len++] = (char) c;
+                } else if (c < 0xE0) {
+                    chars[len++] = (char) (((c & 0x1F) << 6) | (b[i++] & 0x3F));
+                } else {
+                    chars[len++] = (char) (((c & 0x0F) << 12) | ((b[i++] & 0x3F) << 6) | (b[i++] & 0x3F));
+                }
+            }
+            return new String(chars, 0, len);
+        }
+
+        private int u2(int pos) {
+            return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+        }
+
+        private int u4(int pos) {
+            return (u2(pos) << 16) | u2(pos + 2);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package eutros.runtimeobf.transform;
+
+import eutros.runtimeobf.asm.ErasingClassVisitor;
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+import eutros.runtimeobf.asm.RemapTable;
+import eutros.runtimeobf.mapping.HierarchyIndex;
+import org.objectweb.asm.ClassReader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * The fields and methods whose declarations {@link ErasingClassVisitor} erases, across a whole set of classes.
+ * <p>
+ * Transforming many classes takes two passes: the first {@link #scan(Collection, RemapTable, ExecutorService) scans}
+ * the declarations of every class into an index, and the second rewrites code against the
+ * {@link #over(RemapTable) table it backs}, so that accesses to a member erased in one class are erased in
+ * every other class too. Both passes can run on any number of threads; the index can be added to and queried
+ * concurrently, and never blocks readers.
+ * <p>
+ * Members are indexed under the class that declares them. Given a {@link HierarchyIndex}, the table also finds
+ * them when they are referred to through a class that inherits them.
+ */
+public final class ErasedMemberIndex {
+    private final Set<OwnerNameAndDesc> fields = ConcurrentHashMap.newKeySet();
+    private final Set<OwnerNameAndDesc> methods = ConcurrentHashMap.newKeySet();
+    private final Set<String> fieldNames = ConcurrentHashMap.newKeySet();
+    private final Set<String> methodNames = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Scan the declarations of classes in parallel.
+     *
+     * @param classes  The bytes of each class file.
+     * @param table    The classes that are remapped, and so erased.
+     * @param executor The executor to scan classes on. Each class is scanned by a single task.
+     * @return The erased members of all the classes.
+     * @throws ErasingClassVisitor.ImpossibleTransformationException if any class extends or implements a remapped class.
+     * @throws InterruptedException                                  if interrupted while waiting for the tasks.
+     */
+    public static ErasedMemberIndex scan(Collection<byte[]> classes, RemapTable table, ExecutorService executor)
+            throws InterruptedException {
+        ErasedMemberIndex index = new ErasedMemberIndex();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (byte[] classBytes : classes) {
+            tasks.add(() -> {
+                index.add(new ClassReader(classBytes), table);
+                return null;
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @see #scan(Collection, RemapTable, ExecutorService)
+     */
+    public static ErasedMemberIndex scan(Collection<byte[]> classes, RemapTable table) throws InterruptedException {
+        return scan(classes, table, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Add the erased members declared by a class. Only declarations are read, not code.
+     *
+     * @param reader The class to scan.
+     * @param table  The classes that are remapped, and so erased.
+     */
+    public void add(ClassReader reader, RemapTable table) {
+        reader.accept(new ErasingClassVisitor(null, table, field -> {
+                    fieldNames.add(field.name);
+                    fields.add(field);
+                }, method -> {
+                    methodNames.add(method.name);
+                    methods.add(method);
+                }),
+                ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    public boolean isErasedField(String owner, String name, String desc) {
+        return fields.contains(new OwnerNameAndDesc(owner, name, desc));
+    }
+
+    public boolean isErasedMethod(String owner, String name, String desc) {
+        return methods.contains(new OwnerNameAndDesc(owner, name, desc));
+    }
+
+    /**
+     * @param hierarchy The hierarchy to find the class that declares the field with, or null to only take the
+     *                  owner as it is.
+     */
+    public boolean isErasedField(String owner, String name, String desc, HierarchyIndex hierarchy) {
+        if (isErasedField(owner, name, desc)) return true;
+        if (hierarchy == null || !fieldNames.contains(name)) return false;
+        String declaring = hierarchy.declaringOwner(owner, name, desc);
+        return !declaring.equals(owner) && isErasedField(declaring, name, desc);
+    }
+
+    /**
+     * @param hierarchy The hierarchy to find the class that declares the method with, or null to only take the
+     *                  owner as it is.
+     */
+    public boolean isErasedMethod(String owner, String name, String desc, HierarchyIndex hierarchy) {
+        if (isErasedMethod(owner, name, desc)) return true;
+        if (hierarchy == null || !methodNames.contains(name)) return false;
+        String declaring = hierarchy.declaringOwner(owner, name, desc);
+        return !declaring.equals(owner) && isErasedMethod(declaring, name, desc);
+    }
+
+    public int size() {
+        return fields.size() + methods.size();
+    }
+
+    /**
+     * @param table The table to delegate to.
+     * @return A table that also treats every member in this index as erased.
+     */
+    public RemapTable over(RemapTable table) {
+        return over(table, null);
+    }
+
+    /**
+     * @param table     The table to delegate to.
+     * @param hierarchy The hierarchy to find the classes that declare members with, or null.
+     * @return A table that also treats every member in this index as erased, through whichever class it is
+     * referred to.
+     */
+    public RemapTable over(RemapTable table, HierarchyIndex hierarchy) {
+        return new RemapTable() {
+            @Override
+            public String[] expandClass(String internalName) {
+                return table.expandClass(internalName);
+            }
+
+            @Override
+            public String[] expandField(String owner, String name, String desc) {
+                return table.expandField(owner, name, desc);
+            }
+
+            @Override
+            public String[] expandMethod(String owner, String name, String desc) {
+                return table.expandMethod(owner, name, desc);
+            }
+
+            @Override
+            public boolean isErasedField(String owner, String name, String desc) {
+                return table.isErasedField(owner, name, desc) || ErasedMemberIndex.this.isErasedField(owner, name, desc, hierarchy);
+            }
+
+            @Override
+            public boolean isErasedMethod(String owner, String name, String desc) {
+                return table.isErasedMethod(owner, name, desc) || ErasedMemberIndex.this.isErasedMethod(owner, name, desc, hierarchy);
+            }
+
+            @Override
+            public boolean isMappedClass(String internalName) {
+                return table.isMappedClass(internalName);
+            }
+
+            @Override
+            public boolean isMappedClass(String descriptor, int start, int end) {
+                return table.isMappedClass(descriptor, start, end);
+            }
+
+            @Override
+            public String[] expandClass(String descriptor, int start, int end) {
+                return table.expandClass(descriptor, start, end);
+            }
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package eutros.runtimeobf.transform;
+
+import org.objectweb.asm.Handle;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds a digest of a transformation configuration, to tell apart outputs of different configurations
+ * in a {@link TransformCache}.
+ * <p>
+ * Every part is length-prefixed, so that different sequences of parts never produce the same input to the digest.
+ */
+public class Fingerprint {
+    private final MessageDigest digest;
+
+    public Fingerprint() {
+        digest = newDigest();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Fingerprint add(byte[] bytes) {
+        add(bytes.length);
+        digest.update(bytes);
+        return this;
+    }
+
+    public Fingerprint add(int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+        return this;
+    }
+
+    public Fingerprint add(String string) {
+        if (string == null) return add(-1);
+        return add(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Fingerprint add(String[] strings) {
+        if (strings == null) return add(-1);
+        add(strings.length);
+        for (String string : strings) add(string);
+        return this;
+    }
+
+    public Fingerprint add(Handle handle) {
+        return add(handle.getTag())
+                .add(handle.getOwner())
+                .add(handle.getName())
+                .add(handle.getDesc())
+                .add(handle.isInterface() ? 1 : 0);
+    }
+
+    /**
+     * @return The fingerprint. The builder can't be used after.
+     */
+    public byte[] build() {
+        return digest.digest();
+    }
+}
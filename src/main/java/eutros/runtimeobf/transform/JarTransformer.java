@@ -0,0 +1,145 @@
+package eutros.runtimeobf.transform;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Transforms every class in a jar, streaming entries from the input to the output.
+ * <p>
+ * Classes are transformed in parallel on a fork-join pool, while resources pass through untouched.
+ * Entries are written in the order they were read, regardless of when their transformation finishes,
+ * and at most a fixed number of entries are held in memory at once.
+ * Each entry keeps the compression method it had in the input.
+ */
+public class JarTransformer {
+    private final ClassTransformer transformer;
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+
+    /**
+     * @param transformer The transformer to apply to each class.
+     * @param pool        The pool to transform classes on.
+     * @param maxInFlight The most entries to hold in memory at once, read but not yet written.
+     */
+    public JarTransformer(ClassTransformer transformer, ForkJoinPool pool, int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight < 1");
+        this.transformer = transformer;
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Create a transformer on the common pool, holding a few entries per worker in memory.
+     *
+     * @param transformer The transformer to apply to each class.
+     */
+    public JarTransformer(ClassTransformer transformer) {
+        this(transformer, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism() * 4);
+    }
+
+    public void transform(Path in, Path out) throws IOException {
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(in));
+             OutputStream os = new BufferedOutputStream(Files.newOutputStream(out))) {
+            transform(is, os);
+        }
+    }
+
+    /**
+     * Transform a jar.
+     *
+     * @param in  The input jar. Not closed.
+     * @param out The stream to write the output jar to. Finished, but not closed.
+     * @throws IOException if reading or writing fails, or a class fails to transform.
+     */
+    public void transform(InputStream in, OutputStream out) throws IOException {
+        ZipInputStream zin = new ZipInputStream(in);
+        ZipOutputStream zout = new ZipOutputStream(out);
+        Deque<Pending> pending = new ArrayDeque<>();
+        try {
+            for (ZipEntry entry; (entry = zin.getNextEntry()) != null; ) {
+                byte[] bytes = entry.isDirectory() ? null : zin.readAllBytes();
+                String internalName = classInternalName(entry);
+                ForkJoinTask<byte[]> task = internalName == null ?
+                        null :
+                        pool.submit(() -> transformer.transform(internalName, bytes));
+                pending.add(new Pending(entry, task == null ? bytes : null, task));
+                if (pending.size() >= maxInFlight) write(zout, pending.remove());
+            }
+            while (!pending.isEmpty()) write(zout, pending.remove());
+        } finally {
+            for (Pending p : pending) {
+                if (p.task != null) p.task.cancel(false);
+            }
+        }
+        zout.finish();
+    }
+
+    private static void write(ZipOutputStream zout, Pending p) throws IOException {
+        byte[] bytes = p.bytes;
+        if (p.task != null) {
+            try {
+                bytes = p.task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted transforming " + p.entry.getName());
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to transform " + p.entry.getName(), e.getCause());
+            }
+        }
+        ZipEntry out = new ZipEntry(p.entry.getName());
+        out.setTime(p.entry.getTime());
+        if (p.entry.getComment() != null) out.setComment(p.entry.getComment());
+        if (p.entry.getExtra() != null) out.setExtra(p.entry.getExtra());
+        if (p.entry.getMethod() == ZipEntry.STORED) {
+            // stored entries need their size and checksum up front, and a transformed class has new ones
+            CRC32 crc = new CRC32();
+            if (bytes != null) crc.update(bytes);
+            int size = bytes == null ? 0 : bytes.length;
+            out.setMethod(ZipEntry.STORED);
+            out.setSize(size);
+            out.setCompressedSize(size);
+            out.setCrc(crc.getValue());
+        }
+        zout.putNextEntry(out);
+        if (bytes != null) zout.write(bytes);
+        zout.closeEntry();
+    }
+
+    /**
+     * @return The internal name of the class an entry holds, or null if it isn't a class to transform.
+     */
+    private static String classInternalName(ZipEntry entry) {
+        String name = entry.getName();
+        if (entry.isDirectory() || !name.endsWith(".class")) return null;
+        String internalName = name.substring(0, name.length() - ".class".length());
+        if (internalName.startsWith("META-INF/versions/")) {
+            int slash = internalName.indexOf('/', "META-INF/versions/".length());
+            if (slash == -1) return null;
+            internalName = internalName.substring(slash + 1);
+        }
+        if (internalName.equals("module-info") || internalName.endsWith("/package-info")) return null;
+        return internalName;
+    }
+
+    private static class Pending {
+        final ZipEntry entry;
+        final byte[] bytes;
+        final ForkJoinTask<byte[]> task;
+
+        Pending(ZipEntry entry, byte[] bytes, ForkJoinTask<byte[]> task) {
+            this.entry = entry;
+            this.bytes = bytes;
+            this.task = task;
+        }
+    }
+}
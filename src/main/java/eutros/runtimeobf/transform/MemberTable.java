@@ -0,0 +1,91 @@
+package eutros.runtimeobf.transform;
+
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An open-addressing table of fields or methods, keyed by owner, name and descriptor,
+ * probed without allocating a key.
+ * <p>
+ * Immutable once built, and so safe to share between threads.
+ */
+final class MemberTable {
+    private final String[] owners;
+    private final String[] names;
+    private final String[] descs;
+    private final int[] hashes;
+    private final String[][] expansions;
+    private final boolean[] erased;
+    private final int mask;
+    private final Set<String> memberNames = new HashSet<>();
+
+    /**
+     * @param entries The expansions of each member, or null for members that are only erased.
+     * @param erasedMembers Which members are erased.
+     */
+    MemberTable(Map<OwnerNameAndDesc, String[]> entries, Set<OwnerNameAndDesc> erasedMembers) {
+        int capacity = ClassTable.tableSize(entries.size() + erasedMembers.size());
+        owners = new String[capacity];
+        names = new String[capacity];
+        descs = new String[capacity];
+        hashes = new int[capacity];
+        expansions = new String[capacity][];
+        erased = new boolean[capacity];
+        mask = capacity - 1;
+        for (Map.Entry<OwnerNameAndDesc, String[]> entry : entries.entrySet()) {
+            expansions[insert(entry.getKey())] = entry.getValue();
+        }
+        for (OwnerNameAndDesc member : erasedMembers) {
+            erased[insert(member)] = true;
+        }
+    }
+
+    private int insert(OwnerNameAndDesc member) {
+        int slot = find(member.owner, member.name, member.desc);
+        if (slot >= 0) return slot;
+        int hash = member.hashCode();
+        slot = ClassTable.spread(hash) & mask;
+        while (owners[slot] != null) slot = (slot + 1) & mask;
+        memberNames.add(member.name);
+        owners[slot] = member.owner;
+        names[slot] = member.name;
+        descs[slot] = member.desc;
+        hashes[slot] = hash;
+        return slot;
+    }
+
+    private int find(String owner, String name, String desc) {
+        int hash = OwnerNameAndDesc.hash(owner, name, desc);
+        for (int slot = ClassTable.spread(hash) & mask; owners[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash &&
+                    equal(owners[slot], owner) &&
+                    equal(names[slot], name) &&
+                    equal(descs[slot], desc)) return slot;
+        }
+        return -1;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == b || a.equals(b);
+    }
+
+    /**
+     * @return Whether any member in the table has the name, whatever its owner and descriptor.
+     */
+    boolean hasName(String name) {
+        return memberNames.contains(name);
+    }
+
+    String[] expand(String owner, String name, String desc) {
+        int slot = find(owner, name, desc);
+        return slot < 0 ? null : expansions[slot];
+    }
+
+    boolean isErased(String owner, String name, String desc) {
+        int slot = find(owner, name, desc);
+        return slot >= 0 && erased[slot];
+    }
+}
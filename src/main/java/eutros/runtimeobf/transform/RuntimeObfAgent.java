@@ -0,0 +1,92 @@
+package eutros.runtimeobf.transform;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+
+/**
+ * A {@link ClassFileTransformer} that applies the transformation as classes are loaded.
+ * <p>
+ * Each class is first checked with a {@link ConstantPoolFilter}, and classes that reference no matched names
+ * are left alone without being parsed any further.
+ * <p>
+ * To use it as a java agent, pass the name of a {@link Configuration} implementation with a public no-arg
+ * constructor as the agent argument: {@code -javaagent:runtimeobf.jar=com.example.MyConfiguration}.
+ */
+public class RuntimeObfAgent implements ClassFileTransformer {
+    private static final System.Logger LOGGER = System.getLogger(RuntimeObfAgent.class.getName());
+
+    private final ConstantPoolFilter filter;
+    private final ClassTransformer transformer;
+
+    /**
+     * @param filter      The filter for classes that may need transforming.
+     * @param transformer The transformer to apply to classes that pass the filter.
+     */
+    public RuntimeObfAgent(ConstantPoolFilter filter, ClassTransformer transformer) {
+        this.filter = filter;
+        this.transformer = transformer;
+    }
+
+    /**
+     * Supplies the agent with what to transform and how.
+     */
+    public interface Configuration {
+        ConstantPoolFilter filter();
+
+        ClassTransformer transformer();
+    }
+
+    /**
+     * @param agentArgs The binary name of a {@link Configuration} implementation with a public no-arg constructor.
+     * @throws IllegalArgumentException if no class name is given, or the class isn't a {@link Configuration}.
+     */
+    public static void premain(String agentArgs, Instrumentation inst) throws ReflectiveOperationException {
+        if (agentArgs == null || agentArgs.trim().isEmpty()) {
+            throw new IllegalArgumentException("No configuration given. " +
+                    "Usage: -javaagent:runtimeobf.jar=<name of a " + Configuration.class.getName() + " implementation>");
+        }
+        Class<?> clazz = Class.forName(agentArgs.trim(), true, ClassLoader.getSystemClassLoader());
+        if (!Configuration.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException(clazz.getName() + " does not implement " + Configuration.class.getName());
+        }
+        install(inst, (Configuration) clazz.getConstructor().newInstance());
+    }
+
+    public static void agentmain(String agentArgs, Instrumentation inst) throws ReflectiveOperationException {
+        premain(agentArgs, inst);
+    }
+
+    /**
+     * Register an agent for classes loaded from now on.
+     *
+     * @return The registered agent.
+     */
+    public static RuntimeObfAgent install(Instrumentation inst, Configuration configuration) {
+        RuntimeObfAgent agent = new RuntimeObfAgent(configuration.filter(), configuration.transformer());
+        inst.addTransformer(agent);
+        return agent;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader,
+                            String className,
+                            Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain,
+                            byte[] classfileBuffer) {
+        if (className == null ||
+                className.startsWith("eutros/runtimeobf/") ||
+                className.startsWith("org/objectweb/asm/")) {
+            return null;
+        }
+        try {
+            if (!filter.test(classfileBuffer)) return null;
+            byte[] transformed = transformer.transform(className, classfileBuffer);
+            return transformed == classfileBuffer ? null : transformed;
+        } catch (Throwable t) {
+            // the JVM discards exceptions from transformers silently
+            LOGGER.log(System.Logger.Level.ERROR, "Failed to transform " + className, t);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package eutros.runtimeobf.transform;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent, content-addressed cache of transformed class bytes, stored in a single pack file.
+ * <p>
+ * Entries are keyed by a digest of the input class bytes and a {@link Fingerprint fingerprint} of the
+ * transformation configuration. The pack file is append-only: each record is
+ * <pre>
+ * key (32 bytes) | length (int) | CRC32 of data (int) | data
+ * </pre>
+ * Records are appended under a file lock, so several processes can share a pack file. File locks belong to the
+ * whole process, so caches open on the same file in one process also take turns on a lock shared between them.
+ * A record is only visible to readers once it is complete and its checksum matches, and a torn record left at the
+ * end of the file by a crashed writer is truncated when the file is opened, or by the next append.
+ * <p>
+ * Reads go through a memory-mapped view of the valid prefix of the file, and are safe from many threads.
+ */
+public class TransformCache implements Closeable {
+    private static final long MAGIC = 0x524F_4246_5041_434BL; // ROBFPACK
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER = 12;
+    private static final int KEY_LENGTH = 32;
+    private static final int RECORD_HEADER = KEY_LENGTH + 8;
+    /**
+     * One per pack file that has been opened, by real path.
+     */
+    private static final ConcurrentMap<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+    private final ReentrantLock processLock;
+    private final ConcurrentMap<Key, Entry> index = new ConcurrentHashMap<>();
+    private volatile MappedByteBuffer map;
+    /**
+     * The end of the last valid record that has been indexed.
+     */
+    private volatile long end;
+    /**
+     * The size of the file when it was last scanned, so that a torn tail is only scanned again once the file grows.
+     */
+    private volatile long scannedSize;
+
+    private TransformCache(FileChannel channel, ReentrantLock processLock) {
+        this.channel = channel;
+        this.processLock = processLock;
+    }
+
+    /**
+     * Open a pack file, creating it if it doesn't exist.
+     *
+     * @param packFile The path of the pack file.
+     * @return The cache.
+     * @throws IOException if the file can't be opened, or isn't a pack file.
+     */
+    public static TransformCache open(Path packFile) throws IOException {
+        FileChannel channel = FileChannel.open(packFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        TransformCache cache;
+        try {
+            cache = new TransformCache(channel,
+                    PROCESS_LOCKS.computeIfAbsent(packFile.toRealPath(), $ -> new ReentrantLock()));
+            cache.init();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return cache;
+    }
+
+    private void init() throws IOException {
+        FileLock lock = lock();
+        try {
+            if (channel.size() < FILE_HEADER) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putLong(MAGIC).putInt(VERSION);
+                header.flip();
+                channel.truncate(0);
+                writeFully(header, 0);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+                readFully(header, 0);
+                header.flip();
+                if (header.getLong() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Not a transform cache pack file, or of a different version");
+                }
+            }
+            end = FILE_HEADER;
+            scan();
+            if (channel.size() > end) {
+                // torn record from a crashed writer, which would otherwise be scanned again on every miss
+                channel.truncate(end);
+                scannedSize = end;
+            }
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Compute the key of a class.
+     *
+     * @param fingerprint The fingerprint of the transformation configuration.
+     * @param classBytes  The untransformed class bytes.
+     * @return The key.
+     */
+    public static byte[] key(byte[] fingerprint, byte[] classBytes) {
+        MessageDigest digest = Fingerprint.newDigest();
+        digest.update(fingerprint);
+        digest.update(classBytes);
+        return digest.digest();
+    }
+
+    /**
+     * @param key A key from {@link #key(byte[], byte[])}.
+     * @return The cached bytes, or null if there are none.
+     * @throws IOException if reading the pack file fails.
+     */
+    public byte[] get(byte[] key) throws IOException {
+        Key k = new Key(key);
+        Entry entry = index.get(k);
+        if (entry == null && channel.size() > scannedSize) {
+            // another process may have appended
+            synchronized (this) {
+                scan();
+            }
+            entry = index.get(k);
+        }
+        if (entry == null) return null;
+
+        MappedByteBuffer m = map;
+        long entryEnd = entry.offset + entry.length;
+        if (m == null || entryEnd > m.capacity()) m = remap(entryEnd);
+        ByteBuffer view = m.duplicate();
+        view.position((int) entry.offset);
+        byte[] data = new byte[entry.length];
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Append an entry, unless one is already present for the key.
+     *
+     * @param key  A key from {@link #key(byte[], byte[])}.
+     * @param data The transformed bytes.
+     * @throws IOException if writing the pack file fails.
+     */
+    public synchronized void put(byte[] key, byte[] data) throws IOException {
+        Key k = new Key(key);
+        if (index.containsKey(k)) return;
+        FileLock lock = lock();
+        try {
+            scan();
+            if (index.containsKey(k)) return;
+            long pos = end;
+            if (channel.size() > pos) channel.truncate(pos); // torn record from a crashed writer
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + data.length)
+                    .put(key)
+                    .putInt(data.length)
+                    .putInt((int) crc.getValue())
+                    .put(data);
+            record.flip();
+            writeFully(record, pos);
+            index.put(k, new Entry(pos + RECORD_HEADER, data.length));
+            end = scannedSize = pos + RECORD_HEADER + data.length;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Wrap a transformer so that it is only called for classes that aren't in the cache.
+     *
+     * @param transformer The transformer to wrap.
+     * @param fingerprint The fingerprint of the transformer's configuration.
+     * @return The caching transformer.
+     */
+    public ClassTransformer cached(ClassTransformer transformer, byte[] fingerprint) {
+        return (internalName, classBytes) -> {
+            byte[] key = key(fingerprint, classBytes);
+            try {
+                byte[] cached = get(key);
+                if (cached != null) return cached;
+                byte[] transformed = transformer.transform(internalName, classBytes);
+                put(key, transformed);
+                return transformed;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * Index records from the end of the last valid record up to the first incomplete or corrupt one.
+     */
+    private void scan() throws IOException {
+        long pos = end;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (pos + RECORD_HEADER <= size) {
+            header.clear();
+            readFully(header, pos);
+            header.flip();
+            byte[] key = new byte[KEY_LENGTH];
+            header.get(key);
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || pos + RECORD_HEADER + length > size) break;
+            ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(data, pos + RECORD_HEADER);
+            CRC32 crc = new CRC32();
+            crc.update(data.array(), 0, length);
+            if ((int) crc.getValue() != checksum) break;
+            index.putIfAbsent(new Key(key), new Entry(pos + RECORD_HEADER, length));
+            pos += RECORD_HEADER + length;
+        }
+        end = pos;
+        scannedSize = size;
+    }
+
+    private FileLock lock() throws IOException {
+        processLock.lock();
+        try {
+            return channel.lock();
+        } catch (IOException | RuntimeException e) {
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    private void unlock(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    /**
+     * Map the file up to at least the end of an indexed record, which is known to be complete.
+     */
+    private synchronized MappedByteBuffer remap(long required) throws IOException {
+        MappedByteBuffer m = map;
+        if (m == null || m.capacity() < required) {
+            long size = Math.max(required, end);
+            if (size > Integer.MAX_VALUE) throw new IOException("Pack file too large to map");
+            map = m = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return m;
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, pos);
+            if (read < 0) throw new IOException("Unexpected end of pack file");
+            pos += read;
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static class Key {
+        private final byte[] bytes;
+        private final int hash;
+
+        Key(byte[] bytes) {
+            if (bytes.length != KEY_LENGTH) throw new IllegalArgumentException("Bad key length: " + bytes.length);
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        final long offset;
+        final int length;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
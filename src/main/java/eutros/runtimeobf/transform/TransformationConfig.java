@@ -0,0 +1,403 @@
+package eutros.runtimeobf.transform;
+
+import eutros.runtimeobf.Bootstrap;
+import eutros.runtimeobf.asm.ErasingClassVisitor;
+import eutros.runtimeobf.asm.MethodScanner;
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+import eutros.runtimeobf.asm.RemapTable;
+import eutros.runtimeobf.asm.RuntimeObfMethodVisitor;
+import eutros.runtimeobf.asm.SiteTableClassVisitor;
+import eutros.runtimeobf.mapping.HierarchyIndex;
+import eutros.runtimeobf.util.DescriptorHelper;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * A transformation configuration compiled from mapping data: which classes and members are remapped,
+ * what they expand to in each environment, and the handles that bootstrap methods get them from at runtime.
+ * <p>
+ * Lookups probe open-addressing tables of interned symbols with precomputed hashes, and never allocate.
+ * Expansions are returned without copying, and must not be modified.
+ * <p>
+ * With a {@link Builder#hierarchy(HierarchyIndex) hierarchy}, members referred to through a class that inherits
+ * them are looked up under the class that declares them, so that they only need mapping once. Lookups that miss
+ * on a name some member is mapped under then resolve the declaring class through the index.
+ * <p>
+ * Immutable, and so safe to share between any number of threads transforming at once.
+ */
+public final class TransformationConfig implements RemapTable {
+    /**
+     * The version of the code that transformation emits, part of every {@link #fingerprint() fingerprint}.
+     * Bump it whenever transformed classes change for the same input and configuration, such as the bootstrap
+     * method signatures, the encoding of site tables or the {@link eutros.runtimeobf.util.BootstrapHelper} argument indices, so that cached
+     * transformations are made again.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final Consumer<OwnerNameAndDesc> NOOP = $ -> {
+    };
+
+    private final Handle getClassRemapper;
+    private final Handle getNameRemapper;
+    private final Handle getEnv;
+    private final int envCount;
+    private final boolean siteTables;
+    private final boolean elideIdentical;
+    private final HierarchyIndex hierarchy;
+
+    private final ClassTable classes;
+    private final MemberTable fields;
+    private final MemberTable methods;
+    private final byte[] fingerprint;
+
+    private TransformationConfig(Builder builder) {
+        getClassRemapper = builder.getClassRemapper;
+        getNameRemapper = builder.getNameRemapper;
+        getEnv = builder.getEnv;
+        envCount = builder.envCount;
+        siteTables = builder.siteTables;
+        elideIdentical = builder.elideIdentical;
+        hierarchy = builder.hierarchy;
+        classes = new ClassTable(builder.classes);
+        fields = new MemberTable(builder.fields, builder.erasedFields);
+        methods = new MemberTable(builder.methods, builder.erasedMethods);
+        fingerprint = builder.fingerprint();
+    }
+
+    /**
+     * @param getClassRemapper The handle to use as the getClassRemapper argument in {@link Bootstrap} methods.
+     * @param getNameRemapper  The handle to use as the getNameRemapper argument in {@link Bootstrap} methods.
+     * @param getEnv           The handle to use as the getEnv argument in {@link Bootstrap} methods.
+     * @param envCount         The number of environments every expansion has.
+     * @return A builder for a configuration.
+     */
+    public static Builder builder(Handle getClassRemapper, Handle getNameRemapper, Handle getEnv, int envCount) {
+        return new Builder(getClassRemapper, getNameRemapper, getEnv, envCount);
+    }
+
+    public int getEnvCount() {
+        return envCount;
+    }
+
+    @Override
+    public String[] expandClass(String internalName) {
+        return classes.get(internalName);
+    }
+
+    @Override
+    public String[] expandClass(String descriptor, int start, int end) {
+        return classes.get(descriptor, start, end);
+    }
+
+    @Override
+    public boolean isMappedClass(String descriptor, int start, int end) {
+        return classes.get(descriptor, start, end) != null;
+    }
+
+    @Override
+    public String[] expandField(String owner, String name, String desc) {
+        String[] expansion = fields.expand(owner, name, desc);
+        if (expansion != null || !fields.hasName(name)) return expansion;
+        String declaring = declaringOwner(owner, name, desc);
+        return declaring == owner ? null : fields.expand(declaring, name, desc);
+    }
+
+    @Override
+    public String[] expandMethod(String owner, String name, String desc) {
+        String[] expansion = methods.expand(owner, name, desc);
+        if (expansion != null || !methods.hasName(name)) return expansion;
+        String declaring = declaringOwner(owner, name, desc);
+        return declaring == owner ? null : methods.expand(declaring, name, desc);
+    }
+
+    @Override
+    public boolean isErasedField(String owner, String name, String desc) {
+        if (fields.isErased(owner, name, desc)) return true;
+        if (!fields.hasName(name)) return false;
+        String declaring = declaringOwner(owner, name, desc);
+        return declaring != owner && fields.isErased(declaring, name, desc);
+    }
+
+    @Override
+    public boolean isErasedMethod(String owner, String name, String desc) {
+        if (methods.isErased(owner, name, desc)) return true;
+        if (!methods.hasName(name)) return false;
+        String declaring = declaringOwner(owner, name, desc);
+        return declaring != owner && methods.isErased(declaring, name, desc);
+    }
+
+    /**
+     * @return The class that declares a member, or {@code owner} itself if there is no hierarchy or it declares
+     * the member.
+     */
+    private String declaringOwner(String owner, String name, String desc) {
+        if (hierarchy == null) return owner;
+        String declaring = hierarchy.declaringOwner(owner, name, desc);
+        return declaring.equals(owner) ? owner : declaring;
+    }
+
+    /**
+     * @return A digest of the whole configuration and the {@link #FORMAT_VERSION}, for keying a
+     * {@link TransformCache}. With a hierarchy that can't be
+     * {@linkplain eutros.runtimeobf.mapping.ClassHierarchy#fingerprint() digested}, every configuration built has
+     * a fingerprint of its own.
+     */
+    public byte[] fingerprint() {
+        return fingerprint.clone();
+    }
+
+    /**
+     * @return A filter that passes classes referencing anything in this configuration.
+     */
+    public ConstantPoolFilter filter() {
+        return new ConstantPoolFilter((DescriptorHelper.InternalNamePredicate) this::isMappedClass,
+                member -> expandField(member.owner, member.name, member.desc) != null,
+                member -> expandMethod(member.owner, member.name, member.desc) != null);
+    }
+
+    /**
+     * @param methodVisitor The method visitor to delegate to.
+     * @return A visitor that rewrites code according to this configuration.
+     */
+    public RuntimeObfMethodVisitor methodVisitor(MethodVisitor methodVisitor) {
+        return new RuntimeObfMethodVisitor(methodVisitor, getClassRemapper, getNameRemapper, getEnv, this)
+                .setElideIdentical(elideIdentical);
+    }
+
+    /**
+     * @return A transformer that erases declarations and rewrites code according to this configuration.
+     * Methods that don't refer to any remapped or erased class or member, as found by {@link MethodScanner},
+     * are copied from the original class file without being visited.
+     */
+    public ClassTransformer classTransformer() {
+        return classTransformer((RemapTable) this);
+    }
+
+    /**
+     * @param erased The members erased across all the classes to transform, scanned with this configuration.
+     * @return A transformer like {@link #classTransformer()}, that also erases accesses to the members in the index.
+     */
+    public ClassTransformer classTransformer(ErasedMemberIndex erased) {
+        return classTransformer(erased.over(this, hierarchy));
+    }
+
+    private ClassTransformer classTransformer(RemapTable table) {
+        return (internalName, classBytes) -> {
+            ClassReader reader = new ClassReader(classBytes);
+            Set<String> changed = MethodScanner.changedMethods(reader, table);
+            if (changed.isEmpty() && !erasesAnything(reader, table)) return classBytes;
+            ClassWriter writer = new ClassWriter(reader, 0);
+            ClassVisitor chain = siteTables ? new SiteTableClassVisitor(writer) : writer;
+            reader.accept(new ErasingClassVisitor(chain, table, NOOP, NOOP) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    if (!changed.contains(MethodScanner.key(name, descriptor))) {
+                        // handing the reader the writer's own method visitor lets it copy the code attribute as is
+                        return writer.visitMethod(access, name, descriptor, signature, exceptions);
+                    }
+                    MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+                    return new RuntimeObfMethodVisitor(mv, getClassRemapper, getNameRemapper, getEnv, table)
+                            .setElideIdentical(elideIdentical);
+                }
+            }, 0);
+            return writer.toByteArray();
+        };
+    }
+
+    /**
+     * @return Whether erasing a class whose methods are all unchanged would still change it, or fail to.
+     */
+    private static boolean erasesAnything(ClassReader reader, RemapTable table) {
+        String superName = reader.getSuperName();
+        if (superName != null && table.isMappedClass(superName)) return true;
+        for (String interfaceName : reader.getInterfaces()) {
+            if (table.isMappedClass(interfaceName)) return true;
+        }
+        boolean[] erased = { false };
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                if (table.anyMappedClass(descriptor)) erased[0] = true;
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return erased[0];
+    }
+
+    /**
+     * Collects mappings for a {@link TransformationConfig}. Not thread-safe.
+     * <p>
+     * Mapping the same class or member again replaces the earlier mapping.
+     */
+    public static final class Builder {
+        private final Handle getClassRemapper;
+        private final Handle getNameRemapper;
+        private final Handle getEnv;
+        private final int envCount;
+        private boolean siteTables = false;
+        private boolean elideIdentical = false;
+        private HierarchyIndex hierarchy = null;
+
+        private final Map<String, String> symbols = new HashMap<>();
+        private final Map<String, String[]> classes = new LinkedHashMap<>();
+        private final Map<OwnerNameAndDesc, String[]> fields = new LinkedHashMap<>();
+        private final Map<OwnerNameAndDesc, String[]> methods = new LinkedHashMap<>();
+        private final Set<OwnerNameAndDesc> erasedFields = new LinkedHashSet<>();
+        private final Set<OwnerNameAndDesc> erasedMethods = new LinkedHashSet<>();
+
+        private Builder(Handle getClassRemapper, Handle getNameRemapper, Handle getEnv, int envCount) {
+            if (envCount < 1) throw new IllegalArgumentException("envCount: " + envCount);
+            this.getClassRemapper = getClassRemapper;
+            this.getNameRemapper = getNameRemapper;
+            this.getEnv = getEnv;
+            this.envCount = envCount;
+        }
+
+        /**
+         * @param internalName The internal name of a class to remap and erase.
+         * @param names        The internal names the class has in each environment.
+         */
+        public Builder mapClass(String internalName, String... names) {
+            classes.put(intern(internalName), expansion(names));
+            return this;
+        }
+
+        /**
+         * @param names The names the field has in each environment.
+         */
+        public Builder mapField(String owner, String name, String desc, String... names) {
+            fields.put(member(owner, name, desc), expansion(names));
+            return this;
+        }
+
+        /**
+         * @param names The names the method has in each environment.
+         */
+        public Builder mapMethod(String owner, String name, String desc, String... names) {
+            methods.put(member(owner, name, desc), expansion(names));
+            return this;
+        }
+
+        /**
+         * Mark a field whose declaration is erased, so that accesses to it should involve erasing types and nothing else.
+         */
+        public Builder eraseField(String owner, String name, String desc) {
+            erasedFields.add(member(owner, name, desc));
+            return this;
+        }
+
+        /**
+         * Mark a method whose declaration is erased, so that invocations of it should involve erasing types and nothing else.
+         */
+        public Builder eraseMethod(String owner, String name, String desc) {
+            erasedMethods.add(member(owner, name, desc));
+            return this;
+        }
+
+        /**
+         * @param siteTables Whether the class transformer should move call site arguments into a
+         *                   {@link SiteTableClassVisitor site table} per class.
+         */
+        public Builder siteTables(boolean siteTables) {
+            this.siteTables = siteTables;
+            return this;
+        }
+
+        /**
+         * @param elideIdentical Whether instructions that expand the same in every environment should be left as
+         *                       plain instructions. Only safe if the remappers leave expanded names as they are.
+         * @see RuntimeObfMethodVisitor#setElideIdentical(boolean)
+         */
+        public Builder elideIdentical(boolean elideIdentical) {
+            this.elideIdentical = elideIdentical;
+            return this;
+        }
+
+        /**
+         * @param hierarchy The hierarchy of the classes being transformed and the classes they refer to, by the
+         *                  names they are referred to by, to look up inherited members with. The fingerprint
+         *                  includes the {@linkplain eutros.runtimeobf.mapping.ClassHierarchy#fingerprint() digest}
+         *                  of the hierarchy, or a random UUID if it has none. A
+         *                  {@link eutros.runtimeobf.mapping.LoadedClassHierarchy} has none, so every configuration
+         *                  built with one has a new fingerprint, and neither a {@link TransformCache} nor the Gradle
+         *                  plugin's fingerprint check can ever match it.
+         */
+        public Builder hierarchy(HierarchyIndex hierarchy) {
+            this.hierarchy = hierarchy;
+            return this;
+        }
+
+        public TransformationConfig build() {
+            return new TransformationConfig(this);
+        }
+
+        private String intern(String symbol) {
+            String existing = symbols.putIfAbsent(symbol, symbol);
+            return existing == null ? symbol : existing;
+        }
+
+        private OwnerNameAndDesc member(String owner, String name, String desc) {
+            return new OwnerNameAndDesc(intern(owner), intern(name), intern(desc));
+        }
+
+        private String[] expansion(String[] names) {
+            if (names.length != envCount) {
+                throw new IllegalArgumentException(String.format("Expected %d names, got %d", envCount, names.length));
+            }
+            String[] ret = new String[names.length];
+            for (int i = 0; i < ret.length; i++) ret[i] = intern(names[i]);
+            return ret;
+        }
+
+        private byte[] fingerprint() {
+            Fingerprint fingerprint = new Fingerprint()
+                    .add(FORMAT_VERSION)
+                    .add(getClassRemapper)
+                    .add(getNameRemapper)
+                    .add(getEnv)
+                    .add(envCount)
+                    .add(siteTables ? 1 : 0)
+                    .add(elideIdentical ? 1 : 0)
+                    .add(hierarchy != null ? 1 : 0);
+            if (hierarchy != null) {
+                // a hierarchy that can't be digested could be anything, so never match another configuration
+                byte[] digest = hierarchy.getHierarchy().fingerprint();
+                if (digest != null) {
+                    fingerprint.add(digest);
+                } else {
+                    fingerprint.add(UUID.randomUUID().toString());
+                }
+            }
+            fingerprint.add(classes.size());
+            classes.forEach((internalName, names) -> fingerprint.add(internalName).add(names));
+            addMembers(fingerprint, fields);
+            addMembers(fingerprint, methods);
+            addMembers(fingerprint, erasedFields);
+            addMembers(fingerprint, erasedMethods);
+            return fingerprint.build();
+        }
+
+        private static void addMembers(Fingerprint fingerprint, Map<OwnerNameAndDesc, String[]> members) {
+            fingerprint.add(members.size());
+            members.forEach((member, names) -> fingerprint.add(member.owner).add(member.name).add(member.desc).add(names));
+        }
+
+        private static void addMembers(Fingerprint fingerprint, Set<OwnerNameAndDesc> members) {
+            fingerprint.add(members.size());
+            for (OwnerNameAndDesc member : members) fingerprint.add(member.owner).add(member.name).add(member.desc);
+        }
+    }
+}
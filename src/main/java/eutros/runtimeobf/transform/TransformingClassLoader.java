@@ -0,0 +1,129 @@
+package eutros.runtimeobf.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.Objects;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * A class loader that transforms the classes it finds on its URLs as it defines them.
+ * <p>
+ * The loader is parallel capable: classes are loaded under a lock per class name rather than a lock on the loader,
+ * so classes of different names are read, transformed and defined on as many threads at once as ask for them.
+ * The filter and transformer are shared by all of those threads, and so must be thread-safe, as those of a
+ * {@link TransformationConfig} are.
+ * <p>
+ * Delegation is parent first, as for any {@link URLClassLoader}, so only classes the parent can't find are transformed.
+ * Packages of classes found in jars are defined from the jar's manifest, keeping their versions and sealing.
+ */
+public class TransformingClassLoader extends URLClassLoader {
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final ConstantPoolFilter filter;
+    private final ClassTransformer transformer;
+
+    /**
+     * @param urls        The URLs to find classes and resources on.
+     * @param parent      The parent class loader.
+     * @param filter      The filter for classes that may need transforming.
+     * @param transformer The transformer to apply to classes that pass the filter.
+     */
+    public TransformingClassLoader(URL[] urls, ClassLoader parent, ConstantPoolFilter filter, ClassTransformer transformer) {
+        super(urls, parent);
+        this.filter = Objects.requireNonNull(filter);
+        this.transformer = Objects.requireNonNull(transformer);
+    }
+
+    /**
+     * Create a loader that transforms classes according to a configuration.
+     */
+    public TransformingClassLoader(URL[] urls, ClassLoader parent, TransformationConfig config) {
+        this(urls, parent, config.filter(), config.classTransformer());
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String internalName = name.replace('.', '/');
+        URL resource = findResource(internalName + ".class");
+        if (resource == null) throw new ClassNotFoundException(name);
+
+        byte[] bytes;
+        Manifest manifest = null;
+        URL codeSourceUrl;
+        try {
+            URLConnection connection = resource.openConnection();
+            try (InputStream is = connection.getInputStream()) {
+                bytes = is.readAllBytes();
+            }
+            if (connection instanceof JarURLConnection) manifest = ((JarURLConnection) connection).getManifest();
+            codeSourceUrl = codeSourceUrl(resource, internalName);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+
+        try {
+            if (filter.test(bytes)) bytes = transformer.transform(internalName, bytes);
+        } catch (RuntimeException e) {
+            ClassFormatError error = new ClassFormatError("Failed to transform " + name);
+            error.initCause(e);
+            throw error;
+        }
+        definePackageFor(name, manifest, codeSourceUrl);
+        return defineClass(name, bytes, 0, bytes.length, new CodeSource(codeSourceUrl, (CodeSigner[]) null));
+    }
+
+    private void definePackageFor(String className, Manifest manifest, URL codeSourceUrl) {
+        int dot = className.lastIndexOf('.');
+        if (dot == -1) return;
+        String packageName = className.substring(0, dot);
+        Package pkg = getDefinedPackage(packageName);
+        if (pkg == null) {
+            try {
+                if (manifest != null) {
+                    definePackage(packageName, manifest, codeSourceUrl);
+                } else {
+                    definePackage(packageName, null, null, null, null, null, null, null);
+                }
+                return;
+            } catch (IllegalArgumentException e) {
+                // another thread defined it first
+                pkg = getDefinedPackage(packageName);
+            }
+        }
+        if (pkg.isSealed() ? !pkg.isSealed(codeSourceUrl) : manifest != null && isSealed(packageName, manifest)) {
+            throw new SecurityException("Sealing violation in package " + packageName);
+        }
+    }
+
+    /**
+     * @return Whether a manifest seals a package, by its own entry or else by its main attributes.
+     */
+    private static boolean isSealed(String packageName, Manifest manifest) {
+        Attributes attributes = manifest.getAttributes(packageName.replace('.', '/') + "/");
+        String sealed = attributes == null ? null : attributes.getValue(Attributes.Name.SEALED);
+        if (sealed == null) sealed = manifest.getMainAttributes().getValue(Attributes.Name.SEALED);
+        return "true".equalsIgnoreCase(sealed);
+    }
+
+    /**
+     * @return The URL of the jar or directory a class was found in.
+     */
+    private URL codeSourceUrl(URL resource, String internalName) throws IOException {
+        String spec = resource.toExternalForm();
+        String suffix = internalName + ".class";
+        if ("jar".equals(resource.getProtocol())) {
+            int separator = spec.indexOf("!/");
+            if (separator != -1) return new URL(spec.substring("jar:".length(), separator));
+        }
+        return spec.endsWith(suffix) ? new URL(spec.substring(0, spec.length() - suffix.length())) : resource;
+    }
+}
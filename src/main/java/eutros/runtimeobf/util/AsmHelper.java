@@ -4,6 +4,9 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -33,6 +36,48 @@ public class AsmHelper {
                 false);
     }
 
+    /**
+     * Resolve a handle constant the way the JVM would for a class.
+     *
+     * @param lookup A lookup in the class the handle appears in.
+     * @param handle The handle to resolve.
+     * @return The resolved method handle.
+     * @throws ReflectiveOperationException if the owner or member can't be found or accessed.
+     */
+    public static MethodHandle toMethodHandle(MethodHandles.Lookup lookup, Handle handle)
+            throws ReflectiveOperationException {
+        ClassLoader loader = lookup.lookupClass().getClassLoader();
+        Class<?> owner = Class.forName(Type.getObjectType(handle.getOwner()).getClassName(), false, loader);
+        String name = handle.getName();
+        String desc = handle.getDesc();
+        switch (handle.getTag()) {
+            case Opcodes.H_GETFIELD:
+                return lookup.findGetter(owner, name, fieldType(desc, loader));
+            case Opcodes.H_GETSTATIC:
+                return lookup.findStaticGetter(owner, name, fieldType(desc, loader));
+            case Opcodes.H_PUTFIELD:
+                return lookup.findSetter(owner, name, fieldType(desc, loader));
+            case Opcodes.H_PUTSTATIC:
+                return lookup.findStaticSetter(owner, name, fieldType(desc, loader));
+            case Opcodes.H_INVOKEVIRTUAL:
+            case Opcodes.H_INVOKEINTERFACE:
+                return lookup.findVirtual(owner, name, MethodType.fromMethodDescriptorString(desc, loader));
+            case Opcodes.H_INVOKESTATIC:
+                return lookup.findStatic(owner, name, MethodType.fromMethodDescriptorString(desc, loader));
+            case Opcodes.H_INVOKESPECIAL:
+                return lookup.findSpecial(owner, name, MethodType.fromMethodDescriptorString(desc, loader), lookup.lookupClass());
+            case Opcodes.H_NEWINVOKESPECIAL:
+                return lookup.findConstructor(owner, MethodType.fromMethodDescriptorString(desc, loader));
+
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private static Class<?> fieldType(String desc, ClassLoader loader) {
+        return MethodType.fromMethodDescriptorString("()" + desc, loader).returnType();
+    }
+
     private static int fieldModsToHandleType(int modifiers, boolean getter) {
         if (Modifier.isStatic(modifiers)) return getter ? Opcodes.H_GETSTATIC : Opcodes.H_PUTSTATIC;
         return getter ? Opcodes.H_GETFIELD : Opcodes.H_PUTFIELD;
@@ -31,6 +31,30 @@ public class BootstrapHelper {
                     MethodHandle.class,
                     MethodHandle.class,
                     String[].class);
+            tableMethodOrFieldBootstrap = Bootstrap.class.getMethod("tableMethodOrFieldBootstrap",
+                    MethodHandles.Lookup.class,
+                    String.class,
+                    MethodType.class,
+                    int.class,
+                    MethodHandle.class,
+                    MethodHandle.class,
+                    MethodHandle.class,
+                    String[][].class,
+                    int.class);
+            tableTypeBootstrap = Bootstrap.class.getMethod("tableTypeBootstrap",
+                    MethodHandles.Lookup.class,
+                    String.class,
+                    MethodType.class,
+                    int.class,
+                    MethodHandle.class,
+                    MethodHandle.class,
+                    String[][].class,
+                    int.class);
+            siteTable = Bootstrap.class.getMethod("siteTable",
+                    MethodHandles.Lookup.class,
+                    String.class,
+                    Class.class,
+                    Object[].class);
         } catch (NoSuchMethodException e) {
             throw new IllegalStateException(e);
         }
@@ -63,5 +87,21 @@ public class BootstrapHelper {
     public static final int OTB_OPCODE = 0;
     public static final int OTB_GET_CLASS_REMAPPER = 1;
     public static final int OTB_GET_ENV = 2;
+    /**
+     * @see Bootstrap#tableMethodOrFieldBootstrap(MethodHandles.Lookup, String, MethodType, int, MethodHandle, MethodHandle, MethodHandle, String[][], int)
+     */
+    public static final Method tableMethodOrFieldBootstrap;
+    public static final int TMOFB_TABLE = 4;
+    public static final int TMOFB_INDEX = 5;
+    /**
+     * @see Bootstrap#tableTypeBootstrap(MethodHandles.Lookup, String, MethodType, int, MethodHandle, MethodHandle, String[][], int)
+     */
+    public static final Method tableTypeBootstrap;
+    public static final int TTB_TABLE = 3;
+    public static final int TTB_INDEX = 4;
+    /**
+     * @see Bootstrap#siteTable(MethodHandles.Lookup, String, Class, Object...)
+     */
+    public static final Method siteTable;
 
 }
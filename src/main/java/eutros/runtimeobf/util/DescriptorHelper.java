@@ -1,16 +1,214 @@
 package eutros.runtimeobf.util;
 
 import java.util.Arrays;
-import java.util.Optional;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
+/**
+ * Scanning and rewriting of descriptors and internal names.
+ * <p>
+ * Descriptors are walked once, left to right, and the original string is returned whenever nothing changes.
+ */
 public class DescriptorHelper {
-    public static final Pattern DESCRIPTOR_NAME_PATTERN = Pattern.compile("L(.+?);");
+    public static final String OBJECT = "java/lang/Object";
+    public static final String OBJECT_DESCRIPTOR = "L" + OBJECT + ";";
 
+    /**
+     * Maps internal names that appear in a descriptor, addressed as a region of that descriptor
+     * so that no substring has to be made to look at them.
+     */
+    @FunctionalInterface
+    public interface InternalNameMapper {
+        /**
+         * @param descriptor The descriptor being scanned.
+         * @param start      The index of the first character of the internal name.
+         * @param end        The index of the {@code ;} terminating the internal name.
+         * @return The internal name to replace it with, or null to keep it.
+         */
+        String map(String descriptor, int start, int end);
+    }
+
+    /**
+     * Replace internal names in a descriptor.
+     *
+     * @param descriptor The descriptor to rewrite.
+     * @param mapper     The mapper to call for each internal name in the descriptor.
+     * @param buf        A buffer to reuse for building the result, or null to allocate one if needed.
+     * @return The rewritten descriptor, or {@code descriptor} itself if the mapper replaced nothing.
+     */
+    public static String remapDescriptor(String descriptor, InternalNameMapper mapper, StringBuilder buf) {
+        int copied = 0;
+        boolean changed = false;
+        for (int i = descriptor.indexOf('L'); i != -1; ) {
+            int end = descriptor.indexOf(';', i + 1);
+            String replacement = mapper.map(descriptor, i + 1, end);
+            if (replacement != null) {
+                if (!changed) {
+                    changed = true;
+                    if (buf == null) buf = new StringBuilder(descriptor.length() + 16);
+                    else buf.setLength(0);
+                }
+                buf.append(descriptor, copied, i + 1).append(replacement);
+                copied = end;
+            }
+            i = descriptor.indexOf('L', end + 1);
+        }
+        if (!changed) return descriptor;
+        return buf.append(descriptor, copied, descriptor.length()).toString();
+    }
+
+    /**
+     * @see #remapDescriptor(String, InternalNameMapper, StringBuilder)
+     */
+    public static String remapDescriptor(String descriptor, Function<String, String> mapper) {
+        return remapDescriptor(descriptor, mapping(mapper), null);
+    }
+
+    /**
+     * Adapt a function of internal names to an {@link InternalNameMapper}.
+     */
+    public static InternalNameMapper mapping(Function<String, String> mapper) {
+        return (descriptor, start, end) -> {
+            String internalName = descriptor.substring(start, end);
+            String mapped = mapper.apply(internalName);
+            return mapped.equals(internalName) ? null : mapped;
+        };
+    }
+
+    /**
+     * Tests internal names that appear in a descriptor, addressed as a region of that descriptor.
+     */
+    @FunctionalInterface
+    public interface InternalNamePredicate {
+        /**
+         * @param descriptor The descriptor being scanned.
+         * @param start      The index of the first character of the internal name.
+         * @param end        The index of the {@code ;} terminating the internal name.
+         */
+        boolean test(String descriptor, int start, int end);
+    }
+
+    /**
+     * Adapt a predicate of internal names to an {@link InternalNamePredicate}.
+     */
+    public static InternalNamePredicate matching(Predicate<String> internalNamePredicate) {
+        return (descriptor, start, end) -> internalNamePredicate.test(descriptor.substring(start, end));
+    }
+
+    /**
+     * @return Whether any internal name in the descriptor matches the predicate.
+     */
+    public static boolean anyInternalName(String descriptor, InternalNamePredicate internalNamePredicate) {
+        for (int i = descriptor.indexOf('L'); i != -1; ) {
+            int end = descriptor.indexOf(';', i + 1);
+            if (internalNamePredicate.test(descriptor, i + 1, end)) return true;
+            i = descriptor.indexOf('L', end + 1);
+        }
+        return false;
+    }
+
+    /**
+     * @see #anyInternalName(String, InternalNamePredicate)
+     */
+    public static boolean anyInternalName(String descriptor, Predicate<String> internalNamePredicate) {
+        return anyInternalName(descriptor, matching(internalNamePredicate));
+    }
+
+    /**
+     * Replace the internal names in a descriptor that match the predicate with {@link #OBJECT}.
+     *
+     * @param descriptor            The descriptor to erase.
+     * @param internalNamePredicate The predicate for internal names to erase.
+     * @param buf                   A buffer to reuse for building the result, or null to allocate one if needed.
+     * @return The erased descriptor, or {@code descriptor} itself if nothing was erased.
+     */
+    public static String eraseDescriptorTypes(String descriptor, InternalNamePredicate internalNamePredicate, StringBuilder buf) {
+        return remapDescriptor(descriptor,
+                (desc, start, end) -> internalNamePredicate.test(desc, start, end) ? OBJECT : null,
+                buf);
+    }
+
+    public static String eraseDescriptorTypes(String descriptor, Predicate<String> internalNamePredicate, StringBuilder buf) {
+        return eraseDescriptorTypes(descriptor, matching(internalNamePredicate), buf);
+    }
+
+    public static String eraseDescriptorTypes(String descriptor, Predicate<String> internalNamePredicate) {
+        return eraseDescriptorTypes(descriptor, internalNamePredicate, null);
+    }
+
+    /**
+     * Expands internal names that appear in a descriptor, addressed as a region of that descriptor.
+     */
+    @FunctionalInterface
+    public interface InternalNameExpander {
+        /**
+         * @param descriptor The descriptor being scanned.
+         * @param start      The index of the first character of the internal name.
+         * @param end        The index of the {@code ;} terminating the internal name.
+         * @return The internal names the class has in each environment, or null to keep it.
+         */
+        String[] expand(String descriptor, int start, int end);
+    }
+
+    /**
+     * Expand a descriptor into the descriptors it has in each environment.
+     *
+     * @param descriptor            The descriptor to expand.
+     * @param internalNamePredicate A predicate for internal names that should be expanded.
+     * @param expandInternalName    A function that yields the internal names a class has in each environment.
+     * @return The descriptors for each environment, or null if no internal name in the descriptor was expanded.
+     * @throws IllegalArgumentException if internal names in the descriptor expand to different numbers of environments.
+     */
+    public static String[] expandDescriptor(String descriptor,
+                                            Predicate<String> internalNamePredicate,
+                                            Function<String, String[]> expandInternalName) {
+        return expandDescriptor(descriptor, (desc, start, end) -> {
+            String internalName = desc.substring(start, end);
+            return internalNamePredicate.test(internalName) ? expandInternalName.apply(internalName) : null;
+        });
+    }
+
+    /**
+     * @see #expandDescriptor(String, Predicate, Function)
+     */
+    public static String[] expandDescriptor(String descriptor, InternalNameExpander expander) {
+        StringBuilder[] bufs = null;
+        int copied = 0;
+        for (int i = descriptor.indexOf('L'); i != -1; ) {
+            int end = descriptor.indexOf(';', i + 1);
+            String[] expanded = expander.expand(descriptor, i + 1, end);
+            if (expanded != null) {
+                if (bufs == null) {
+                    bufs = new StringBuilder[expanded.length];
+                    for (int env = 0; env < bufs.length; env++) {
+                        bufs[env] = new StringBuilder(descriptor.length() + 16);
+                    }
+                } else if (bufs.length != expanded.length) {
+                    throw new IllegalArgumentException(String.format("%s expands to %d environments, expected %d",
+                            descriptor.substring(i + 1, end), expanded.length, bufs.length));
+                }
+                for (int env = 0; env < bufs.length; env++) {
+                    bufs[env].append(descriptor, copied, i + 1).append(expanded[env]);
+                }
+                copied = end;
+            }
+            i = descriptor.indexOf('L', end + 1);
+        }
+        if (bufs == null) return null;
+        String[] ret = new String[bufs.length];
+        for (int env = 0; env < ret.length; env++) {
+            ret[env] = bufs[env].append(descriptor, copied, descriptor.length()).toString();
+        }
+        return ret;
+    }
+
+    /**
+     * @return The element type of an array of objects, or the internal name itself if it isn't one.
+     */
     public static String maskArray(String internalName) {
         int dimensions = arrayDimensions(internalName);
-        return dimensions == 0 ? internalName : internalName.substring(dimensions + 1, internalName.length() - 1);
+        if (dimensions == 0 || internalName.charAt(dimensions) != 'L') return internalName;
+        return internalName.substring(dimensions + 1, internalName.length() - 1);
     }
 
     public static String unmaskArray(String oldInternalName, String masked) {
@@ -19,12 +217,15 @@ public class DescriptorHelper {
     }
 
     public static String eraseType(String internalName) {
-        return internalName.replace(maskArray(internalName), "java/lang/Object");
+        int dimensions = arrayDimensions(internalName);
+        return dimensions == 0 ? OBJECT : repeatChar('[', dimensions) + OBJECT_DESCRIPTOR;
     }
 
-    public static String eraseDescriptorTypes(String descriptor, Predicate<String> internalNamePredicate) {
-        return RegexHelper.replaceAll(DESCRIPTOR_NAME_PATTERN.matcher(descriptor),
-                matcher -> internalNamePredicate.test(matcher.group(1)) ? "Ljava/lang/Object;" : "$0");
+    /**
+     * @return The type descriptor of the class with the given internal name.
+     */
+    public static String toDescriptor(String internalName) {
+        return internalName.charAt(0) == '[' ? internalName : "L" + internalName + ";";
     }
 
     public static int arrayDimensions(String internalName) {
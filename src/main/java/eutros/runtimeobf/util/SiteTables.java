@@ -0,0 +1,154 @@
+package eutros.runtimeobf.util;
+
+import eutros.runtimeobf.Bootstrap;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoding of the per-class site tables used by the table variants of the {@link Bootstrap} methods.
+ * <p>
+ * A table is the static arguments of a CONSTANT_Dynamic:
+ * <pre>
+ * envCount, entry...
+ * entry:     componentCount, component...
+ * component: overrideCount, base, (env, value)...
+ * </pre>
+ * where every count and env is an Integer and the rest are Strings. A component has the value {@code base}
+ * in every environment that it doesn't override, so components that are the same everywhere take two arguments
+ * however many environments there are.
+ * <p>
+ * Decoded, each entry is the same flattened array the non-table bootstrap methods take as their trailing arguments.
+ */
+public class SiteTables {
+    private static final Handle TABLE_METHOD_OR_FIELD_BOOTSTRAP = AsmHelper.unreflect(BootstrapHelper.tableMethodOrFieldBootstrap);
+    private static final Handle TABLE_TYPE_BOOTSTRAP = AsmHelper.unreflect(BootstrapHelper.tableTypeBootstrap);
+    private static final Handle OBF_METHOD_OR_FIELD_BOOTSTRAP = AsmHelper.unreflect(BootstrapHelper.obfMethodOrFieldBootstrap);
+    private static final Handle OBF_TYPE_BOOTSTRAP = AsmHelper.unreflect(BootstrapHelper.obfTypeBootstrap);
+
+    /**
+     * The most static arguments a single bootstrap method specifier can have.
+     */
+    public static final int MAX_ARGS = 0xFFFF;
+
+    /**
+     * Encode an entry.
+     *
+     * @param values     The components, each {@code envCount} long, flattened into one array.
+     * @param components The number of components.
+     * @param out        The list to add the encoded arguments to.
+     */
+    public static void encodeEntry(String[] values, int components, List<Object> out) {
+        int envCount = values.length / components;
+        out.add(components);
+        for (int component = 0; component < components; component++) {
+            int from = component * envCount;
+            String base = mostCommon(values, from, envCount);
+            int countIndex = out.size();
+            out.add(0);
+            out.add(base);
+            int overrides = 0;
+            for (int env = 0; env < envCount; env++) {
+                String value = values[from + env];
+                if (!value.equals(base)) {
+                    out.add(env);
+                    out.add(value);
+                    overrides++;
+                }
+            }
+            out.set(countIndex, overrides);
+        }
+    }
+
+    private static String mostCommon(String[] values, int from, int count) {
+        String best = values[from];
+        int bestCount = 0;
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = from; i < from + count; i++) {
+            int c = counts.merge(values[i], 1, Integer::sum);
+            if (c > bestCount) {
+                best = values[i];
+                bestCount = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param data The static arguments of a table.
+     * @return The entries of the table.
+     */
+    public static String[][] decode(Object[] data) {
+        int envCount = (Integer) data[0];
+        List<String[]> entries = new ArrayList<>();
+        int pos = 1;
+        while (pos < data.length) {
+            int components = (Integer) data[pos++];
+            String[] entry = new String[components * envCount];
+            for (int component = 0; component < components; component++) {
+                int overrides = (Integer) data[pos++];
+                String base = (String) data[pos++];
+                int from = component * envCount;
+                for (int env = 0; env < envCount; env++) entry[from + env] = base;
+                for (int i = 0; i < overrides; i++) {
+                    int env = (Integer) data[pos++];
+                    entry[from + env] = (String) data[pos++];
+                }
+            }
+            entries.add(entry);
+        }
+        return entries.toArray(new String[0][]);
+    }
+
+    public static String[][] decode(ConstantDynamic table) {
+        Object[] data = new Object[table.getBootstrapMethodArgumentCount()];
+        for (int i = 0; i < data.length; i++) data[i] = table.getBootstrapMethodArgument(i);
+        return decode(data);
+    }
+
+    /**
+     * @return The non-table bootstrap method equivalent to a table bootstrap method, or null if it isn't one.
+     */
+    public static Handle expandedBootstrap(Handle bsm) {
+        if (TABLE_METHOD_OR_FIELD_BOOTSTRAP.equals(bsm)) return OBF_METHOD_OR_FIELD_BOOTSTRAP;
+        if (TABLE_TYPE_BOOTSTRAP.equals(bsm)) return OBF_TYPE_BOOTSTRAP;
+        return null;
+    }
+
+    /**
+     * Rewrite the static arguments of an INVOKEDYNAMIC that refers to a site table into those of the equivalent
+     * non-table bootstrap method.
+     *
+     * @param bsm     The bootstrap method of the INVOKEDYNAMIC.
+     * @param bsmArgs The static arguments of the INVOKEDYNAMIC.
+     * @param decoded Tables already decoded, to reuse and add to. Should be an {@link java.util.IdentityHashMap},
+     *                since {@link org.objectweb.asm.ClassReader} reads each CONSTANT_Dynamic once per class.
+     * @return The arguments for the non-table bootstrap method, or null if the bootstrap method doesn't use a table.
+     */
+    public static Object[] expandArgs(Handle bsm, Object[] bsmArgs, Map<ConstantDynamic, String[][]> decoded) {
+        int fixed;
+        int table;
+        int index;
+        if (TABLE_METHOD_OR_FIELD_BOOTSTRAP.equals(bsm)) {
+            fixed = BootstrapHelper.OMOFB_FIXED_ARGS;
+            table = BootstrapHelper.TMOFB_TABLE;
+            index = BootstrapHelper.TMOFB_INDEX;
+        } else if (TABLE_TYPE_BOOTSTRAP.equals(bsm)) {
+            fixed = BootstrapHelper.OTB_FIXED_ARGS;
+            table = BootstrapHelper.TTB_TABLE;
+            index = BootstrapHelper.TTB_INDEX;
+        } else {
+            return null;
+        }
+        String[] entry = decoded.computeIfAbsent((ConstantDynamic) bsmArgs[table], SiteTables::decode)
+                [(Integer) bsmArgs[index]];
+        Object[] args = new Object[fixed + entry.length];
+        System.arraycopy(bsmArgs, 0, args, 0, fixed);
+        System.arraycopy(entry, 0, args, fixed, entry.length);
+        return args;
+    }
+}
@@ -0,0 +1,77 @@
+package eutros.runtimeobf.tests;
+
+import eutros.runtimeobf.util.DescriptorHelper;
+import eutros.runtimeobf.util.SiteTables;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+public class DescriptorTests {
+
+    private static final Predicate<String> IS_LIST = "java/util/List"::equals;
+
+    @Test
+    public void testUnchangedIsSame() {
+        String desc = "(ILjava/lang/String;[Ljava/util/Map;)V";
+        assert DescriptorHelper.eraseDescriptorTypes(desc, IS_LIST) == desc;
+        assert DescriptorHelper.remapDescriptor(desc, name -> name) == desc;
+        assert DescriptorHelper.expandDescriptor(desc, IS_LIST, name -> new String[] { name }) == null;
+    }
+
+    @Test
+    public void testErase() {
+        StringBuilder buf = new StringBuilder("garbage");
+        assert "(Ljava/lang/Object;I[[Ljava/lang/Object;)Ljava/lang/Object;".equals(DescriptorHelper.eraseDescriptorTypes(
+                "(Ljava/util/List;I[[Ljava/util/List;)Ljava/util/List;", IS_LIST, buf));
+        assert "(JLjava/lang/String;)Ljava/lang/Object;".equals(DescriptorHelper.eraseDescriptorTypes(
+                "(JLjava/lang/String;)Ljava/util/List;", IS_LIST, buf));
+    }
+
+    @Test
+    public void testExpand() {
+        String[] expanded = DescriptorHelper.expandDescriptor("(Ljava/util/List;Ljava/lang/String;)Ljava/util/List;",
+                IS_LIST, name -> new String[] { "a/A", "b/B" });
+        assert Arrays.equals(expanded, new String[] {
+                "(La/A;Ljava/lang/String;)La/A;",
+                "(Lb/B;Ljava/lang/String;)Lb/B;"
+        });
+    }
+
+    @Test
+    public void testArrays() {
+        assert "java/util/List".equals(DescriptorHelper.maskArray("[[Ljava/util/List;"));
+        assert "java/util/List".equals(DescriptorHelper.maskArray("java/util/List"));
+        assert "[I".equals(DescriptorHelper.maskArray("[I"));
+        assert "[[La/A;".equals(DescriptorHelper.unmaskArray("[[Ljava/util/List;", "a/A"));
+        assert "java/lang/Object".equals(DescriptorHelper.eraseType("java/util/List"));
+        assert "[Ljava/lang/Object;".equals(DescriptorHelper.eraseType("[Ljava/util/List;"));
+    }
+
+    @Test
+    public void testSiteTableEncoding() {
+        String[] member = new String[36];
+        Arrays.fill(member, 0, 12, "a/Owner");
+        Arrays.fill(member, 12, 24, "name");
+        Arrays.fill(member, 24, 36, "()V");
+        member[5] = "b/Owner";
+        String[] type = { "x", "y" };
+
+        List<Object> data = new ArrayList<>();
+        data.add(12);
+        SiteTables.encodeEntry(member, 3, data);
+        // one override for the owners, none for the names and descriptors
+        assert data.size() == 1 + 1 + 4 + 2 + 2;
+        List<Object> typeData = new ArrayList<>();
+        typeData.add(2);
+        SiteTables.encodeEntry(type, 1, typeData);
+
+        String[][] decoded = SiteTables.decode(data.toArray());
+        assert decoded.length == 1;
+        assert Arrays.equals(decoded[0], member);
+        assert Arrays.equals(SiteTables.decode(typeData.toArray())[0], type);
+    }
+
+}
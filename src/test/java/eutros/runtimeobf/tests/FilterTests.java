@@ -0,0 +1,65 @@
+package eutros.runtimeobf.tests;
+
+import eutros.runtimeobf.asm.OwnerNameAndDesc;
+import eutros.runtimeobf.transform.ConstantPoolFilter;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Predicate;
+
+public class FilterTests {
+
+    private static final Predicate<OwnerNameAndDesc> NONE = $ -> false;
+
+    @Test
+    public void testClassNames() {
+        byte[] bytes = TestHelper.getClassBytes(TransformationTests.TransformationListImplTest.class);
+        assert new ConstantPoolFilter("java/util/ArrayList"::equals, NONE, NONE).test(bytes);
+        assert !new ConstantPoolFilter("java/util/LinkedList"::equals, NONE, NONE).test(bytes);
+    }
+
+    @Test
+    public void testDescriptors() {
+        // only referenced from the descriptor of a declared field
+        byte[] bytes = TestHelper.getClassBytes(DescriptorOnlyTest.class);
+        assert new ConstantPoolFilter("java/util/concurrent/Callable"::equals, NONE, NONE).test(bytes);
+    }
+
+    @Test
+    public void testMembers() {
+        byte[] bytes = TestHelper.getClassBytes(ReplacementTests.MembersTest.class);
+        assert new ConstantPoolFilter($ -> false, NONE, ownerNameAndDesc ->
+                ownerNameAndDesc.owner.equals("java/lang/String") && ownerNameAndDesc.name.equals("length")).test(bytes);
+        assert !new ConstantPoolFilter($ -> false, NONE, ownerNameAndDesc ->
+                ownerNameAndDesc.name.equals("hashCode")).test(bytes);
+    }
+
+    @Test
+    public void testReuse() {
+        byte[] large = TestHelper.getClassBytes(TransformationTests.class);
+        byte[] small = TestHelper.getClassBytes(DescriptorOnlyTest.class);
+        ConstantPoolFilter filter = new ConstantPoolFilter("java/util/concurrent/Callable"::equals, NONE, NONE);
+        for (int i = 0; i < 2; i++) {
+            assert filter.test(large) == new ConstantPoolFilter("java/util/concurrent/Callable"::equals, NONE, NONE).test(large);
+            assert filter.test(small);
+        }
+
+        // a predicate that tests another class with the same filter, as loading a class from an agent would
+        ConstantPoolFilter[] reentrant = new ConstantPoolFilter[1];
+        boolean[] nested = { false };
+        reentrant[0] = new ConstantPoolFilter(name -> {
+            if (!name.equals("java/util/concurrent/Callable")) return false;
+            if (nested[0]) return true;
+            nested[0] = true;
+            return reentrant[0].test(small);
+        }, NONE, NONE);
+        assert reentrant[0].test(small);
+    }
+
+    @SuppressWarnings("unused")
+    public static class DescriptorOnlyTest {
+        private java.util.concurrent.Callable<?> field;
+        private long wide = 1L << 40;
+        private double alsoWide = 0.5;
+    }
+
+}
@@ -0,0 +1,106 @@
+package eutros.runtimeobf.tests;
+
+import eutros.runtimeobf.transform.ClassTransformer;
+import eutros.runtimeobf.transform.JarTransformer;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class JarTransformerTests {
+
+    @Test
+    public void testOrderAndResources() throws IOException {
+        List<String> names = new ArrayList<>();
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(jar)) {
+            for (int i = 0; i < 32; i++) {
+                Class<?> clazz = i % 2 == 0 ? TransformationTests.class : ErasureTests.class;
+                String name = "c" + i + "/" + clazz.getSimpleName() + ".class";
+                names.add(name);
+                zos.putNextEntry(new ZipEntry(name));
+                ClassWriter cw = new ClassWriter(0);
+                TestHelper.getClassReader(clazz).accept(cw, 0);
+                zos.write(cw.toByteArray());
+                names.add("r" + i + ".txt");
+                byte[] resource = ("resource " + i).getBytes(StandardCharsets.UTF_8);
+                zos.putNextEntry(i % 4 < 2 ? new ZipEntry("r" + i + ".txt") : stored("r" + i + ".txt", resource));
+                zos.write(resource);
+            }
+            // stored classes have to be written with the size and checksum of the transformed class
+            names.add("stored/" + ErasureTests.class.getSimpleName() + ".class");
+            ClassWriter cw = new ClassWriter(0);
+            TestHelper.getClassReader(ErasureTests.class).accept(cw, 0);
+            byte[] bytes = cw.toByteArray();
+            zos.putNextEntry(stored(names.get(names.size() - 1), bytes));
+            zos.write(bytes);
+        }
+
+        // drop method bodies, so transformed classes are easy to tell apart
+        ClassTransformer transformer = ClassTransformer.of(cv -> new ClassVisitor(Opcodes.ASM9, cv) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return null;
+            }
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new JarTransformer(transformer, pool, 3).transform(new ByteArrayInputStream(jar.toByteArray()), out);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<String> outNames = new ArrayList<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            for (ZipEntry entry; (entry = zis.getNextEntry()) != null; ) {
+                outNames.add(entry.getName());
+                byte[] bytes = zis.readAllBytes();
+                if (entry.getName().endsWith(".txt")) {
+                    String i = entry.getName().substring(1, entry.getName().length() - ".txt".length());
+                    assert Arrays.equals(bytes, ("resource " + i).getBytes(StandardCharsets.UTF_8));
+                    assert entry.getMethod() == (Integer.parseInt(i) % 4 < 2 ? ZipEntry.DEFLATED : ZipEntry.STORED);
+                } else {
+                    assert entry.getMethod() == (entry.getName().startsWith("stored/") ? ZipEntry.STORED : ZipEntry.DEFLATED);
+                    int[] methods = { 0 };
+                    new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+                        @Override
+                        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                            methods[0]++;
+                            return null;
+                        }
+                    }, 0);
+                    assert methods[0] == 0;
+                }
+            }
+        }
+        assert outNames.equals(names);
+    }
+
+    private static ZipEntry stored(String name, byte[] bytes) {
+        ZipEntry entry = new ZipEntry(name);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+
+}
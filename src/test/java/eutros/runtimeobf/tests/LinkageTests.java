@@ -0,0 +1,416 @@
+package eutros.runtimeobf.tests;
+
+import eutros.runtimeobf.Bootstrap;
+import eutros.runtimeobf.function.ClassNameRemapperFunction;
+import eutros.runtimeobf.function.NameRemapperFunction;
+import eutros.runtimeobf.linkage.CallSiteMode;
+import eutros.runtimeobf.linkage.CallSites;
+import eutros.runtimeobf.linkage.LinkageMetrics;
+import eutros.runtimeobf.linkage.MemberStubs;
+import eutros.runtimeobf.linkage.MissingTargetPolicy;
+import eutros.runtimeobf.linkage.MissingTargets;
+import eutros.runtimeobf.linkage.PrelinkReport;
+import eutros.runtimeobf.linkage.Prelinker;
+import eutros.runtimeobf.linkage.SymbolResolver;
+import eutros.runtimeobf.linkage.TypeStubs;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LinkageTests {
+
+    private static final MethodHandle ZERO = MethodHandles.constant(int.class, 0);
+
+    @Test
+    public void testSharedLinkage() throws Throwable {
+        AtomicInteger remaps = new AtomicInteger();
+        ClassNameRemapperFunction classRemapper = internalName -> {
+            remaps.incrementAndGet();
+            return internalName;
+        };
+        NameRemapperFunction nameRemapper = (owner, name, descriptor) -> name;
+        MethodHandle getClassRemapper = MethodHandles.constant(ClassNameRemapperFunction.class, classRemapper);
+        MethodHandle getNameRemapper = MethodHandles.constant(NameRemapperFunction.class, nameRemapper);
+
+        MethodType type = MethodType.methodType(String.class, Object.class);
+        CallSite first = Bootstrap.obfMethodOrFieldBootstrap(MethodHandles.lookup(), "toString", type,
+                Opcodes.INVOKEVIRTUAL, getClassRemapper, getNameRemapper, ZERO,
+                "java/lang/Object", "toString", "()Ljava/lang/String;");
+        int remapsAfterFirst = remaps.get();
+        CallSite second = Bootstrap.obfMethodOrFieldBootstrap(MethodHandles.lookup(), "toString", type,
+                Opcodes.INVOKEVIRTUAL, getClassRemapper, getNameRemapper, ZERO,
+                "java/lang/Object", "toString", "()Ljava/lang/String;");
+
+        assert remapsAfterFirst > 0;
+        assert remaps.get() == remapsAfterFirst;
+        assert "1".equals((String) first.getTarget().invokeExact((Object) 1));
+        assert "2".equals((String) second.getTarget().invokeExact((Object) 2));
+    }
+
+    @Test
+    public void testPrelink() throws Throwable {
+        try {
+            for (CallSiteMode mode : new CallSiteMode[] { CallSiteMode.CONSTANT, CallSiteMode.PER_INVOCATION }) {
+                CallSites.setMode(mode);
+                for (boolean siteTable : new boolean[] { false, true }) {
+                    byte[] bytes = TransformationTests.transformListImpl(siteTable);
+                    TransformationTests.ENV = 0;
+                    Class<?> clazz = TestHelper.tryLoad(TransformationTests.TransformationListImplTest.class.getName(), bytes);
+                    LinkageMetrics metrics = LinkageMetrics.get();
+                    metrics.reset();
+                    PrelinkReport report = Prelinker.prelink(MethodHandles.privateLookupIn(clazz, MethodHandles.lookup()), bytes);
+                    assert report.sites > 0;
+                    assert report.isSuccessful() : report.failures;
+                    long misses = metrics.getCacheMisses();
+                    long hits = metrics.getCacheHits();
+                    assert misses > 0 : mode;
+
+                    // the sites linked by the first real invocation only hit the cache filled by the pre-linker
+                    assert ((TransformationTests.ListSupplier) clazz.getConstructor().newInstance()).getList() instanceof ArrayList;
+                    assert metrics.getCacheMisses() == misses : mode;
+                    assert metrics.getCacheHits() > hits : mode;
+                }
+            }
+        } finally {
+            CallSites.setMode(CallSiteMode.CONSTANT);
+        }
+    }
+
+    @Test
+    public void testSymbolResolver() throws Throwable {
+        AtomicInteger remaps = new AtomicInteger();
+        ClassNameRemapperFunction classRemapper = internalName -> {
+            remaps.incrementAndGet();
+            return "java/util/" + internalName;
+        };
+        SymbolResolver symbols = SymbolResolver.of(LinkageTests.class.getClassLoader());
+        assert SymbolResolver.of(LinkageTests.class.getClassLoader()) == symbols;
+
+        MethodType type = symbols.resolveMethodType(classRemapper, "(LList;[LMap;I)LArrayList;");
+        assert type.equals(MethodType.methodType(java.util.ArrayList.class, java.util.List.class, java.util.Map[].class, int.class));
+        int remapsAfterFirst = remaps.get();
+        assert remapsAfterFirst == 3;
+        assert symbols.resolveMethodType(classRemapper, "(LList;[LMap;I)LArrayList;") == type;
+        assert symbols.resolveClass(classRemapper, "[[LList;") == java.util.List[][].class;
+        assert symbols.resolveClass(classRemapper, "List") == java.util.List.class;
+        assert remaps.get() == remapsAfterFirst;
+
+        symbols.clear();
+        assert symbols.resolveClass(classRemapper, "List") == java.util.List.class;
+        assert remaps.get() == remapsAfterFirst + 1;
+    }
+
+    @Test
+    public void testMissingTargets() throws Throwable {
+        ClassNameRemapperFunction classRemapper = internalName -> internalName;
+        NameRemapperFunction nameRemapper = (owner, name, descriptor) -> name;
+        MethodHandle getClassRemapper = MethodHandles.constant(ClassNameRemapperFunction.class, classRemapper);
+        MethodHandle getNameRemapper = MethodHandles.constant(NameRemapperFunction.class, nameRemapper);
+        MethodType type = MethodType.methodType(int.class, Object.class);
+
+        MissingTargets.setPolicy(MissingTargetPolicy.FAIL_ON_INVOKE);
+        MissingTargets.clearReport();
+        try {
+            for (int i = 0; i < 2; i++) {
+                MethodHandle target = Bootstrap.obfMethodOrFieldBootstrap(MethodHandles.lookup(), "absent", type,
+                        Opcodes.INVOKEVIRTUAL, getClassRemapper, getNameRemapper, ZERO,
+                        "java/lang/Object", "absent", "()I").getTarget();
+                try {
+                    int ignored = (int) target.invokeExact((Object) "");
+                    assert false;
+                } catch (NoSuchMethodError expected) {
+                    assert expected.getCause() instanceof NoSuchMethodException;
+                }
+            }
+            MethodHandle target = Bootstrap.obfTypeBootstrap(MethodHandles.lookup(), "constant", MethodType.methodType(Class.class),
+                    Opcodes.LDC, getClassRemapper, ZERO, "does/not/Exist").getTarget();
+            try {
+                Class<?> ignored = (Class<?>) target.invokeExact();
+                assert false;
+            } catch (NoClassDefFoundError expected) {
+            }
+
+            // members of a missing class fail as the class, with new errors each time
+            MethodHandle member = Bootstrap.obfMethodOrFieldBootstrap(MethodHandles.lookup(), "absent", type,
+                    Opcodes.INVOKEVIRTUAL, getClassRemapper, getNameRemapper, ZERO,
+                    "does/not/Exist", "absent", "()I").getTarget();
+            Throwable[] errors = new Throwable[2];
+            for (int i = 0; i < errors.length; i++) {
+                try {
+                    int ignored = (int) member.invokeExact((Object) "");
+                    assert false;
+                } catch (NoClassDefFoundError expected) {
+                    assert expected.getCause() instanceof ClassNotFoundException;
+                    errors[i] = expected;
+                }
+            }
+            assert errors[0] != errors[1];
+            assert errors[0].getCause() != errors[1].getCause();
+
+            assert MissingTargets.report().size() == 2 : MissingTargets.report();
+            assert MissingTargets.report().get(0).startsWith("does/not/Exist from ");
+            assert MissingTargets.report().get(1).startsWith("java/lang/Object.absent ()I from ");
+        } finally {
+            MissingTargets.setPolicy(MissingTargetPolicy.FAIL_ON_LINK);
+            MissingTargets.clearReport();
+        }
+    }
+
+    @Test
+    public void testTypeStubs() throws Throwable {
+        for (boolean stubs : new boolean[] { true, false }) {
+            // a fresh remapper each time, so that nothing is cached from the last
+            String prefix = "java/util/";
+            ClassNameRemapperFunction classRemapper = internalName -> prefix + internalName;
+            MethodHandle getClassRemapper = MethodHandles.constant(ClassNameRemapperFunction.class, classRemapper);
+            TypeStubs.setEnabled(stubs);
+            try {
+                MethodHandle checkCast = Bootstrap.obfTypeBootstrap(MethodHandles.lookup(), "checkCast",
+                        MethodType.methodType(Object.class, Object.class),
+                        Opcodes.CHECKCAST, getClassRemapper, ZERO, "ArrayList").getTarget();
+                ArrayList<Object> list = new ArrayList<>();
+                assert checkCast.invoke(list) == list;
+                try {
+                    checkCast.invoke("");
+                    assert false;
+                } catch (ClassCastException expected) {
+                }
+
+                MethodHandle isInstance = Bootstrap.obfTypeBootstrap(MethodHandles.lookup(), "isInstance",
+                        MethodType.methodType(boolean.class, Object.class),
+                        Opcodes.INSTANCEOF, getClassRemapper, ZERO, "ArrayList").getTarget();
+                assert (boolean) isInstance.invoke(list);
+                assert !(boolean) isInstance.invoke("");
+
+                MethodHandle newArray = Bootstrap.obfTypeBootstrap(MethodHandles.lookup(), "newArray",
+                        MethodType.methodType(Object[][].class, int.class),
+                        Opcodes.ANEWARRAY, getClassRemapper, ZERO, "[LArrayList;").getTarget();
+                assert newArray.invoke(3).getClass() == ArrayList[][].class;
+
+                // new ArrayList[2][3][]
+                MethodHandle multiNewArray = Bootstrap.obfTypeBootstrap(MethodHandles.lookup(), "multiNewArray",
+                        MethodType.methodType(Object[][][].class, int.class, int.class),
+                        Opcodes.MULTIANEWARRAY, getClassRemapper, ZERO, "ArrayList").getTarget();
+                Object[][][] array = (Object[][][]) multiNewArray.invoke(2, 3);
+                assert array.getClass() == ArrayList[][][].class;
+                assert array.length == 2 && array[1].length == 3 && array[1][2] == null;
+            } finally {
+                TypeStubs.setEnabled(true);
+            }
+        }
+    }
+
+    @Test
+    public void testTypeStubSharing() throws Throwable {
+        Assumptions.assumeTrue(Runtime.version().feature() >= 15, "Hidden classes need Java 15");
+        // callers in the same package share stubs
+        MethodType type = MethodType.methodType(boolean.class, Object.class);
+        MethodHandle first = TypeStubs.stub(MethodHandles.lookup(), Opcodes.INSTANCEOF, ArrayList.class, type);
+        MethodHandle second = TypeStubs.stub(MethodHandles.privateLookupIn(TestHelper.class, MethodHandles.lookup()),
+                Opcodes.INSTANCEOF, ArrayList.class, type);
+        assert first != null;
+        assert first == second;
+        assert (boolean) second.invokeExact((Object) new ArrayList<>());
+
+        // but not across classes whose instructions have the same descriptor
+        MethodHandle other = TypeStubs.stub(MethodHandles.lookup(), Opcodes.INSTANCEOF, LinkedList.class, type);
+        assert other != first;
+        assert !(boolean) other.invokeExact((Object) new ArrayList<>());
+        assert (boolean) other.invokeExact((Object) new LinkedList<>());
+    }
+
+    public static int stubField = 5;
+
+    private static int privateMethod() {
+        return 0;
+    }
+
+    @Test
+    public void testMemberStubs() throws Throwable {
+        Assumptions.assumeTrue(Runtime.version().feature() >= 15, "Hidden classes need Java 15");
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MemberStubs.setEnabled(true);
+        try {
+            MethodHandle size = MemberStubs.stub(lookup, Opcodes.INVOKEVIRTUAL, ArrayList.class, "size",
+                    MethodType.methodType(int.class), lookup.findVirtual(ArrayList.class, "size", MethodType.methodType(int.class)));
+            assert size != null;
+            assert (int) size.invokeExact(new ArrayList<>(java.util.Arrays.asList(1, 2))) == 2;
+
+            MethodHandle isEmpty = MemberStubs.stub(lookup, Opcodes.INVOKEINTERFACE, java.util.List.class, "isEmpty",
+                    MethodType.methodType(boolean.class), lookup.findVirtual(java.util.List.class, "isEmpty", MethodType.methodType(boolean.class)));
+            assert (boolean) isEmpty.invokeExact((java.util.List<?>) new ArrayList<>());
+
+            MethodHandle construct = MemberStubs.stub(lookup, Opcodes.INVOKESPECIAL, ArrayList.class, "<init>",
+                    MethodType.methodType(void.class, int.class), lookup.findConstructor(ArrayList.class, MethodType.methodType(void.class, int.class)));
+            assert ((ArrayList<?>) construct.invokeExact(4)).isEmpty();
+
+            MethodHandle getField = MemberStubs.stub(lookup, Opcodes.GETSTATIC, LinkageTests.class, "stubField",
+                    MethodType.methodType(int.class), lookup.findStaticGetter(LinkageTests.class, "stubField", int.class));
+            assert (int) getField.invokeExact() == 5;
+
+            assert MemberStubs.stub(lookup, Opcodes.INVOKESTATIC, LinkageTests.class, "privateMethod",
+                    MethodType.methodType(int.class), lookup.findStatic(LinkageTests.class, "privateMethod", MethodType.methodType(int.class))) == null;
+
+            // linked through the bootstrap method, with a fresh remapper so that nothing is cached
+            String prefix = "java/util/";
+            ClassNameRemapperFunction classRemapper = internalName -> internalName.startsWith("java/") ? internalName : prefix + internalName;
+            NameRemapperFunction nameRemapper = (owner, name, descriptor) -> name;
+            MethodHandle target = Bootstrap.obfMethodOrFieldBootstrap(lookup, "add",
+                    MethodType.methodType(boolean.class, Object.class, Object.class), Opcodes.INVOKEVIRTUAL,
+                    MethodHandles.constant(ClassNameRemapperFunction.class, classRemapper),
+                    MethodHandles.constant(NameRemapperFunction.class, nameRemapper), ZERO,
+                    "ArrayList", "add", "(Ljava/lang/Object;)Z").getTarget();
+            ArrayList<Object> list = new ArrayList<>();
+            assert (boolean) target.invokeExact((Object) list, (Object) "a");
+            assert list.size() == 1;
+        } finally {
+            MemberStubs.setEnabled(false);
+        }
+        assert MemberStubs.stub(lookup, Opcodes.GETSTATIC, LinkageTests.class, "stubField",
+                MethodType.methodType(int.class), lookup.findStaticGetter(LinkageTests.class, "stubField", int.class)) == null;
+    }
+
+    @Test
+    public void testCallerSensitiveStubs() throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType lookupType = MethodType.methodType(MethodHandles.Lookup.class);
+        MethodType forNameType = MethodType.methodType(Class.class, String.class);
+        MemberStubs.setEnabled(true);
+        try {
+            assert MemberStubs.stub(lookup, Opcodes.INVOKESTATIC, MethodHandles.class, "lookup", lookupType,
+                    lookup.findStatic(MethodHandles.class, "lookup", lookupType)) == null;
+            assert MemberStubs.stub(lookup, Opcodes.INVOKESTATIC, Class.class, "forName", forNameType,
+                    lookup.findStatic(Class.class, "forName", forNameType)) == null;
+
+            // linked through the bootstrap method, they still see the call site's class rather than a stub
+            ClassNameRemapperFunction classRemapper = internalName -> internalName;
+            NameRemapperFunction nameRemapper = (owner, name, descriptor) -> name;
+            MethodHandle getClassRemapper = MethodHandles.constant(ClassNameRemapperFunction.class, classRemapper);
+            MethodHandle getNameRemapper = MethodHandles.constant(NameRemapperFunction.class, nameRemapper);
+            MethodHandle lookupTarget = Bootstrap.obfMethodOrFieldBootstrap(lookup, "lookup", lookupType,
+                    Opcodes.INVOKESTATIC, getClassRemapper, getNameRemapper, ZERO,
+                    "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;").getTarget();
+            // a direct handle of lookup() answers for an invoker of the caller rather than the caller itself
+            MethodHandles.Lookup expected = (MethodHandles.Lookup) lookup.findStatic(MethodHandles.class, "lookup",
+                    lookupType).invokeExact();
+            assert ((MethodHandles.Lookup) lookupTarget.invokeExact()).lookupClass() == expected.lookupClass();
+            MethodHandle forNameTarget = Bootstrap.obfMethodOrFieldBootstrap(lookup, "forName", forNameType,
+                    Opcodes.INVOKESTATIC, getClassRemapper, getNameRemapper, ZERO,
+                    "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;").getTarget();
+            assert (Class<?>) forNameTarget.invokeExact(LinkageTests.class.getName()) == LinkageTests.class;
+        } finally {
+            MemberStubs.setEnabled(false);
+        }
+    }
+
+    private static final ThreadLocal<Integer> ENV_CONTEXT = ThreadLocal.withInitial(() -> 0);
+
+    @Test
+    public void testPerInvocation() throws Throwable {
+        String[] names = { "java/lang/String", "java/lang/Integer", "java/lang/Long", "java/util/List", "java/util/Map", "java/util/Set" };
+        Class<?>[] classes = { String.class, Integer.class, Long.class, java.util.List.class, java.util.Map.class, java.util.Set.class };
+        String prefix = "";
+        ClassNameRemapperFunction classRemapper = internalName -> prefix + internalName;
+        MethodHandle getEnv = MethodHandles.lookup()
+                .findVirtual(ThreadLocal.class, "get", MethodType.methodType(Object.class))
+                .bindTo(ENV_CONTEXT)
+                .asType(MethodType.methodType(int.class));
+
+        CallSites.setMode(CallSiteMode.PER_INVOCATION);
+        try {
+            MethodHandle target = Bootstrap.obfTypeBootstrap(MethodHandles.lookup(), "constant", MethodType.methodType(Class.class),
+                    Opcodes.LDC, MethodHandles.constant(ClassNameRemapperFunction.class, classRemapper), getEnv, names)
+                    .dynamicInvoker();
+            // first through the guards, then through the table once every environment is seen
+            for (int round = 0; round < 2; round++) {
+                for (int env = 0; env < names.length; env++) {
+                    ENV_CONTEXT.set(env);
+                    assert (Class<?>) target.invokeExact() == classes[env];
+                }
+            }
+            // out of range of the table, the site still fails with the environment
+            ENV_CONTEXT.set(names.length);
+            try {
+                Class<?> unused = (Class<?>) target.invokeExact();
+                assert false;
+            } catch (IllegalStateException expected) {
+                assert expected.getMessage().contains(String.valueOf(names.length));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                List<Future<Class<?>>> futures = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    int env = i % names.length;
+                    futures.add(executor.submit(() -> {
+                        ENV_CONTEXT.set(env);
+                        try {
+                            return (Class<?>) target.invokeExact();
+                        } catch (Throwable t) {
+                            throw new IllegalStateException(t);
+                        }
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++) assert futures.get(i).get() == classes[i % names.length];
+            } finally {
+                executor.shutdown();
+            }
+        } finally {
+            CallSites.setMode(CallSiteMode.CONSTANT);
+            ENV_CONTEXT.remove();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Throwable {
+        LinkageMetrics metrics = LinkageMetrics.get();
+        metrics.reset();
+        // fresh remappers, so that nothing is cached yet
+        ClassNameRemapperFunction classRemapper = internalName -> internalName;
+        NameRemapperFunction nameRemapper = (owner, name, descriptor) -> name;
+        MethodHandle getClassRemapper = MethodHandles.constant(ClassNameRemapperFunction.class, classRemapper);
+        MethodHandle getNameRemapper = MethodHandles.constant(NameRemapperFunction.class, nameRemapper);
+
+        MethodType type = MethodType.methodType(int.class, Object.class);
+        for (int i = 0; i < 2; i++) {
+            Bootstrap.obfMethodOrFieldBootstrap(MethodHandles.lookup(), "hashCode", type,
+                    Opcodes.INVOKEVIRTUAL, getClassRemapper, getNameRemapper, ZERO,
+                    "java/lang/Object", "hashCode", "()I").getTarget();
+        }
+        try {
+            Bootstrap.obfTypeBootstrap(MethodHandles.lookup(), "constant", MethodType.methodType(Class.class),
+                    Opcodes.LDC, getClassRemapper, ZERO, "does/not/Exist").getTarget();
+            assert false;
+        } catch (ClassNotFoundException expected) {
+        }
+
+        assert metrics.getLinksByOpcode().get("INVOKEVIRTUAL") == 2;
+        assert metrics.getLinksByOpcode().get("LDC") == 1;
+        assert metrics.getCacheMisses() == 2;
+        assert metrics.getCacheHits() == 1;
+        assert metrics.getFailures() == 1;
+        assert metrics.getSlowestLinks().length == 2;
+        assert metrics.getSlowestLinks()[0].contains("LinkageTests");
+
+        LinkageMetrics.register();
+        LinkageMetrics.register();
+        Object misses = ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(LinkageMetrics.OBJECT_NAME), "CacheMisses");
+        assert Long.valueOf(2).equals(misses);
+    }
+
+}
@@ -0,0 +1,205 @@
+package eutros.runtimeobf.tests;
+
+import eutros.runtimeobf.function.NameRemapperFunction;
+import eutros.runtimeobf.mapping.ClassHierarchy;
+import eutros.runtimeobf.mapping.CompiledHierarchy;
+import eutros.runtimeobf.mapping.CompiledMappings;
+import eutros.runtimeobf.mapping.HierarchyCompiler;
+import eutros.runtimeobf.mapping.HierarchyIndex;
+import eutros.runtimeobf.mapping.LoadedClassHierarchy;
+import eutros.runtimeobf.mapping.MappingCompiler;
+import eutros.runtimeobf.mapping.ProGuardReader;
+import eutros.runtimeobf.mapping.SrgReader;
+import eutros.runtimeobf.mapping.TinyV2Reader;
+import eutros.runtimeobf.transform.TransformationConfig;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class MappingTests {
+
+    private static CompiledMappings compile(MappingCompiler compiler) throws IOException {
+        Path path = Files.createTempFile("mappings", ".bin");
+        try {
+            compiler.write(path);
+            return CompiledMappings.open(path);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static BufferedReader reader(String s) {
+        return new BufferedReader(new StringReader(s));
+    }
+
+    @Test
+    public void testTiny() throws IOException {
+        String tiny = "tiny\t2\t0\tofficial\tnamed\n" +
+                "c\ta\tcom/example/Foo\n" +
+                "\tf\tLb;\tc\tbar\n" +
+                "\tm\t(Lb;)La;\td\tbaz\n" +
+                "\t\tp\t1\t\tparam\n" +
+                "c\tb\tcom/example/Bar\n";
+
+        MappingCompiler compiler = new MappingCompiler();
+        TinyV2Reader.read(reader(tiny), "official", "named", compiler);
+        CompiledMappings mappings = compile(compiler);
+        assert mappings.remapClassName("a").equals("com/example/Foo");
+        assert mappings.remapClassName("c").equals("c");
+        assert mappings.remapName("a", "c", "Lb;").equals("bar");
+        assert mappings.remapName("a", "d", "(Lb;)La;").equals("baz");
+        assert mappings.remapName("a", "d", "()La;").equals("d");
+
+        // descriptors are given in the first namespace
+        compiler = new MappingCompiler();
+        TinyV2Reader.read(reader(tiny), "named", "official", compiler);
+        mappings = compile(compiler);
+        assert mappings.remapClassName("com/example/Foo").equals("a");
+        assert mappings.remapName("com/example/Foo", "baz", "(Lcom/example/Bar;)Lcom/example/Foo;").equals("d");
+    }
+
+    @Test
+    public void testSrg() throws IOException {
+        MappingCompiler compiler = new MappingCompiler();
+        SrgReader.read(reader("PK: a b\n" +
+                "CL: a b\n" +
+                "FD: a/c b/field\n" +
+                "MD: a/d (La;)V b/method (Lb;)V\n"), compiler);
+        CompiledMappings mappings = compile(compiler);
+        assert mappings.remapClassName("a").equals("b");
+        assert mappings.remapName("a", "c", "I").equals("field");
+        assert mappings.remapName("a", "d", "(La;)V").equals("method");
+
+        compiler = new MappingCompiler();
+        SrgReader.read(reader("tsrg2 left right\n" +
+                "a b\n" +
+                "\tc I field\n" +
+                "\td (La;)V method\n" +
+                "\t\tstatic\n"), compiler);
+        mappings = compile(compiler);
+        assert mappings.remapClassName("a").equals("b");
+        assert mappings.remapName("a", "c", "I").equals("field");
+        assert mappings.remapName("a", "c", "J").equals("c");
+        assert mappings.remapName("a", "d", "(La;)V").equals("method");
+    }
+
+    @Test
+    public void testProGuard() throws IOException {
+        MappingCompiler compiler = new MappingCompiler();
+        ProGuardReader.read(reader("# comment\n" +
+                "com.example.Foo -> a:\n" +
+                "    int[] values -> b\n" +
+                "    1:2:java.lang.String name(int,com.example.Foo):3:4 -> c\n" +
+                "    5:5:void com.example.Other.inlined():6:6 -> c\n"), compiler);
+        CompiledMappings mappings = compile(compiler);
+        assert mappings.remapClassName("com/example/Foo").equals("a");
+        assert mappings.remapName("com/example/Foo", "values", "[I").equals("b");
+        assert mappings.remapName("com/example/Foo", "name", "(ILcom/example/Foo;)Ljava/lang/String;").equals("c");
+        assert mappings.methodCount() == 1;
+    }
+
+    @Test
+    public void testManyEntries() throws IOException {
+        MappingCompiler compiler = new MappingCompiler();
+        for (int i = 0; i < 10000; i++) {
+            compiler.mapClass("c" + i, "mapped/C\u00e9" + i);
+            compiler.mapMethod("c" + i, "m", "()V", "m" + i);
+        }
+        CompiledMappings mappings = compile(compiler);
+        for (int i = 0; i < 10000; i++) {
+            assert mappings.remapClassName("c" + i).equals("mapped/C\u00e9" + i);
+            assert mappings.remapName("c" + i, "m", "()V").equals("m" + i);
+        }
+        assert mappings.remapClassName("c10000").equals("c10000");
+    }
+
+    @Test
+    public void testHierarchy() throws IOException {
+        String base = Type.getInternalName(HierarchyBase.class);
+        String itf = Type.getInternalName(HierarchyItf.class);
+        String sub = Type.getInternalName(HierarchySub.class);
+
+        CompiledHierarchy compiled = compile(HierarchyBase.class, HierarchyItf.class, HierarchySub.class);
+        assert compiled.classCount() == 3;
+        assert compiled.superName(sub).equals(base);
+        assert Arrays.equals(compiled.interfaces(sub), new String[] { itf });
+        assert !compiled.contains("java/lang/Object");
+
+        for (ClassHierarchy hierarchy : new ClassHierarchy[] { compiled, new LoadedClassHierarchy(MappingTests.class.getClassLoader()) }) {
+            HierarchyIndex index = new HierarchyIndex(hierarchy);
+            assert index.declaringOwner(sub, "baseField", "I").equals(base);
+            assert index.declaringOwner(sub, "CONSTANT", "I").equals(itf);
+            assert index.declaringOwner(sub, "baseMethod", "()V").equals(base);
+            assert index.declaringOwner(sub, "itfMethod", "()V").equals(itf);
+            assert index.declaringOwner(sub, "subMethod", "()V").equals(sub);
+            assert index.declaringOwner(sub, "missing", "()V").equals(sub);
+            assert index.declaringOwner(sub, "<init>", "()V").equals(sub);
+            assert index.declaringOwner(sub, "hashCode", "()I")
+                    .equals(hierarchy == compiled ? sub : "java/lang/Object");
+
+            NameRemapperFunction remapper = index.remapper((owner, name, descriptor) ->
+                    owner.equals(base) && name.equals("baseMethod") ? "renamed" : name);
+            assert remapper.remapName(sub, "baseMethod", "()V").equals("renamed");
+            assert remapper.remapName(sub, "subMethod", "()V").equals("subMethod");
+        }
+
+        Handle handle = new Handle(Opcodes.H_GETSTATIC, "Owner", "field", "Ljava/lang/Object;", false);
+        TransformationConfig.Builder builder = TransformationConfig.builder(handle, handle, handle, 2)
+                .mapMethod(base, "baseMethod", "()V", "a", "b")
+                .mapField(itf, "CONSTANT", "I", "c", "d");
+        TransformationConfig config = builder.build();
+        assert config.expandMethod(sub, "baseMethod", "()V") == null;
+        config = builder.hierarchy(new HierarchyIndex(compiled)).build();
+        assert Arrays.equals(config.expandMethod(sub, "baseMethod", "()V"), new String[] { "a", "b" });
+        assert Arrays.equals(config.expandField(sub, "CONSTANT", "I"), new String[] { "c", "d" });
+        assert config.expandMethod(sub, "subMethod", "()V") == null;
+
+        // the fingerprint follows the contents of the hierarchy, not just whether there is one
+        byte[] fingerprint = config.fingerprint();
+        assert Arrays.equals(fingerprint, builder.hierarchy(new HierarchyIndex(
+                compile(HierarchyBase.class, HierarchyItf.class, HierarchySub.class))).build().fingerprint());
+        assert !Arrays.equals(fingerprint, builder.hierarchy(new HierarchyIndex(
+                compile(HierarchyBase.class, HierarchySub.class))).build().fingerprint());
+        // and one that can't be digested never matches
+        builder.hierarchy(new HierarchyIndex(new LoadedClassHierarchy(MappingTests.class.getClassLoader())));
+        assert !Arrays.equals(builder.build().fingerprint(), builder.build().fingerprint());
+    }
+
+    private static CompiledHierarchy compile(Class<?>... classes) throws IOException {
+        HierarchyCompiler compiler = new HierarchyCompiler();
+        for (Class<?> clazz : classes) compiler.add(TestHelper.getClassBytes(clazz));
+        Path path = Files.createTempFile("hierarchy", ".bin");
+        try {
+            compiler.write(path);
+            return CompiledHierarchy.open(path);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    public interface HierarchyItf {
+        int CONSTANT = 1;
+
+        void itfMethod();
+    }
+
+    public static class HierarchyBase {
+        public int baseField;
+
+        public void baseMethod() {
+        }
+    }
+
+    public static abstract class HierarchySub extends HierarchyBase implements HierarchyItf {
+        public void subMethod() {
+        }
+    }
+}
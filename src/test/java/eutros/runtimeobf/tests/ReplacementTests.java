@@ -2,6 +2,7 @@ package eutros.runtimeobf.tests;
 
 import eutros.runtimeobf.asm.OwnerNameAndDesc;
 import eutros.runtimeobf.asm.RuntimeObfMethodVisitor;
+import eutros.runtimeobf.asm.SpecializingClassVisitor;
 import eutros.runtimeobf.function.ClassNameRemapperFunction;
 import eutros.runtimeobf.function.NameRemapperFunction;
 import eutros.runtimeobf.util.AsmHelper;
@@ -12,6 +13,7 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ReplacementTests {
@@ -42,6 +44,7 @@ public class ReplacementTests {
         classMappings.put("java/lang/String", new String[] { "java/lang/String" });
         fieldNameMappings.put(new OwnerNameAndDesc("java/lang/Integer", "MAX_VALUE", "I"), new String[] { "MAX_VALUE" });
         methodNameMappings.put(new OwnerNameAndDesc("java/lang/Object", "toString", "()Ljava/lang/String;"), new String[] { "toString" });
+        methodNameMappings.put(new OwnerNameAndDesc("java/util/List", "of", "(Ljava/lang/Object;)Ljava/util/List;"), new String[] { "of" });
     }
 
     private static class StubReplacingClassVisitor extends ClassVisitor {
@@ -72,6 +75,49 @@ public class ReplacementTests {
             Object stringsObject = strings;
             boolean isStringsObjectStringArray = stringsObject instanceof String[];
             strings = (String[]) stringsObject;
+            Object stringObject = new StringBuilder().append(strings.length).toString();
+            String string = (String) stringObject;
+            Class<?> stringClass = String.class;
+        }
+    }
+
+    @Test
+    public void testMembers() {
+        TestHelper.tryConstructTransformed(MembersTest.class, StubReplacingClassVisitor::new);
+    }
+
+    @SuppressWarnings({ "unused", "StringOperationCanBeSimplified" })
+    public static class MembersTest {
+        private String stringField = new Object().toString();
+        private static String STRING_STATIC = "static";
+
+        public MembersTest() {
+            int length = stringField.length() + STRING_STATIC.length();
+            stringField = String.valueOf(length);
+            STRING_STATIC = new String(stringField);
+        }
+    }
+
+    @Test
+    public void testSpecialization() {
+        TestHelper.tryConstructTransformed(TypesTest.class, cv -> new StubReplacingClassVisitor(
+                new SpecializingClassVisitor(cv, 0, IDENTITY_CLASSNAME, IDENTITY_NAME)));
+        TestHelper.tryConstructTransformed(MembersTest.class, cv -> new StubReplacingClassVisitor(
+                new SpecializingClassVisitor(cv, 0, IDENTITY_CLASSNAME, IDENTITY_NAME)));
+        TestHelper.tryConstructTransformed(FramesTest.class, cv -> new StubReplacingClassVisitor(
+                new SpecializingClassVisitor(cv, 0, IDENTITY_CLASSNAME, IDENTITY_NAME)));
+    }
+
+    @Test
+    public void testInterfaceStatic() {
+        TestHelper.tryConstructTransformed(InterfaceStaticTest.class, StubReplacingClassVisitor::new);
+        TestHelper.tryConstructTransformed(InterfaceStaticTest.class, cv -> new StubReplacingClassVisitor(
+                new SpecializingClassVisitor(cv, 0, IDENTITY_CLASSNAME, IDENTITY_NAME)));
+    }
+
+    public static class InterfaceStaticTest {
+        public InterfaceStaticTest() {
+            assert List.of("a").size() == 1;
         }
     }
 
@@ -10,6 +10,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.function.Function;
 
 public class TestHelper {
@@ -30,6 +31,27 @@ public class TestHelper {
         }
     }
 
+    /**
+     * Define classes together, preferring them over any class of the same name the parent loader has.
+     */
+    public static ClassLoader loadAll(Map<String, byte[]> classes) {
+        return new ClassLoader(TestHelper.class.getClassLoader()) {
+            @Override
+            protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) return super.loadClass(name, resolve);
+                Class<?> loaded = findLoadedClass(name);
+                return loaded != null ? loaded : defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+    }
+
+    public static byte[] getClassBytes(Class<?> clazz) {
+        ClassWriter cw = new ClassWriter(0);
+        getClassReader(clazz).accept(cw, 0);
+        return cw.toByteArray();
+    }
+
     public static Class<?> tryLoad(String name, byte[] bytes) {
         try {
             return forceVerify(new Loader().define(name, bytes));
@@ -0,0 +1,111 @@
+package eutros.runtimeobf.tests;
+
+import eutros.runtimeobf.transform.ClassTransformer;
+import eutros.runtimeobf.transform.Fingerprint;
+import eutros.runtimeobf.transform.TransformCache;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TransformCacheTests {
+
+    private static final byte[] FINGERPRINT = new Fingerprint().add("test").build();
+
+    @Test
+    public void testPersistence() throws IOException {
+        Path pack = Files.createTempFile("transform-cache", ".pack");
+        try {
+            byte[] a = TransformCache.key(FINGERPRINT, bytes("a"));
+            byte[] b = TransformCache.key(FINGERPRINT, bytes("b"));
+            try (TransformCache cache = TransformCache.open(pack)) {
+                assert cache.get(a) == null;
+                cache.put(a, bytes("A"));
+                cache.put(b, bytes("B"));
+                assert Arrays.equals(cache.get(a), bytes("A"));
+            }
+
+            // simulate a writer that crashed midway through a record
+            long size = Files.size(pack);
+            try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }));
+            }
+
+            byte[] c = TransformCache.key(FINGERPRINT, bytes("c"));
+            try (TransformCache cache = TransformCache.open(pack)) {
+                assert Files.size(pack) == size;
+                assert Arrays.equals(cache.get(a), bytes("A"));
+                assert Arrays.equals(cache.get(b), bytes("B"));
+                cache.put(c, bytes("C"));
+            }
+            try (TransformCache cache = TransformCache.open(pack)) {
+                assert Arrays.equals(cache.get(c), bytes("C"));
+            }
+        } finally {
+            Files.delete(pack);
+        }
+    }
+
+    @Test
+    public void testSameFile() throws Exception {
+        Path pack = Files.createTempFile("transform-cache", ".pack");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (TransformCache first = TransformCache.open(pack);
+             TransformCache second = TransformCache.open(pack)) {
+            // appends from both caches at once would overlap their file locks
+            List<Future<?>> futures = new ArrayList<>();
+            byte[] data = new byte[1 << 16];
+            for (int i = 0; i < 256; i++) {
+                TransformCache cache = i % 2 == 0 ? first : second;
+                byte[] key = TransformCache.key(FINGERPRINT, bytes(Integer.toString(i)));
+                futures.add(executor.submit(() -> {
+                    cache.put(key, data);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+            for (int i = 0; i < 256; i++) {
+                byte[] key = TransformCache.key(FINGERPRINT, bytes(Integer.toString(i)));
+                assert Arrays.equals(first.get(key), data);
+                assert Arrays.equals(second.get(key), data);
+            }
+        } finally {
+            executor.shutdownNow();
+            Files.delete(pack);
+        }
+    }
+
+    @Test
+    public void testCachedTransformer() throws IOException {
+        Path pack = Files.createTempFile("transform-cache", ".pack");
+        try (TransformCache cache = TransformCache.open(pack)) {
+            AtomicInteger calls = new AtomicInteger();
+            ClassTransformer transformer = cache.cached((internalName, classBytes) -> {
+                calls.incrementAndGet();
+                return bytes(new String(classBytes, StandardCharsets.UTF_8).toUpperCase());
+            }, FINGERPRINT);
+            assert Arrays.equals(transformer.transform("a", bytes("a")), bytes("A"));
+            assert Arrays.equals(transformer.transform("a", bytes("a")), bytes("A"));
+            assert calls.get() == 1;
+        } finally {
+            Files.delete(pack);
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -1,21 +1,55 @@
 package eutros.runtimeobf.tests;
 
 import eutros.runtimeobf.asm.ErasingClassVisitor;
+import eutros.runtimeobf.asm.MethodScanner;
 import eutros.runtimeobf.asm.OwnerNameAndDesc;
 import eutros.runtimeobf.asm.RuntimeObfMethodVisitor;
+import eutros.runtimeobf.asm.SiteTableClassVisitor;
+import eutros.runtimeobf.asm.SpecializingClassVisitor;
 import eutros.runtimeobf.function.ClassNameRemapperFunction;
 import eutros.runtimeobf.function.NameRemapperFunction;
+import eutros.runtimeobf.linkage.CallSiteMode;
+import eutros.runtimeobf.linkage.CallSites;
+import eutros.runtimeobf.mapping.HierarchyIndex;
+import eutros.runtimeobf.mapping.LoadedClassHierarchy;
+import eutros.runtimeobf.transform.ClassTransformer;
+import eutros.runtimeobf.transform.ErasedMemberIndex;
+import eutros.runtimeobf.transform.TransformationConfig;
+import eutros.runtimeobf.transform.TransformingClassLoader;
 import eutros.runtimeobf.util.AsmHelper;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 public class TransformationTests {
 
@@ -37,8 +71,11 @@ public class TransformationTests {
     public static ClassNameRemapperFunction CLASS_REMAPPER = internalName -> "java/util/" + internalName;
     public static NameRemapperFunction NAME_REMAPPER = (owner, name, descriptor) -> name;
 
-    @Test
-    public void testTransformationListImpl() throws Throwable {
+    static byte[] transformListImpl() {
+        return transformListImpl(false);
+    }
+
+    static byte[] transformListImpl(boolean siteTable) {
         ClassWriter cw = new ClassWriter(0);
         Predicate<String> internalNamePredicate = "java/util/ArrayList"::equals;
         Predicate<OwnerNameAndDesc> namePredicate = ownerNameAndDesc ->
@@ -46,7 +83,8 @@ public class TransformationTests {
                         ownerNameAndDesc.desc.contains("ArrayList");
         Consumer<OwnerNameAndDesc> NOOP = $ -> {
         };
-        TestHelper.getClassReader(TransformationListImplTest.class).accept(new ErasingClassVisitor(cw, internalNamePredicate, NOOP, NOOP) {
+        ClassVisitor cv = siteTable ? new SiteTableClassVisitor(cw) : cw;
+        TestHelper.getClassReader(TransformationListImplTest.class).accept(new ErasingClassVisitor(cv, internalNamePredicate, NOOP, NOOP) {
             @Override
             public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
                 MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
@@ -58,8 +96,163 @@ public class TransformationTests {
                         namePredicate, namePredicate);
             }
         }, 0);
+        return cw.toByteArray();
+    }
+
+    @Test
+    public void testTransformationListImpl() throws Throwable {
+        byte[] bytes = transformListImpl();
+        ENV = 0;
+        assert ((ListSupplier) TestHelper.tryLoad(TransformationListImplTest.class.getName(), bytes)
+                .getConstructor()
+                .newInstance())
+                .getList() instanceof ArrayList;
+        ENV = 1;
+        assert ((ListSupplier) TestHelper.tryLoad(TransformationListImplTest.class.getName(), bytes)
+                .getConstructor()
+                .newInstance())
+                .getList() instanceof LinkedList;
+    }
+
+    @Test
+    public void testEnvironmentSwitch() throws Throwable {
+        byte[] bytes = transformListImpl();
+        ClassNameRemapperFunction classRemapper = CLASS_REMAPPER;
+        CallSites.setMode(CallSiteMode.SWITCHABLE);
+        try {
+            ENV = 0;
+            Constructor<?> constructor = TestHelper.tryLoad(TransformationListImplTest.class.getName(), bytes)
+                    .getConstructor();
+            assert ((ListSupplier) constructor.newInstance()).getList() instanceof ArrayList;
+            CallSites.switchEnvironment(() -> ENV = 1);
+            assert ((ListSupplier) constructor.newInstance()).getList() instanceof LinkedList;
+            CallSites.switchEnvironment(() -> ENV = 0);
+            assert ((ListSupplier) constructor.newInstance()).getList() instanceof ArrayList;
+
+            // a target missing from the new environment fails as linking would, and isn't resolved again
+            AtomicInteger remaps = new AtomicInteger();
+            CLASS_REMAPPER = internalName -> {
+                remaps.incrementAndGet();
+                return "LinkedList".equals(internalName) ? "does/not/Exist" : "java/util/" + internalName;
+            };
+            CallSites.switchEnvironment(() -> ENV = 1);
+            Throwable first = failure(constructor);
+            int resolved = remaps.get();
+            assert failure(constructor) == first;
+            assert remaps.get() == resolved;
+            assert first instanceof BootstrapMethodError && first.getCause() instanceof ClassNotFoundException;
+
+            CLASS_REMAPPER = classRemapper;
+            CallSites.switchEnvironment(() -> ENV = 0);
+            assert ((ListSupplier) constructor.newInstance()).getList() instanceof ArrayList;
+        } finally {
+            CallSites.setMode(CallSiteMode.CONSTANT);
+            CLASS_REMAPPER = classRemapper;
+            ENV = 0;
+        }
+    }
+
+    private static Throwable failure(Constructor<?> constructor) throws ReflectiveOperationException {
+        try {
+            constructor.newInstance();
+        } catch (InvocationTargetException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("Expected " + constructor + " to fail");
+    }
+
+    @Test
+    public void testPerInvocation() throws Throwable {
+        byte[] bytes = transformListImpl();
+        ClassNameRemapperFunction classRemapper = CLASS_REMAPPER;
+        CallSites.setMode(CallSiteMode.PER_INVOCATION);
+        try {
+            Constructor<?> constructor = TestHelper.tryLoad(TransformationListImplTest.class.getName(), bytes)
+                    .getConstructor();
+            for (int env : new int[] { 0, 1, 0, 1 }) {
+                ENV = env;
+                assert ((ListSupplier) constructor.newInstance()).getList().getClass() == (env == 0 ? ArrayList.class : LinkedList.class);
+            }
+
+            // a target missing from one environment fails as linking would, and leaves the others working
+            AtomicInteger remaps = new AtomicInteger();
+            CLASS_REMAPPER = internalName -> {
+                remaps.incrementAndGet();
+                return "LinkedList".equals(internalName) ? "does/not/Exist" : "java/util/" + internalName;
+            };
+            constructor = TestHelper.tryLoad(TransformationListImplTest.class.getName(), bytes).getConstructor();
+            ENV = 0;
+            assert ((ListSupplier) constructor.newInstance()).getList() instanceof ArrayList;
+            ENV = 1;
+            Throwable first = failure(constructor);
+            int resolved = remaps.get();
+            assert failure(constructor) == first;
+            assert remaps.get() == resolved;
+            assert first instanceof BootstrapMethodError && first.getCause() instanceof ClassNotFoundException;
+            ENV = 0;
+            assert ((ListSupplier) constructor.newInstance()).getList() instanceof ArrayList;
+        } finally {
+            CallSites.setMode(CallSiteMode.CONSTANT);
+            CLASS_REMAPPER = classRemapper;
+            ENV = 0;
+        }
+    }
+
+    @Test
+    public void testSpecialization() throws Throwable {
+        ClassWriter cw = new ClassWriter(0);
+        new ClassReader(transformListImpl()).accept(new SpecializingClassVisitor(cw, 1, CLASS_REMAPPER, NAME_REMAPPER), 0);
         byte[] bytes = cw.toByteArray();
         ENV = 0;
+        assert ((ListSupplier) TestHelper.tryLoad(TransformationListImplTest.class.getName(), bytes)
+                .getConstructor()
+                .newInstance())
+                .getList() instanceof LinkedList;
+        assert !new String(bytes, StandardCharsets.ISO_8859_1).contains("obfMethodOrFieldBootstrap");
+    }
+
+    @Test
+    public void testConfig() throws Throwable {
+        String owner = TransformationListImplTest.class.getName().replace('.', '/');
+        TransformationConfig config = TransformationConfig.builder(getClassRemapper, getNameRemapper, getEnv, 2)
+                .mapClass("java/util/ArrayList", "ArrayList", "LinkedList")
+                .eraseField(owner, "listField", "Ljava/util/ArrayList;")
+                .eraseMethod(owner, "createList", "()Ljava/util/ArrayList;")
+                .build();
+        assert config.expandClass("java/util/ArrayList") == config.expandClass("(Ljava/util/ArrayList;)V", 2, 21);
+        assert config.isMappedClass("Ljava/util/ArrayList;", 1, 20);
+        assert !config.isMappedClass("Ljava/util/ArrayLis;", 1, 19);
+        assert config.isErasedMethod(owner, "createList", "()Ljava/util/ArrayList;");
+        assert !config.isErasedField(owner, "createList", "()Ljava/util/ArrayList;");
+        assert config.expandMethod(owner, "createList", "()Ljava/util/ArrayList;") == null;
+
+        Set<String> changed = MethodScanner.changedMethods(TestHelper.getClassReader(TransformationListImplTest.class), config);
+        assert changed.contains(MethodScanner.key("createList", "()Ljava/util/ArrayList;"));
+        assert changed.contains(MethodScanner.key("getList", "()Ljava/util/List;"));
+        assert !changed.contains(MethodScanner.key("twice", "(I)I"));
+
+        byte[] bytes = config.classTransformer().transform(owner, TestHelper.getClassBytes(TransformationListImplTest.class));
+        ENV = 1;
+        Object instance = TestHelper.tryLoad(TransformationListImplTest.class.getName(), bytes)
+                .getConstructor()
+                .newInstance();
+        assert ((ListSupplier) instance).getList() instanceof LinkedList;
+        assert (Integer) instance.getClass().getMethod("twice", int.class).invoke(instance, 21) == 42;
+
+        // classes with nothing to rewrite come back as they are, and erased fields alone are something
+        byte[] plain = TestHelper.getClassBytes(ListSupplier.class);
+        assert config.classTransformer().transform(ListSupplier.class.getName().replace('.', '/'), plain) == plain;
+        byte[] fieldOnly = TestHelper.getClassBytes(ErasedFieldOnlyTest.class);
+        assert config.classTransformer().transform(ErasedFieldOnlyTest.class.getName().replace('.', '/'), fieldOnly) != fieldOnly;
+    }
+
+    @Test
+    public void testSiteTable() throws Throwable {
+        byte[] bytes = transformListImpl(true);
+        String constants = new String(bytes, StandardCharsets.ISO_8859_1);
+        assert constants.contains("siteTable");
+        assert !constants.contains("obfMethodOrFieldBootstrap");
+        ENV = 0;
         assert ((ListSupplier) TestHelper.tryLoad(TransformationListImplTest.class.getName(), bytes)
                 .getConstructor()
                 .newInstance())
@@ -69,6 +262,193 @@ public class TransformationTests {
                 .getConstructor()
                 .newInstance())
                 .getList() instanceof LinkedList;
+
+        ClassWriter cw = new ClassWriter(0);
+        new ClassReader(bytes).accept(new SpecializingClassVisitor(cw, 0, CLASS_REMAPPER, NAME_REMAPPER), 0);
+        assert ((ListSupplier) TestHelper.tryLoad(TransformationListImplTest.class.getName(), cw.toByteArray())
+                .getConstructor()
+                .newInstance())
+                .getList() instanceof ArrayList;
+    }
+
+    @Test
+    public void testErasedMemberIndex() throws Throwable {
+        TransformationConfig config = TransformationConfig.builder(getClassRemapper, getNameRemapper, getEnv, 2)
+                .mapClass("java/util/ArrayList", "ArrayList", "LinkedList")
+                .build();
+        Map<String, byte[]> original = new LinkedHashMap<>();
+        original.put(ErasedOwnerTest.class.getName(), TestHelper.getClassBytes(ErasedOwnerTest.class));
+        original.put(ErasedUserTest.class.getName(), TestHelper.getClassBytes(ErasedUserTest.class));
+
+        ErasedMemberIndex index = ErasedMemberIndex.scan(original.values(), config);
+        String owner = ErasedOwnerTest.class.getName().replace('.', '/');
+        assert index.size() == 1;
+        assert index.isErasedField(owner, "list", "Ljava/util/ArrayList;");
+        assert !config.isErasedField(owner, "list", "Ljava/util/ArrayList;");
+
+        ClassTransformer transformer = config.classTransformer(index);
+        Map<String, byte[]> transformed = new HashMap<>();
+        original.forEach((name, bytes) -> transformed.put(name, transformer.transform(name.replace('.', '/'), bytes)));
+        ENV = 1;
+        ListSupplier supplier = (ListSupplier) TestHelper.loadAll(transformed)
+                .loadClass(ErasedUserTest.class.getName())
+                .getConstructor()
+                .newInstance();
+        assert supplier.getList() instanceof LinkedList;
+    }
+
+    @Test
+    public void testErasedMemberIndexHierarchy() throws Throwable {
+        TransformationConfig config = TransformationConfig.builder(getClassRemapper, getNameRemapper, getEnv, 2)
+                .mapClass("java/util/ArrayList", "ArrayList", "LinkedList")
+                .hierarchy(new HierarchyIndex(new LoadedClassHierarchy(TransformationTests.class.getClassLoader())))
+                .build();
+        Map<String, byte[]> original = new LinkedHashMap<>();
+        for (Class<?> clazz : new Class<?>[] { ErasedOwnerTest.class, ErasedSubOwnerTest.class, ErasedSubUserTest.class }) {
+            original.put(clazz.getName(), TestHelper.getClassBytes(clazz));
+        }
+
+        // the user refers to the field through the subclass, which doesn't declare it
+        ErasedMemberIndex index = ErasedMemberIndex.scan(original.values(), config);
+        String subOwner = ErasedSubOwnerTest.class.getName().replace('.', '/');
+        assert !index.isErasedField(subOwner, "list", "Ljava/util/ArrayList;");
+        assert index.isErasedField(subOwner, "list", "Ljava/util/ArrayList;",
+                new HierarchyIndex(new LoadedClassHierarchy(TransformationTests.class.getClassLoader())));
+
+        ClassTransformer transformer = config.classTransformer(index);
+        Map<String, byte[]> transformed = new HashMap<>();
+        original.forEach((name, bytes) -> transformed.put(name, transformer.transform(name.replace('.', '/'), bytes)));
+        ENV = 1;
+        ListSupplier supplier = (ListSupplier) TestHelper.loadAll(transformed)
+                .loadClass(ErasedSubUserTest.class.getName())
+                .getConstructor()
+                .newInstance();
+        assert supplier.getList() instanceof LinkedList;
+    }
+
+    @Test
+    public void testTransformingClassLoader(@TempDir Path dir) throws Throwable {
+        String owner = TransformationListImplTest.class.getName().replace('.', '/');
+        TransformationConfig config = TransformationConfig.builder(getClassRemapper, getNameRemapper, getEnv, 2)
+                .mapClass("java/util/ArrayList", "ArrayList", "LinkedList")
+                .eraseField(owner, "listField", "Ljava/util/ArrayList;")
+                .eraseMethod(owner, "createList", "()Ljava/util/ArrayList;")
+                .build();
+        Set<String> hidden = new HashSet<>();
+        for (Class<?> clazz : new Class<?>[] { TransformationListImplTest.class, ErasedOwnerTest.class, ErasedUserTest.class }) {
+            Path file = dir.resolve(clazz.getName().replace('.', '/') + ".class");
+            Files.createDirectories(file.getParent());
+            Files.write(file, TestHelper.getClassBytes(clazz));
+            hidden.add(clazz.getName());
+        }
+        // hide the untransformed classes, so that the transforming loader finds its own
+        ClassLoader parent = new ClassLoader(TransformationTests.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (hidden.contains(name)) throw new ClassNotFoundException(name);
+                return super.loadClass(name, resolve);
+            }
+        };
+
+        ENV = 1;
+        try (TransformingClassLoader loader = new TransformingClassLoader(new URL[] { dir.toUri().toURL() }, parent, config)) {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Class<?>>> futures = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    String name = i % 2 == 0 ? TransformationListImplTest.class.getName() : ErasedOwnerTest.class.getName();
+                    futures.add(executor.submit(() -> loader.loadClass(name)));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    assert futures.get(i).get() == futures.get(i % 2).get();
+                    assert futures.get(i).get().getClassLoader() == loader;
+                }
+                assert ((ListSupplier) futures.get(0).get().getConstructor().newInstance()).getList() instanceof LinkedList;
+                assert futures.get(0).get().getPackage() != null;
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testTransformingClassLoaderJar(@TempDir Path dir) throws Throwable {
+        TransformationConfig config = TransformationConfig.builder(getClassRemapper, getNameRemapper, getEnv, 2)
+                .mapClass("java/util/ArrayList", "ArrayList", "LinkedList")
+                .build();
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.IMPLEMENTATION_VERSION, "1.2.3");
+        manifest.getMainAttributes().put(Attributes.Name.SEALED, "true");
+        Path jar = dir.resolve("sealed.jar");
+        try (JarOutputStream jos = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            jos.putNextEntry(new JarEntry(TransformationListImplTest.class.getName().replace('.', '/') + ".class"));
+            jos.write(TestHelper.getClassBytes(TransformationListImplTest.class));
+        }
+        ClassLoader parent = new ClassLoader(TransformationTests.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (name.equals(TransformationListImplTest.class.getName())) throw new ClassNotFoundException(name);
+                return super.loadClass(name, resolve);
+            }
+        };
+
+        try (TransformingClassLoader loader = new TransformingClassLoader(new URL[] { jar.toUri().toURL() }, parent, config)) {
+            Class<?> clazz = loader.loadClass(TransformationListImplTest.class.getName());
+            assert clazz.getClassLoader() == loader;
+            assert "1.2.3".equals(clazz.getPackage().getImplementationVersion());
+            assert clazz.getPackage().isSealed(jar.toUri().toURL());
+        }
+    }
+
+    @Test
+    public void testElideIdentical() throws Throwable {
+        String owner = IdentityElisionTest.class.getName().replace('.', '/');
+        byte[] original = TestHelper.getClassBytes(IdentityElisionTest.class);
+
+        TransformationConfig.Builder identical = TransformationConfig.builder(getClassRemapper, getNameRemapper, getEnv, 2)
+                .mapClass("java/util/ArrayList", "java/util/ArrayList", "java/util/ArrayList");
+        byte[] kept = identical.build().classTransformer().transform(owner, original);
+        byte[] elided = identical.elideIdentical(true).build().classTransformer().transform(owner, original);
+        byte[] differing = TransformationConfig.builder(getClassRemapper, getNameRemapper, getEnv, 2)
+                .mapClass("java/util/ArrayList", "java/util/ArrayList", "java/util/LinkedList")
+                .elideIdentical(true)
+                .build()
+                .classTransformer()
+                .transform(owner, original);
+
+        // only the constructor and the invocation with its receiver beneath an argument are left
+        assert countInvokeDynamic(elided) == 2;
+        assert countInvokeDynamic(kept) > 2;
+        assert countInvokeDynamic(differing) == countInvokeDynamic(kept);
+
+        ClassNameRemapperFunction classRemapper = CLASS_REMAPPER;
+        CLASS_REMAPPER = internalName -> internalName;
+        try {
+            ENV = 1;
+            assert ((ListSupplier) TestHelper.tryLoad(IdentityElisionTest.class.getName(), elided)
+                    .getConstructor()
+                    .newInstance())
+                    .getList() instanceof ArrayList;
+        } finally {
+            CLASS_REMAPPER = classRemapper;
+        }
+    }
+
+    private static int countInvokeDynamic(byte[] bytes) {
+        int[] count = { 0 };
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                        count[0]++;
+                    }
+                };
+            }
+        }, 0);
+        return count[0];
     }
 
     public interface ListSupplier {
@@ -86,6 +466,51 @@ public class TransformationTests {
         public List<Object> getList() {
             return listField;
         }
+
+        public int twice(int x) {
+            return x * 2;
+        }
+    }
+
+    public static class ErasedOwnerTest {
+        public ArrayList<Object> list = new ArrayList<>();
+    }
+
+    public static class ErasedUserTest implements ListSupplier {
+        @Override
+        public List<Object> getList() {
+            return new ErasedOwnerTest().list;
+        }
+    }
+
+    public static class ErasedSubOwnerTest extends ErasedOwnerTest {
+    }
+
+    public static class ErasedSubUserTest implements ListSupplier {
+        @Override
+        public List<Object> getList() {
+            return new ErasedSubOwnerTest().list;
+        }
+    }
+
+    public static class ErasedFieldOnlyTest {
+        public ArrayList<Object> list;
+    }
+
+    public static class IdentityElisionTest implements ListSupplier {
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<Object> getList() {
+            ArrayList<Object> list = new ArrayList<>();
+            list.trimToSize();
+            list.ensureCapacity(4);
+            Object o = list;
+            if (o instanceof ArrayList && ArrayList.class.isInstance(o)) {
+                ArrayList<?>[] lists = new ArrayList<?>[] { (ArrayList<?>) o };
+                return (List<Object>) lists[0];
+            }
+            return null;
+        }
     }
 
 }